@@ -4,14 +4,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
@@ -19,9 +21,15 @@ import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
 import model.User;
-import util.Helper;
+import storage.DuplicateIndex;
+import storage.PhotoRepository;
+import storage.Repositories;
+import storage.ThumbnailAtlas;
 import javafx.scene.control.ButtonType;
 import java.util.Optional;
+import view.Resettable;
+import view.View;
+import view.Views;
 
 
 /**
@@ -32,14 +40,15 @@ import java.util.Optional;
  * @author Isham Khan and Senuri Rupasinghe
  */
 
-public class AdminController {
+public class AdminController implements Resettable {
 	private ArrayList<User> users;
+	private PhotoRepository repository = Repositories.get();
 	@FXML
 	private TextField usernameField;
 	@FXML
 	private ListView<User> userListView;
 	@FXML
-	private Button addUserButton, removeUserButton, showUserButton, logoutButton;
+	private Button addUserButton, removeUserButton, showUserButton, duplicatesButton, logoutButton;
 
 	 /**
      * Initializes the admin controller with a list of users.
@@ -51,6 +60,15 @@ public class AdminController {
 		this.users = users;
 	}
 
+	/**
+	 * Clears what was entered the last time this view was shown
+	 */
+	@Override
+	public void reset() {
+		usernameField.clear();
+		userListView.getItems().clear();
+	}
+
 	 /**
      * Handles adding a new user to the application.
      * Checks for non-empty and unique usernames before creating a new user and updating the list view.
@@ -89,7 +107,7 @@ public class AdminController {
 		// go ahead and add newUser to userListView
 		User newUser = new User(username);
 		users.add(newUser);
-		Helper.writeUsersToDisk(users);
+		repository.addUser(newUser);
 		usernameField.clear();
 		userListView.getItems().add(newUser);		
 		Alert alert1 = new Alert(AlertType.INFORMATION);
@@ -136,7 +154,14 @@ public class AdminController {
 		Optional<ButtonType> result = alert.showAndWait();
 		if (result.isPresent() && result.get() == ButtonType.OK) {
 			users.remove(userToDelete);
-			Helper.writeUsersToDisk(users);
+			repository.removeUser(userToDelete.getUsername());
+			// reads every bucket of the index, so it is done in the background
+			CompletableFuture.runAsync(() -> DuplicateIndex.removeUser(userToDelete.getUsername()))
+					.exceptionally(error -> {
+						error.printStackTrace();
+						return null;
+					});
+			ThumbnailAtlas.deleteAll(userToDelete.getUsername());
 			userListView.getItems().remove(userToDelete);
 		}
 	}
@@ -161,6 +186,44 @@ public class AdminController {
 		}
 	}
 
+	 /**
+     * Displays the photos that more than one user has imported, found through the
+     * duplicate index and checked against the albums of the users it names. The
+     * report waits for an index that is still being built and reads users, so it is
+     * made in the background.
+     * 
+     * @param event The event that triggered the duplicate report.
+     */
+	public void handleShowDuplicates(ActionEvent event) {
+		duplicatesButton.setDisable(true);
+		CompletableFuture.supplyAsync(DuplicateIndex::sharedImages)
+				.whenComplete((shared, error) -> Platform.runLater(() -> {
+					duplicatesButton.setDisable(false);
+					if (error != null) {
+						error.printStackTrace();
+						Alert alert = new Alert(Alert.AlertType.ERROR);
+						alert.setTitle("Duplicate Photos");
+						alert.setHeaderText(null);
+						alert.setContentText("The duplicate photos could not be found.");
+						alert.showAndWait();
+					} else {
+						showDuplicates(shared);
+					}
+				}));
+	}
+
+	private void showDuplicates(List<Map.Entry<String, Set<String>>> shared) {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<String, Set<String>> image : shared) {
+			report.append(image.getKey()).append(": ").append(String.join(", ", image.getValue())).append("\n");
+		}
+		Alert alert = new Alert(Alert.AlertType.INFORMATION);
+		alert.setTitle("Duplicate Photos");
+		alert.setHeaderText(shared.size() + " photos are shared by more than one user");
+		alert.setContentText(shared.isEmpty() ? "There are no duplicate photos." : report.toString());
+		alert.showAndWait();
+	}
+
 	/**
      * Handles the logout process for the admin.
      * Writes the current state of users to disk and redirects to the login screen.
@@ -169,15 +232,13 @@ public class AdminController {
      */
 	public void handleLogout(ActionEvent event) {
 		try {
-			FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginScreen.fxml"));
-			Parent parent = loader.load();
-			LoginController controller = loader.<LoginController>getController();
-			Scene scene = new Scene(parent);
+			View view = Views.get(Views.LOGIN_SCREEN);
+			LoginController controller = view.getController();
 			Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
 			// controller.start();
-			stage.setScene(scene);
-			stage.show();
-			Helper.writeUsersToDisk(users);
+			view.show(stage);
+			repository.save(users);
+			repository.flush();
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
@@ -8,10 +8,7 @@ import java.util.Optional;
 import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
@@ -23,11 +20,20 @@ import javafx.scene.image.ImageView;
 import javafx.stage.Stage;
 import model.Photo;
 import model.Tag;
-import util.Helper;
+import storage.Operation;
+import storage.PhotoRepository;
+import storage.ImagePyramid;
+import storage.Repositories;
+import util.ImageOrientation;
 import util.PhotoListCell;
+import util.PyramidView;
 import model.Album;
 import model.Tag;
+import model.TagIndex;
 import model.User;
+import view.Resettable;
+import view.View;
+import view.Views;
 
 
 /**
@@ -37,12 +43,14 @@ import model.User;
  * 
  * @author Isham Khan and Senuri Rupasinghe
  */
-public class EditPhotoController {
+public class EditPhotoController implements Resettable {
 	@FXML
     Button backButton, logoutButton, addTagButton, deleteTagButton, editCaptionButton, editExistingTag;
     @FXML
     ImageView imageView;
     @FXML
+    PyramidView pyramidView;
+    @FXML
     Label photoNameText, captionText, dateTakenText;
     @FXML
     TextField tagTypeField, tagValueField, captionField;
@@ -53,7 +61,9 @@ public class EditPhotoController {
     private ArrayList<Tag> tags;
     private User user;
     private ArrayList<User> users;
+    private PhotoRepository repository = Repositories.get();
     private int indexOfPhoto;
+    private static final double IMAGE_WIDTH = 500; // the fitWidth of the image view in EditPhoto.fxml
 
 
      /**
@@ -78,7 +88,23 @@ public class EditPhotoController {
         String dateString = dateFormat.format((photo.getDate()).getTime());
         this.dateTakenText.setText(dateString);
         this.indexOfPhoto = (album.getPhotos()).indexOf(photo);
-        this.imageView.setImage(photo.getImage());
+        // huge photos are shown tile by tile from their pyramid instead of decoded whole
+        ImagePyramid pyramid = PyramidView.open(photo);
+        pyramidView.setPyramid(pyramid, photo.getOrientation());
+        pyramidView.setVisible(pyramid != null);
+        imageView.setVisible(pyramid == null);
+        ImageOrientation.apply(imageView, photo.getOrientation(), IMAGE_WIDTH);
+        this.imageView.setImage(pyramid == null ? photo.getImage() : null);
+    }
+
+    /**
+     * Clears what was entered the last time this view was shown
+     */
+    @Override
+    public void reset() {
+        tagTypeField.clear();
+        tagValueField.clear();
+        captionField.clear();
     }
     
     /**
@@ -106,7 +132,7 @@ public class EditPhotoController {
         photo.setCaption(caption);
         captionField.clear();
         this.captionText.setText(photo.getCaption());
-        Helper.writeUsersToDisk(users);
+        repository.record(user, new Operation.SetCaption(user.getUsername(), album.getName(), indexOfPhoto, caption));
     }
 
    	/**
@@ -118,14 +144,11 @@ public class EditPhotoController {
     public void handleBackButton(ActionEvent event) {
         // handle back button -- context of returning to album...
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/AlbumDisplay.fxml"));
-            Parent root = loader.load();
-            PhotoManagerController controller = loader.<PhotoManagerController>getController();
-            Scene scene = new Scene(root);
+            View view = Views.get(Views.ALBUM_DISPLAY);
+            PhotoManagerController controller = view.getController();
             Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
             controller.Start(user, album, users);
-            stage.setScene(scene);
-            stage.show();
+            view.show(stage);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -141,14 +164,11 @@ public class EditPhotoController {
     public void changePhoto(ActionEvent event, int index) {
         Photo photoSelected = album.getPhotos().get(index);
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/PhotoView.fxml"));
-            Parent root = loader.load();
-            PhotoController controller = loader.<PhotoController>getController();
-            Scene scene = new Scene(root);
+            View view = Views.get(Views.PHOTO_VIEW);
+            PhotoController controller = view.getController();
             Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
             controller.Start(photoSelected, album, users, user);
-            stage.setScene(scene);
-            stage.show();
+            view.show(stage);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -180,7 +200,8 @@ public class EditPhotoController {
             alert0.showAndWait();
             return;
         }
-        Helper.writeUsersToDisk(users);
+        TagIndex.tagRemoved(user, photo, tagSelected);
+        repository.record(user, new Operation.RemoveTag(user.getUsername(), album.getName(), indexOfPhoto, tagSelected));
         tagsList.setItems(FXCollections.observableArrayList(tags));
         tagsList.refresh();
     }
@@ -220,7 +241,8 @@ public class EditPhotoController {
             }
         }
         tags.add(tagToAdd);
-        Helper.writeUsersToDisk(users);
+        TagIndex.tagAdded(user, photo, tagToAdd);
+        repository.record(user, new Operation.AddTag(user.getUsername(), album.getName(), indexOfPhoto, tagToAdd));
         tagsList.setItems(FXCollections.observableArrayList(tags));
         tagsList.refresh();
         tagTypeField.clear();
@@ -245,7 +267,8 @@ public class EditPhotoController {
             alert0.showAndWait();
             return;
         }
-        Helper.writeUsersToDisk(users);
+        TagIndex.tagRemoved(user, photo, tagToRemove);
+        repository.record(user, new Operation.RemoveTag(user.getUsername(), album.getName(), indexOfPhoto, tagToRemove));
         tagsList.setItems(FXCollections.observableArrayList(tags));
         tagsList.refresh();
     }
@@ -259,14 +282,11 @@ public class EditPhotoController {
     public void handleLogoutButton(ActionEvent event) {
         // handle logout
         try {
-			FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginScreen.fxml"));
-			Parent parent = loader.load();
-			LoginController controller = loader.<LoginController>getController();
-			Scene scene = new Scene(parent);
+			View view = Views.get(Views.LOGIN_SCREEN);
+			LoginController controller = view.getController();
 			Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
 			controller.start(stage);
-			stage.setScene(scene);
-			stage.show();
+			view.show(stage);
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
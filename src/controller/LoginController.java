@@ -1,17 +1,13 @@
 package controller;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextField;
@@ -19,11 +15,15 @@ import javafx.stage.Stage;
 import javafx.scene.Node;
 import model.User;
 import model.Album;
-import model.Photo;
 import javafx.scene.image.Image;
-import java.util.Calendar;
 import model.User;
-import util.Helper;
+import storage.DuplicateIndex;
+import storage.PhotoRepository;
+import storage.Repositories;
+import util.PhotoImporter;
+import view.Resettable;
+import view.View;
+import view.Views;
 
 /**
  * The LoginController class handles the login process and initial data setup for the application.
@@ -32,12 +32,13 @@ import util.Helper;
  * 
  * @author Isham Khan and Senuri Rupasinghe
  */
-public class LoginController {
+public class LoginController implements Resettable {
 	@FXML
 	private Button loginButton;
 	@FXML
 	private TextField usernameField;
 	ArrayList<User> users;
+	private PhotoRepository repository = Repositories.get();
 	User user;
 
 	/**
@@ -49,30 +50,27 @@ public class LoginController {
 	public void start(Stage stage) {
 		// don't think we need anything here, because we are getting the stage as an input from main photo app
 	}
-	public void createDataFile(File dataFile) {
+
+	/**
+	 * Clears what was entered the last time this view was shown
+	 */
+	@Override
+	public void reset() {
+		usernameField.clear();
+	}
+	public void createDataFile() {
 		try {
-			dataFile.createNewFile();
 			Album stockAlbum = new Album("stock");
-			File photo;
 			 // Specify the folder path
 			 File folder = new File("data/stock_images");
 
 			 // List files in the folder
 			 File[] files = folder.listFiles();
 	 
-			 // Iterate through files
+			 // Import the files on every core
 			 if (files != null) {
-				 for (File file : files) {
-					photo = file;
-					if (photo != null) {
-						Image image = new Image(photo.toURI().toString());
-						String name = photo.getName();
-						Calendar date = Calendar.getInstance();
-						date.setTimeInMillis(photo.lastModified());
-						Photo addPhoto = new Photo(name, image, date);
-						stockAlbum.getPhotos().add(addPhoto);
-					}
-				 }
+				 List<Path> images = PhotoImporter.collect(Arrays.asList(files));
+				 stockAlbum.getPhotos().addAll(PhotoImporter.importAll(images, null).join().photos);
 
 				 User stock = new User("stock");
 				 stock.getAlbums().add(stockAlbum);
@@ -80,7 +78,8 @@ public class LoginController {
 				 users.add(stock);
 				 User admin = new User("admin");
 				 users.add(admin);
-				 Helper.writeUsersToDisk(users);
+				 repository.save(users);
+				 DuplicateIndex.rebuild(users);
 			 }
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -89,27 +88,34 @@ public class LoginController {
 	}
 
 	 /**
-     * Handles the login process when the login button is pressed. It checks if the data file exists, creates it if not,
-     * reads user data from the file, and authenticates the username entered in the usernameField.
+     * Handles the login process when the login button is pressed. It checks if the user data exists, creates it if not,
+     * reads the data of the user entered in the usernameField, and authenticates that username.
      * If the username is 'admin', it redirects to the admin dashboard. Otherwise, it loads the user dashboard
      * or prompts for user creation if the username does not exist.
      * 
      * @param event The action event generated when the login button is pressed
      */
 	public void handleLoginButton(ActionEvent event){
-		File dataFile = new File("data/data.dat");
 		String username = usernameField.getText(); // extract string form of username
-		if (!dataFile.exists() || !dataFile.isFile()) {
-			createDataFile(dataFile);
+		if (!repository.exists()) {
+			createDataFile();
 		}
 
 		// file already exists
 		try {
-			FileInputStream fileInStrm = new FileInputStream("data/data.dat");
-			ObjectInputStream objInStrm  = new ObjectInputStream(fileInStrm);
-			users = (ArrayList<User>)objInStrm.readObject();
-			objInStrm.close();
-			fileInStrm.close();
+			users = new ArrayList<>();
+			user = null;
+			if (username.equals("admin")) {
+				// admin only manages usernames, so no user is read from their shard
+				for (String name : repository.readUsernames()) {
+					users.add(new User(name));
+				}
+			} else {
+				User userRead = repository.readUser(username);
+				if (userRead != null) {
+					users.add(userRead);
+				}
+			}
 			for (User userPtr: users) {
 				if (userPtr.getUsername().equals(username)) {
 					user = userPtr;
@@ -121,14 +127,11 @@ public class LoginController {
 					redirectToAdmin(event);
 				} else {
 					// valid user
-					FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/UserDashboard.fxml"));
-					Parent root = loader.load();
-					UserController controller = loader.<UserController>getController();
-					Scene scene = new Scene(root);
+					View view = Views.get(Views.USER_DASHBOARD);
+					UserController controller = view.getController();
 					Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
 					controller.Start(user, users);
-					stage.setScene(scene);
-					stage.show();
+					view.show(stage);
 				}				
 			} else {
 				// user DNE
@@ -151,14 +154,11 @@ public class LoginController {
      */
 	public void redirectToAdmin(ActionEvent event) {
 		try {
-			FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/AdminDashboard.fxml"));
-			Parent root = loader.load();
-			AdminController controller = loader.<AdminController>getController();
-			Scene scene = new Scene(root);
+			View view = Views.get(Views.ADMIN_DASHBOARD);
+			AdminController controller = view.getController();
 			Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
 			controller.start(users);
-			stage.setScene(scene);
-			stage.show();
+			view.show(stage);
 		}  catch (Exception e) {
 			e.printStackTrace();
 		}		
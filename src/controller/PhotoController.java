@@ -5,13 +5,12 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Optional;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
@@ -19,15 +18,26 @@ import javafx.scene.control.ButtonType;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
 import javafx.scene.image.ImageView;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import model.Photo;
 import model.Tag;
+import storage.ImageMetadata;
+import storage.ImagePyramid;
+import storage.ThumbnailStore;
 import util.Helper;
+import util.ImageOrientation;
+import util.ImagePrefetcher;
+import util.PyramidView;
 import util.PhotoListCell;
 import model.Album;
 import model.Tag;
 import model.User;
+import view.Resettable;
+import view.View;
+import view.Views;
 
 
 /**
@@ -37,12 +47,16 @@ import model.User;
  * 
  * @author Isham Khan and Senuri Rupasinghe
  */
-public class PhotoController {
+public class PhotoController implements Resettable {
 	@FXML
     Button backButton, logoutButton, previousButton, nextButton;
     @FXML
+    ToggleButton slideshowButton;
+    @FXML
     ImageView imageView;
     @FXML
+    PyramidView pyramidView;
+    @FXML
     Label photoNameText, captionText, dateTakenText;
     @FXML
     ListView tagsList;
@@ -52,6 +66,10 @@ public class PhotoController {
     private User user;
     private ArrayList<User> users;
     private int indexOfPhoto;
+    private static final double SLIDESHOW_SECONDS = 3;
+    private static final double IMAGE_WIDTH = 500; // the fitWidth of the image view in PhotoView.fxml
+    private ImagePrefetcher prefetcher = new ImagePrefetcher();
+    private Timeline slideshow;
 
      /**
      * Starts the photo display view with data of the selected photo, album, and user information.
@@ -75,7 +93,35 @@ public class PhotoController {
         String dateString = dateFormat.format((photo.getDate()).getTime());
         this.dateTakenText.setText(dateString);
         this.indexOfPhoto = (album.getPhotos()).indexOf(photo);
-        this.imageView.setImage(photo.getImage());
+        // huge photos are shown tile by tile from their pyramid instead of decoded whole
+        ImagePyramid pyramid = PyramidView.open(photo);
+        pyramidView.setPyramid(pyramid, photo.getOrientation());
+        pyramidView.setVisible(pyramid != null);
+        imageView.setVisible(pyramid == null);
+        if (pyramid != null) {
+            imageView.setImage(null);
+            prefetcher.show(album.getPhotos(), indexOfPhoto, null);
+        } else {
+            // the larger thumbnail, which is upright already, stands in until the photo is decoded,
+            // unless it is prefetched already
+            ImageOrientation.apply(imageView, ImageMetadata.NORMAL, IMAGE_WIDTH);
+            imageView.setImage(ThumbnailStore.getCached(photo.getImageKey(), ThumbnailStore.LARGE));
+            prefetcher.show(album.getPhotos(), indexOfPhoto, image -> {
+                ImageOrientation.apply(imageView, photo.getOrientation(), IMAGE_WIDTH);
+                imageView.setImage(image);
+            });
+        }
+    }
+
+    /**
+     * Clears what was entered the last time this view was shown
+     */
+    @Override
+    public void reset() {
+        previousButton.setDisable(false);
+        nextButton.setDisable(false);
+        stopSlideshow();
+        prefetcher.cancel();
     }
     
    	/**
@@ -86,15 +132,14 @@ public class PhotoController {
      */
     public void handleBackButton(ActionEvent event) {
         // handle back button -- context of returning to album...
+        stopSlideshow();
+        prefetcher.cancel();
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/AlbumDisplay.fxml"));
-            Parent root = loader.load();
-            PhotoManagerController controller = loader.<PhotoManagerController>getController();
-            Scene scene = new Scene(root);
+            View view = Views.get(Views.ALBUM_DISPLAY);
+            PhotoManagerController controller = view.getController();
             Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
             controller.Start(user, album, users);
-            stage.setScene(scene);
-            stage.show();
+            view.show(stage);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -110,18 +155,40 @@ public class PhotoController {
      */
     public void changePhoto(ActionEvent event, int index) {
         Photo photoSelected = album.getPhotos().get(index);
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/PhotoView.fxml"));
-            Parent root = loader.load();
-            PhotoController controller = loader.<PhotoController>getController();
-            Scene scene = new Scene(root);
-            Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
-            controller.Start(photoSelected, album, users, user);
-            stage.setScene(scene);
-            stage.show();
-        } catch (Exception e) {
-            e.printStackTrace();
+        // this view is already on screen, so only the photo changes
+        previousButton.setDisable(false);
+        nextButton.setDisable(false);
+        Start(photoSelected, album, users, user);
+    }
+
+    /**
+     * Starts or stops the slideshow, which steps to the next photo every few seconds
+     * and starts over after the last one.
+     *
+     * @param event The action event triggered by pressing the slideshow button.
+     */
+    public void handleSlideshowButton(ActionEvent event) {
+        if (!slideshowButton.isSelected()) {
+            stopSlideshow();
+            return;
+        }
+        slideshow = new Timeline(new KeyFrame(Duration.seconds(SLIDESHOW_SECONDS), tick -> {
+            if (album.getPhotos().isEmpty()) {
+                stopSlideshow();
+            } else {
+                changePhoto(tick, (indexOfPhoto + 1) % album.getPhotos().size());
+            }
+        }));
+        slideshow.setCycleCount(Timeline.INDEFINITE);
+        slideshow.play();
+    }
+
+    private void stopSlideshow() {
+        if (slideshow != null) {
+            slideshow.stop();
+            slideshow = null;
         }
+        slideshowButton.setSelected(false);
     }
 
     	/**
@@ -160,15 +227,14 @@ public class PhotoController {
      */
     public void handleLogoutButton(ActionEvent event) {
         // handle logout
+        stopSlideshow();
+        prefetcher.cancel();
         try {
-			FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginScreen.fxml"));
-			Parent parent = loader.load();
-			LoginController controller = loader.<LoginController>getController();
-			Scene scene = new Scene(parent);
+			View view = Views.get(Views.LOGIN_SCREEN);
+			LoginController controller = view.getController();
 			Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
 			controller.start(stage);
-			stage.setScene(scene);
-			stage.show();
+			view.show(stage);
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
@@ -1,17 +1,20 @@
 package controller;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
@@ -20,21 +23,34 @@ import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
 import javafx.stage.Stage;
 import javafx.util.Callback;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.scene.control.Tooltip;
 import model.User;
-import util.Helper;
+import storage.DuplicateIndex;
+import storage.Operation;
+import storage.PhotoRepository;
+import storage.Repositories;
+import storage.ThumbnailAtlas;
 import model.Album;
 import model.Photo;
 import model.Tag;
+import model.TagIndex;
+import util.PhotoGrid;
+import util.PhotoImporter;
 import util.PhotoListCell;
+import view.Resettable;
+import view.View;
+import view.Views;
 
 /**
  * The PhotoManagerController class shows all albums for a specified user.
@@ -42,20 +58,29 @@ import util.PhotoListCell;
  * 
  * @author Isham Khan and Senuri Rupasinghe
  */
-public class PhotoManagerController {
+public class PhotoManagerController implements Resettable {
     @FXML
     Label albumName;
     @FXML
-    Button logout, addPhoto, deletePhoto, movePhoto, copyPhoto, editPhotoProperties;
+    Button logout, addPhoto, importFolder, deletePhoto, movePhoto, copyPhoto, editPhotoProperties;
     @FXML
-    ChoiceBox albumMove, albumCopy;
+    ProgressBar importProgress;
+    @FXML
+    ChoiceBox<Album> albumMove, albumCopy;
     @FXML
     ListView photoList;
+    @FXML
+    PhotoGrid photoGrid;
+    @FXML
+    ToggleButton gridView;
     private User user;
     private ArrayList<User> users;
+    private PhotoRepository repository = Repositories.get();
     private ArrayList<Photo> photos;
+    private ObservableList<Photo> photoItems;
     private Album album;
     private ArrayList<Tag> tags;
+    private ThumbnailAtlas atlas;
 
     /**
      * Starts the album display view with data of the selected photo information.
@@ -73,11 +98,57 @@ public class PhotoManagerController {
         this.album = album;
         this.photos = album.getPhotos();
         this.albumName.setText(album.getName());
-        photoList.setItems(FXCollections.observableArrayList(photos));
-        photoList.setCellFactory(param -> new PhotoListCell());
-        albumMove.getItems().addAll(user.getAlbums());
-        albumCopy.getItems().addAll(user.getAlbums());
+        // both views show the album's own list, so photos are changed through photoItems
+        this.photoItems = FXCollections.observableList(photos);
+        photoList.setItems(photoItems);
+        try {
+            // one mapped file holds the thumbnails of the whole album
+            this.atlas = ThumbnailAtlas.open(user.getUsername(), album, PhotoListCell.thumbnailSize());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        photoList.setCellFactory(param -> new PhotoListCell(atlas));
+        photoGrid.setPhotos(photos);
+        photoGrid.setAtlas(atlas);
+        photoGrid.setOnSelect(photo -> photoList.getSelectionModel().select(photo));
+        albumMove.getItems().setAll(user.getAlbums());
+        albumCopy.getItems().setAll(user.getAlbums());
+    }
+
+    /**
+     * Clears what was entered the last time this view was shown. An import that is
+     * still running keeps its progress bar and disabled buttons until it is done.
+     */
+    @Override
+    public void reset() {
+        photoList.getSelectionModel().clearSelection();
+        albumMove.setValue(null);
+        albumCopy.setValue(null);
+    }
+
+    /**
+     * Switches between the list and the grid of photos
+     *
+     * @param event The action event triggered by pressing the grid view button.
+     */
+    public void toggleGrid(ActionEvent event) {
+        boolean grid = gridView.isSelected();
+        photoGrid.setVisible(grid);
+        photoGrid.setManaged(grid);
+        photoList.setVisible(!grid);
+        photoList.setManaged(!grid);
     }
+
+    /**
+     * Updates the grid and frees the atlas tiles of photos that have left the album
+     */
+    private void photosChanged() {
+        photoGrid.photosChanged();
+        if (atlas != null) {
+            atlas.sync(album);
+        }
+    }
+
     public void movePhoto(ActionEvent event) {
         Photo photoSelected = (Photo) photoList.getSelectionModel().getSelectedItem(); // double check if this correct
 		if (photoSelected == null) {
@@ -96,15 +167,19 @@ public class PhotoManagerController {
                 alert0.showAndWait();
                 return;
             }
-            album.getPhotos().remove(photoSelected);
-            ((Album) (albumMove.getValue())).getPhotos().add(photoSelected);
+            Album destination = albumMove.getValue();
+            int index = album.getPhotos().indexOf(photoSelected);
+            photoItems.remove(index);
+            (destination == album ? photoItems : destination.getPhotos()).add(photoSelected);
+            // the photo is in as many albums as before, so the tag index is unchanged
+            photosChanged();
+            photoList.refresh();
+            repository.record(user, new Operation.MovePhoto(user.getUsername(), album.getName(), index, destination.getName()));
             Alert alert1 = new Alert(AlertType.INFORMATION);
             alert1.setTitle("Move Photo");
             alert1.setHeaderText("Move Photo Confirmation");
-            alert1.setContentText("Photo successfuly moved to: " + albumMove.getValue().toString());
+            alert1.setContentText("Photo successfuly moved to: " + destination.toString());
             alert1.showAndWait();
-            Helper.writeUsersToDisk(users);
-            photoList.refresh();
             // albumMove.getValue() is the destination album
         }
     }
@@ -132,14 +207,20 @@ public class PhotoManagerController {
                 alert0.showAndWait();
                 return;
             }
-            ((Album) (albumCopy.getValue())).getPhotos().add(photoSelected);
+            Album destination = albumCopy.getValue();
+            int index = album.getPhotos().indexOf(photoSelected);
+            (destination == album ? photoItems : destination.getPhotos()).add(photoSelected);
+            TagIndex.photoAdded(user, photoSelected);
+            photosChanged();
+            photoList.refresh();
+            Operation copy = new Operation.CopyPhoto(user.getUsername(), album.getName(), index, destination.getName());
+            repository.record(user, copy);
+            DuplicateIndex.photoAdded(copy, photoSelected);
             Alert alert1 = new Alert(AlertType.INFORMATION);
             alert1.setTitle("Copy Photo");
             alert1.setHeaderText("Copy Photo Confirmation");
-            alert1.setContentText("Photo successfuly copied to: " + albumCopy.getValue().toString());
+            alert1.setContentText("Photo successfuly copied to: " + destination.toString());
             alert1.showAndWait();
-            Helper.writeUsersToDisk(users);
-            photoList.refresh();
             // albumMove.getValue() is the destination album
         }
     }
@@ -161,14 +242,11 @@ public class PhotoManagerController {
 			return;
 		}
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/EditPhoto.fxml"));
-            Parent root = loader.load();
-            EditPhotoController controller = loader.<EditPhotoController>getController();
-            Scene scene = new Scene(root);
+            View view = Views.get(Views.EDIT_PHOTO);
+            EditPhotoController controller = view.getController();
             Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
             controller.Start(photoSelected, album, users, user);
-            stage.setScene(scene);
-            stage.show();
+            view.show(stage);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -198,8 +276,13 @@ public class PhotoManagerController {
 		alert.getButtonTypes().setAll(ButtonType.YES, ButtonType.NO);
 		Optional<ButtonType> res = alert.showAndWait();
 		if (res.get().equals(ButtonType.YES)) {
-			photos.remove(photo);
-			photoList.getItems().remove(photo);
+			int index = photos.indexOf(photo);
+			photoItems.remove(index);
+			TagIndex.photoRemoved(user, photo);
+			Operation remove = new Operation.RemovePhoto(user.getUsername(), album.getName(), index);
+			repository.record(user, remove);
+			DuplicateIndex.photoRemoved(remove, photo);
+			photosChanged();
 			// save data
 			Alert alert1 = new Alert(AlertType.INFORMATION);
 			alert1.setTitle("Album Dashboard Confirmation");
@@ -207,8 +290,6 @@ public class PhotoManagerController {
 			alert1.setContentText("Photo " + photo.getName() + " was deleted");
 		}
         photoList.refresh();
-        Helper.writeUsersToDisk(users);
-        Helper.readUsersFromDisk(users);
     }
 
     /**
@@ -228,21 +309,19 @@ public class PhotoManagerController {
 			return;
 		}
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/PhotoView.fxml"));
-            Parent root = loader.load();
-            PhotoController controller = loader.<PhotoController>getController();
-            Scene scene = new Scene(root);
+            View view = Views.get(Views.PHOTO_VIEW);
+            PhotoController controller = view.getController();
             Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
             controller.Start(photoSelected, album, users, user);
-            stage.setScene(scene);
-            stage.show();
+            view.show(stage);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Add photo to album. Utilizes fileChooser that specifies acceptable file formats.
+     * Add photos to album. Utilizes fileChooser that specifies acceptable file formats.
+     * Choosing several files imports them together in the background.
      *
      * @param event The action event triggered by pressing the add photo button.
      */
@@ -258,22 +337,31 @@ public class PhotoManagerController {
         ExtensionFilter jpegFiles = new ExtensionFilter("JPEG Files", "*.jpg", "*.JPG");
         ExtensionFilter pngFiles = new ExtensionFilter("PNG Files", "*.png", "*.PNG");
         chooser.getExtensionFilters().addAll(imageFiles, bitMapFiles, gifFiles, jpegFiles, pngFiles);
-        File chosenFile = chooser.showOpenDialog(null);
+        List<File> chosenFiles = chooser.showOpenMultipleDialog(null);
+        if (chosenFiles != null && chosenFiles.size() > 1) {
+            importFiles(PhotoImporter.collect(chosenFiles));
+            return;
+        }
+        File chosenFile = chosenFiles == null ? null : chosenFiles.get(0);
         try {
             if (chosenFile != null) {
-                Image imageToAdd = new Image(chosenFile.toURI().toString());
                 String name = chosenFile.getName();
                 // System.out.println(name);
                 Calendar date = Calendar.getInstance();
                 date.setTimeInMillis(chosenFile.lastModified());
-                Photo photoToAdd = new Photo(name, imageToAdd, date);
+                // the file is streamed into the blob store, its pixels are decoded when shown
+                Photo photoToAdd = new Photo(name, chosenFile.toPath(), date);
                 
                 if (checkIfDuplicate(photoToAdd) == true) {
                     return;
                 } else {
-                    photos.add(photoToAdd);
-                    photoList.setItems(FXCollections.observableArrayList(photos));
-                    Helper.writeUsersToDisk(users);
+                    photoItems.add(photoToAdd);
+                    photoToAdd.prepare();
+                    TagIndex.photoAdded(user, photoToAdd);
+                    photosChanged();
+                    Operation add = new Operation.AddPhoto(user.getUsername(), album.getName(), photoToAdd);
+                    repository.record(user, add);
+                    DuplicateIndex.photoAdded(add, photoToAdd);
                 }
             } else {
                 Alert alert = new Alert(AlertType.ERROR);
@@ -294,13 +382,157 @@ public class PhotoManagerController {
         }
     }
 
+    /**
+     * Imports every image in a folder and its subfolders into the album
+     *
+     * @param event The action event triggered by pressing the import folder button.
+     */
+    public void importFolder(ActionEvent event) {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Choose Folder");
+        File folder = chooser.showDialog(null);
+        if (folder != null) {
+            importFiles(PhotoImporter.collect(Collections.singletonList(folder)));
+        }
+    }
+
+    /**
+     * Imports image files in the background, showing the progress, and adds them to
+     * the album all at once when they are done, with a single save.
+     *
+     * @param files the image files to be imported.
+     */
+    private void importFiles(List<Path> files) {
+        if (files.isEmpty()) {
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Album Dashboard Error");
+            alert.setHeaderText("Photo Add Error");
+            alert.setContentText("No photos found. Check file type.");
+            alert.showAndWait();
+            return;
+        }
+        // the view may show another album by the time the import is done
+        User owner = user;
+        Album target = album;
+        addPhoto.setDisable(true);
+        importFolder.setDisable(true);
+        importProgress.setProgress(0);
+        importProgress.setVisible(true);
+        PhotoImporter.importAll(files, (done, total) -> importProgress.setProgress((double) done / total))
+                .whenComplete((result, error) -> Platform.runLater(() -> {
+                    endImport();
+                    if (error != null) {
+                        error.printStackTrace();
+                        Alert alert = new Alert(AlertType.ERROR);
+                        alert.setTitle("Album Dashboard Error");
+                        alert.setHeaderText("Photo Import Error");
+                        alert.setContentText("The import stopped before it was done. No photos were added.");
+                        alert.showAndWait();
+                    } else {
+                        finishImport(owner, target, result);
+                    }
+                }));
+    }
+
+    /**
+     * Lets the user start another import
+     */
+    private void endImport() {
+        addPhoto.setDisable(false);
+        importFolder.setDisable(false);
+        importProgress.setVisible(false);
+    }
+
+    /**
+     * Adds the photos of a finished import to their album, leaving out photos whose
+     * name or image is already in it, and tells the user about any that were left out.
+     */
+    private void finishImport(User owner, Album target, PhotoImporter.Result result) {
+        boolean albumExists = false;
+        for (Album a : owner.getAlbums()) {
+            albumExists |= a == target;
+        }
+        if (!albumExists) {
+            // the album was deleted while the photos were imported
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Album Dashboard Error");
+            alert.setHeaderText("Album Deleted");
+            alert.setContentText("Album " + target.getName() + " was deleted during the import. No photos were added.");
+            alert.showAndWait();
+            return;
+        }
+        HashSet<String> names = new HashSet<>();
+        for (Photo photo : target.getPhotos()) {
+            names.add(photo.getName());
+        }
+        HashSet<String> images = new HashSet<>();
+        ArrayList<Photo> added = new ArrayList<>();
+        for (Photo photo : result.photos) {
+            if (!names.contains(photo.getName()) && images.add(photo.getImageKey())
+                    && !DuplicateIndex.albumsWith(owner, photo.getImageKey()).contains(target)) {
+                names.add(photo.getName());
+                added.add(photo);
+            }
+        }
+        if (!added.isEmpty()) {
+            if (target == album) {
+                photoItems.addAll(added);
+                photosChanged();
+            } else {
+                target.getPhotos().addAll(added);
+            }
+            for (Photo photo : added) {
+                photo.prepare();
+            }
+            TagIndex.photosAdded(owner, added);
+            Operation add = new Operation.AddPhotos(owner.getUsername(), target.getName(), added);
+            repository.record(owner, add);
+            DuplicateIndex.photosAdded(add, added);
+        }
+
+        int duplicates = result.photos.size() - added.size();
+        if (duplicates > 0 || !result.failed.isEmpty()) {
+            Alert alert = new Alert(AlertType.INFORMATION);
+            alert.setTitle("Album Dashboard");
+            alert.setHeaderText("Added " + added.size() + " photos");
+            alert.setContentText(duplicates + " duplicate photos skipped, " + result.failed.size() + " files could not be read.");
+            alert.showAndWait();
+        }
+    }
+
     /**
      * Checks user's existing photos to ensure duplicate photo not added to album.
+     * The same image in this album is refused; the same image in other albums is
+     * only added if the user confirms.
      *
      * @param photo photo requested to add.
      */
     
     public Boolean checkIfDuplicate(Photo photo) {
+        List<Album> albumsWithImage = DuplicateIndex.albumsWith(user, photo.getImageKey());
+        if (albumsWithImage.contains(album)) {
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Album Dashboard Error");
+            alert.setHeaderText("Photo Add Error");
+            alert.setContentText("Cannot add duplicate photo.");
+            alert.showAndWait();
+            return true;
+        }
+        if (!albumsWithImage.isEmpty()) {
+            ArrayList<String> albumNames = new ArrayList<>();
+            for (Album albumWithImage : albumsWithImage) {
+                albumNames.add(albumWithImage.getName());
+            }
+            Alert alert = new Alert(AlertType.CONFIRMATION);
+            alert.setTitle("Album Dashboard Confirmation");
+            alert.setHeaderText("Duplicate Photo");
+            alert.setContentText("This photo is already in: " + String.join(", ", albumNames) + ". Add it anyway?");
+            alert.getButtonTypes().setAll(ButtonType.YES, ButtonType.NO);
+            Optional<ButtonType> res = alert.showAndWait();
+            if (!res.isPresent() || !res.get().equals(ButtonType.YES)) {
+                return true;
+            }
+        }
         for (Photo photoIter : photos) {
             if (photoIter.equals(photo)) {
                 // System.out.println(photoIter.getName());
@@ -325,14 +557,11 @@ public class PhotoManagerController {
     public void handleBack(ActionEvent event) {
         // handle back (to User Dash)
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/UserDashboard.fxml"));
-            Parent root = loader.load();
-            UserController controller = loader.<UserController>getController();
-            Scene scene = new Scene(root);
+            View view = Views.get(Views.USER_DASHBOARD);
+            UserController controller = view.getController();
             Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
             controller.Start(user, users);
-            stage.setScene(scene);
-            stage.show();
+            view.show(stage);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -348,15 +577,13 @@ public class PhotoManagerController {
     public void handleLogout(ActionEvent event) {
         // handle logout
         try {
-			FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginScreen.fxml"));
-			Parent parent = loader.load();
-			LoginController controller = loader.<LoginController>getController();
-			Scene scene = new Scene(parent);
+			View view = Views.get(Views.LOGIN_SCREEN);
+			LoginController controller = view.getController();
 			Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
 			controller.start(stage);
-			stage.setScene(scene);
-			stage.show();
-            Helper.writeUsersToDisk(users);
+			view.show(stage);
+            repository.save(users);
+            repository.flush();
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
@@ -3,17 +3,13 @@ package controller;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
-import java.util.Set;
 
 import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
@@ -22,13 +18,23 @@ import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.DatePicker;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextInputDialog;
+import javafx.scene.control.ToggleButton;
 import javafx.stage.Stage;
 import model.User;
-import util.Helper;
+import storage.DuplicateIndex;
+import storage.Operation;
+import storage.PhotoRepository;
+import storage.Repositories;
+import storage.SimilarityIndex;
+import util.PhotoGrid;
 import util.PhotoListCell;
 import model.Album;
 import model.Tag;
+import model.TagIndex;
 import model.Photo;
+import view.Resettable;
+import view.View;
+import view.Views;
 
 
 /**
@@ -37,7 +43,7 @@ import model.Photo;
  * 
  * @author Isham Khan and Senuri Rupasinghe
  */
-public class PhotoSearchController {
+public class PhotoSearchController implements Resettable {
     @FXML
     ChoiceBox tagChoiceBox;
     @FXML
@@ -45,14 +51,20 @@ public class PhotoSearchController {
     @FXML
     ListView tagsListView, photoListView;
     @FXML
-    Button searchTags, searchDates, backButton, logoutButton, createAlbumBtn;
+    PhotoGrid photoGrid;
+    @FXML
+    ToggleButton gridView;
+    @FXML
+    Button searchTags, searchDates, backButton, logoutButton, createAlbumBtn, findSimilar, nearDuplicates;
     private User user;
     private ArrayList<User> users;
+    private PhotoRepository repository = Repositories.get();
     private Album album;
     private Boolean searchByTags;
     private ArrayList<Tag> tags;
     private ArrayList<Tag> tagsToSearch;
     private ArrayList<Photo> photoList;
+    private SimilarityIndex similarityIndex; // built the first time it is needed after Start
 
      /**
      * Starts the search display view.
@@ -67,22 +79,53 @@ public class PhotoSearchController {
         this.tagsToSearch = new ArrayList<>();
         tagsListView.setItems(FXCollections.observableArrayList(tagsToSearch));
         this.tags = getAllPossibleTagsForUser(user);
-        tagChoiceBox.getItems().addAll(tags);
+        tagChoiceBox.getItems().setAll(tags);
         this.photoList = new ArrayList<>();
-        photoListView.setItems(FXCollections.observableArrayList(photoList));
+        this.similarityIndex = null;
+        photoListView.setCellFactory(param -> new PhotoListCell());
+        showResults();
     }
 
+    /**
+     * Clears what was entered the last time this view was shown
+     */
+    @Override
+    public void reset() {
+        tagsListView.getSelectionModel().clearSelection();
+        fromDate.setValue(null);
+        toDate.setValue(null);
+    }
+
+    /**
+     * Shows the photos found by the last search, in both the list and the grid
+     */
+    @SuppressWarnings("unchecked")
+    private void showResults() {
+        photoListView.setItems(FXCollections.observableList(photoList));
+        photoGrid.setPhotos(photoList);
+    }
+
+    /**
+     * Switches between the list and the grid of photos found
+     *
+     * @param event The action event triggered by pressing the grid view button.
+     */
+    public void toggleGrid(ActionEvent event) {
+        boolean grid = gridView.isSelected();
+        photoGrid.setVisible(grid);
+        photoGrid.setManaged(grid);
+        photoListView.setVisible(!grid);
+        photoListView.setManaged(!grid);
+    }
+
+    /**
+     * Returns every tag that at least one photo of the user has, from the user's tag index.
+     *
+     * @param user The user whose tags are listed.
+     * @return the tags
+     */
     public ArrayList<Tag> getAllPossibleTagsForUser(User user) {
-        ArrayList<Tag> tagsPossible = new ArrayList<>();
-        for (Album a : user.getAlbums()) {
-            for (Photo p : a.getPhotos()) {
-                for (Tag t : p.getTags()) {
-                    tagsPossible.add(t);
-                }
-            }
-        }
-        HashSet<Tag> hashSet = new HashSet<>(tagsPossible);
-        return new ArrayList<>(hashSet);
+        return TagIndex.of(user).getTags();
     }
 
     /**
@@ -154,8 +197,7 @@ public class PhotoSearchController {
      */
     public void handleSearchByDates(ActionEvent event) {
         photoList = new ArrayList<>();
-        photoListView.setItems(FXCollections.observableArrayList(photoList));
-        photoListView.setCellFactory(param -> new PhotoListCell());
+        showResults();
         LocalDate photoDate;
         for (Album a : user.getAlbums()) {
             for (Photo p : a.getPhotos()) {
@@ -165,8 +207,7 @@ public class PhotoSearchController {
                 }
             }
         }
-        photoListView.setItems(FXCollections.observableArrayList(photoList));
-        photoListView.setCellFactory(param -> new PhotoListCell());
+        showResults();
     }
 
     /**
@@ -176,8 +217,7 @@ public class PhotoSearchController {
      */
     public void handleSearchByTags(ActionEvent event) {
         photoList = new ArrayList<>();
-        photoListView.setItems(FXCollections.observableArrayList(photoList));
-        photoListView.setCellFactory(param -> new PhotoListCell());
+        showResults();
 
         if(tagsToSearch.size() == 0){
 			Alert alert0 = new Alert(AlertType.ERROR);
@@ -188,19 +228,11 @@ public class PhotoSearchController {
 			return;
         }
 
+        TagIndex index = TagIndex.of(user);
         if (tagsToSearch.size() == 1){
             // single tag search
-            for (Album a : user.getAlbums()) {
-                for (Photo p : a.getPhotos()) {
-                    for (Tag t : p.getTags()) {
-                        if ((t.equals(tagsToSearch.get(0)))) {
-                            photoList.add(p);
-                        }
-                    }
-                }
-            }
-            photoListView.setItems(FXCollections.observableArrayList(photoList));
-            photoListView.setCellFactory(param -> new PhotoListCell());
+            photoList.addAll(index.photosWith(tagsToSearch.get(0)));
+            showResults();
 
         } else {
             // double tag search
@@ -212,53 +244,74 @@ public class PhotoSearchController {
             ButtonType disjButtonType = new ButtonType("Disjunctive Search");
             alert.getButtonTypes().setAll(conjButtonType, disjButtonType);
             Optional<ButtonType> res = alert.showAndWait();
-            Boolean firstTagFound = false;
-            Boolean secondTagFound = false;
-            Set<Photo> alreadyAdded = new HashSet<>();
             if (res.get().equals(conjButtonType)) {
-                for (Album a : user.getAlbums()) {
-                    for (Photo p : a.getPhotos()) {
-                        for (Tag t : p.getTags()) {
-                            if (t.equals(tagsToSearch.get(0))) {
-                                firstTagFound = true;
-                            }
-                            if (t.equals(tagsToSearch.get(1))) {
-                                secondTagFound = true;
-                            }
-                            if (firstTagFound && secondTagFound) {
-                                if (!alreadyAdded.contains(p)) {
-                                    photoList.add(p);
-                                    alreadyAdded.add(p);
-                                }
-                            }
-                        }
-                        firstTagFound = false;
-                        secondTagFound = false;
-                    }
-                }
-                photoListView.setItems(FXCollections.observableArrayList(photoList));
-                photoListView.setCellFactory(param -> new PhotoListCell());
+                photoList.addAll(index.photosWithBoth(tagsToSearch.get(0), tagsToSearch.get(1)));
             } else {
-                Set<Photo> alreadyAddedDisj = new HashSet<>();
-                for (Album a : user.getAlbums()) {
-                    for (Photo p : a.getPhotos()) {
-                        for (Tag t : p.getTags()) {
-                            if ((t.equals(tagsToSearch.get(0))) || (t.equals(tagsToSearch.get(1)))) {
-                                if (!alreadyAddedDisj.contains(p)) {
-                                    photoList.add(p);
-                                    alreadyAddedDisj.add(p);
-                                }
-                            }
-                        }
-                    }
-                }
-                photoListView.setItems(FXCollections.observableArrayList(photoList));
-                photoListView.setCellFactory(param -> new PhotoListCell());
+                photoList.addAll(index.photosWithEither(tagsToSearch.get(0), tagsToSearch.get(1)));
             }
+            showResults();
         }
     }
 
 
+    /**
+     * Handles finding the photos that look like the photo selected in the results.
+     *
+     * @param event The action event triggered by pressing the find similar button.
+     */
+    public void handleFindSimilar(ActionEvent event) {
+        Photo selected = gridView.isSelected() ? photoGrid.getSelectedPhoto()
+                : (Photo) photoListView.getSelectionModel().getSelectedItem();
+        if (selected == null) {
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Photo Search Error");
+            alert.setHeaderText("No Photo Selected");
+            alert.setContentText("Please select a photo in the search results to find photos like it.");
+            alert.showAndWait();
+            return;
+        }
+        photoList = new ArrayList<>();
+        photoList.add(selected);
+        photoList.addAll(getSimilarityIndex().similar(selected, SimilarityIndex.NEAR_DUPLICATE));
+        showResults();
+    }
+
+    /**
+     * Handles listing every group of photos in the library that look alike, one group after the other.
+     *
+     * @param event The action event triggered by pressing the near duplicates button.
+     */
+    public void handleNearDuplicates(ActionEvent event) {
+        photoList = new ArrayList<>();
+        for (List<Photo> group : getSimilarityIndex().groups(SimilarityIndex.NEAR_DUPLICATE)) {
+            photoList.addAll(group);
+        }
+        showResults();
+        if (photoList.isEmpty()) {
+            int unhashed = similarityIndex.getUnhashedCount();
+            Alert alert = new Alert(AlertType.INFORMATION);
+            alert.setTitle("Near Duplicates");
+            alert.setHeaderText("No Near Duplicates");
+            alert.setContentText(unhashed == 0 ? "None of your photos look like another one."
+                    : "None of your photos look like another one so far; " + unhashed
+                            + " photos are still being compared, so try again in a moment.");
+            alert.showAndWait();
+        }
+    }
+
+    /**
+     * Returns the similarity index of the user's photos, building it on first use and
+     * afterwards adding the photos it left out that have been hashed since.
+     */
+    private SimilarityIndex getSimilarityIndex() {
+        if (similarityIndex == null) {
+            similarityIndex = SimilarityIndex.of(user);
+        } else {
+            similarityIndex.addHashed();
+        }
+        return similarityIndex;
+    }
+
     /**
      * Checks if albums already exists for specified user.
      *
@@ -297,22 +350,29 @@ public class PhotoSearchController {
                 return;
             } else {
                 user.getAlbums().add(newAlbum);
+                repository.record(user, new Operation.AddAlbum(user.getUsername(), albumName));
                 for (Photo p : photoList){
+                    Operation copy = null;
                     for (Album a : user.getAlbums()) {
                         for (Photo pFromPhotos : a.getPhotos()) {
                             if (p.equals(pFromPhotos)) {
                                 p = pFromPhotos;
+                                copy = new Operation.CopyPhoto(user.getUsername(), a.getName(), a.getPhotos().indexOf(pFromPhotos), albumName);
                             }
                         }
                     }
                     newAlbum.getPhotos().add(p);
+                    TagIndex.photoAdded(user, p);
+                    if (copy != null) {
+                        repository.record(user, copy);
+                        DuplicateIndex.photoAdded(copy, p);
+                    }
                 }
                 Alert alert1 = new Alert(AlertType.INFORMATION);
                 alert1.setTitle("Create Album Confirmation");
                 alert1.setHeaderText("Album Created");
                 alert1.setContentText("Album " + newAlbum.getName() + " was created");
                 alert1.showAndWait();
-                Helper.writeUsersToDisk(users);
             }            
         } else {
             Alert alert = new Alert(AlertType.ERROR);
@@ -332,14 +392,11 @@ public class PhotoSearchController {
      */
     public void handleBackToAlbumsButton(ActionEvent event) {
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/UserDashboard.fxml"));
-            Parent root = loader.load();
-            UserController controller = loader.<UserController>getController();
-            Scene scene = new Scene(root);
+            View view = Views.get(Views.USER_DASHBOARD);
+            UserController controller = view.getController();
             Stage stage = (Stage)((Node)event.getSource()).getScene().getWindow();
             controller.Start(user, users);
-            stage.setScene(scene);
-            stage.show();
+            view.show(stage);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -354,15 +411,13 @@ public class PhotoSearchController {
     public void handleLogoutButton(ActionEvent event) {
         // handle logout
         try {
-			FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginScreen.fxml"));
-			Parent parent = loader.load();
-			LoginController controller = loader.<LoginController>getController();
-			Scene scene = new Scene(parent);
+			View view = Views.get(Views.LOGIN_SCREEN);
+			LoginController controller = view.getController();
 			Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
 			controller.start(stage);
-			stage.setScene(scene);
-			stage.show();
-            Helper.writeUsersToDisk(users);
+			view.show(stage);
+            repository.save(users);
+            repository.flush();
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
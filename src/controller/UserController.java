@@ -7,10 +7,7 @@ import java.util.Optional;
 import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
@@ -21,8 +18,16 @@ import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
 import javafx.stage.Stage;
 import model.User;
-import util.Helper;
+import storage.DuplicateIndex;
+import storage.Operation;
+import storage.PhotoRepository;
+import storage.Repositories;
+import storage.ThumbnailAtlas;
 import model.Album;
+import model.TagIndex;
+import view.Resettable;
+import view.View;
+import view.Views;
 
 
 /**
@@ -31,10 +36,11 @@ import model.Album;
  * 
  * @author Isham Khan and Senuri Rupasinghe
  */
-public class UserController {
+public class UserController implements Resettable {
 	private User user;
 	private ArrayList<Album> userAlbums;
 	private ArrayList<User> users;
+	private PhotoRepository repository = Repositories.get();
 	@FXML
 	private Label usernameLabel;
 	@FXML
@@ -52,16 +58,21 @@ public class UserController {
 		usernameLabel.setText("User Dashboard For - " + user.getUsername().toString().toUpperCase());
 	}
 
+	/**
+	 * Clears what was entered the last time this view was shown
+	 */
+	@Override
+	public void reset() {
+		albumField.clear();
+	}
+
 	public void handleSearchPhotosButton(ActionEvent event) {
 		try {
-			FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/SearchPhotos.fxml"));
-			Parent root = loader.load();
-			PhotoSearchController controller = loader.<PhotoSearchController>getController();
-			Scene scene = new Scene(root);
+			View view = Views.get(Views.SEARCH_PHOTOS);
+			PhotoSearchController controller = view.getController();
 			Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
 			controller.Start(users, user);
-			stage.setScene(scene);
-			stage.show();
+			view.show(stage);
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
@@ -78,14 +89,11 @@ public class UserController {
 			return;
 		}
 		try {
-			FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/AlbumDisplay.fxml"));
-			Parent root = loader.load();
-			PhotoManagerController controller = loader.<PhotoManagerController>getController();
-			Scene scene = new Scene(root);
+			View view = Views.get(Views.ALBUM_DISPLAY);
+			PhotoManagerController controller = view.getController();
 			Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
 			controller.Start(user, albumToView, users);
-			stage.setScene(scene);
-			stage.show();
+			view.show(stage);
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
@@ -126,14 +134,16 @@ public class UserController {
 				alert.showAndWait();
 				return;
 			} else {
+				String oldName = albumToEdit.getName();
 				albumToEdit.setName(albumName);
+				repository.record(user, new Operation.RenameAlbum(user.getUsername(), oldName, albumName));
+				ThumbnailAtlas.rename(user.getUsername(), oldName, albumName);
 				Alert alert1 = new Alert(AlertType.INFORMATION);
 				alert1.setTitle("User Dashboard Confirmation");
 				alert1.setHeaderText("Album Renamed");
 				alert1.setContentText("Album has been successfully");
 				alert1.showAndWait();
 			}
-			Helper.writeUsersToDisk(users);
 			Start(user, users);
 			// Proceed with using the new album name
 		} else {
@@ -161,6 +171,11 @@ public class UserController {
 		if (res.get().equals(ButtonType.YES)) {
 			user.getAlbums().remove(album);
 			albumsList.getItems().remove(album);
+			TagIndex.photosRemoved(user, album.getPhotos());
+			Operation delete = new Operation.DeleteAlbum(user.getUsername(), album.getName());
+			repository.record(user, delete);
+			ThumbnailAtlas.delete(user.getUsername(), album.getName());
+			DuplicateIndex.photosRemoved(delete, album.getPhotos());
 			// save data
 			Alert alert1 = new Alert(AlertType.INFORMATION);
 			alert1.setTitle("User Dashboard Confirmation");
@@ -168,7 +183,6 @@ public class UserController {
 			alert1.setContentText("Album " + album.getName() + " was deleted");
 			alert1.showAndWait();
 		}
-		Helper.writeUsersToDisk(users);
 	}
 
 	public void handleAddAlbumButton(ActionEvent event) {
@@ -192,7 +206,7 @@ public class UserController {
 			return;
 		} else {
 			userAlbums.add(albumToAdd);
-			Helper.writeUsersToDisk(users);
+			repository.record(user, new Operation.AddAlbum(user.getUsername(), albumToAdd.getName()));
 			Alert alert1 = new Alert(AlertType.INFORMATION);
 			alert1.setTitle("Create Album Confirmation");
 			alert1.setHeaderText("Album Created");
@@ -204,15 +218,13 @@ public class UserController {
 	}
 	public void handleLogOutButton(ActionEvent event) {
 		try {
-			FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginScreen.fxml"));
-			Parent parent = loader.load();
-			LoginController controller = loader.<LoginController>getController();
-			Scene scene = new Scene(parent);
+			View view = Views.get(Views.LOGIN_SCREEN);
+			LoginController controller = view.getController();
 			Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
 			// controller.start();
-			stage.setScene(scene);
-			stage.show();
-			Helper.writeUsersToDisk(users);
+			view.show(stage);
+			repository.save(users);
+			repository.flush();
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
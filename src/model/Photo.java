@@ -1,6 +1,11 @@
 package model;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -8,6 +13,13 @@ import java.util.HashMap;
 import java.util.List;
 
 import javafx.scene.image.Image;
+import storage.BlobStore;
+import storage.ImageCache;
+import storage.ImageCodec;
+import storage.ImageMetadata;
+import storage.ImagePyramid;
+import storage.PerceptualHash;
+import storage.ThumbnailStore;
 
 
 
@@ -17,7 +29,12 @@ public class Photo implements Serializable {
 	private static final long serialVersionUID = 6955723612371190680L;
 	private ArrayList<Tag> tags;
 	private String name, caption;
-	private SerializableImage image;
+	private SerializableImage image; // only set in data saved before the blob store
+	private String imageKey;
+	private int width, height; // of the original image, 0 until known for photos saved before they were recorded
+	private int orientation; // 0 until known for photos saved before it was recorded
+	private volatile long perceptualHash;
+	private volatile boolean perceptualHashKnown; // set after the hash, so a reader that sees it sees the hash
 	private Calendar date;
 
 	/**
@@ -29,7 +46,10 @@ public class Photo implements Serializable {
 	public Photo(String name, SerializableImage image, Calendar date) {
 		this.name = name;
 		this.caption = "";
-		this.image = image;
+		this.imageKey = storeBlob(ImageCodec.encodePixels(image));
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.orientation = ImageMetadata.NORMAL;
 		this.date = date;
 		this.tags = new ArrayList<Tag>();
 		this.date.set(Calendar.MILLISECOND, 0);
@@ -44,12 +64,88 @@ public class Photo implements Serializable {
 	public Photo(String name, Image image, Calendar date) {
 		this.name = name;
 		this.caption = "";
-		this.image = new SerializableImage(image);
+		this.imageKey = storeBlob(ImageCodec.encodePixels(new SerializableImage(image)));
+		this.width = (int) image.getWidth();
+		this.height = (int) image.getHeight();
+		this.orientation = ImageMetadata.NORMAL;
+		ImageCache.put(imageKey, image);
 		this.date = date;
 		this.tags = setStarterTags();
 		this.date.set(Calendar.MILLISECOND, 0);
 	}
 
+	/**
+	 * 3rd constructor, keeping the bytes of the image file as they are
+	 * @param name the name of the photo
+	 * @param encoded the contents of a JPEG, PNG, GIF or BMP file
+	 * @param date the last modified date
+	 * @throws IOException if the bytes are not a readable image
+	 */
+	public Photo(String name, byte[] encoded, Calendar date) throws IOException {
+		int[] size = ImageCodec.readSize(encoded);
+		this.name = name;
+		this.caption = "";
+		this.imageKey = storeBlob(encoded);
+		this.width = size[0];
+		this.height = size[1];
+		this.orientation = orientationOf(encoded);
+		this.date = date;
+		this.tags = setStarterTags();
+		this.date.set(Calendar.MILLISECOND, 0);
+	}
+
+	/**
+	 * 4th constructor, for photos whose image is already in the blob store
+	 * @param name the name of the photo
+	 * @param imageKey the blob key of the image
+	 * @param caption the caption of the photo
+	 * @param date the last modified date
+	 * @param tags the tags of the photo
+	 */
+	public Photo(String name, String imageKey, String caption, Calendar date, ArrayList<Tag> tags) {
+		this.name = name;
+		this.caption = caption;
+		this.imageKey = imageKey;
+		this.date = date;
+		this.tags = tags;
+	}
+
+	/**
+	 * 5th constructor, importing an image file without decoding it. The file is
+	 * streamed into the blob store as it is, so the original stays available at full
+	 * resolution, and only its header is read for the dimensions, the orientation
+	 * and the date the photo was taken.
+	 * @param name the name of the photo
+	 * @param source a JPEG, PNG, GIF or BMP file
+	 * @param date the last modified date, used if the file does not record when the photo was taken
+	 * @throws IOException if the file is not a readable image
+	 */
+	public Photo(String name, Path source, Calendar date) throws IOException {
+		ImageMetadata metadata = ImageMetadata.read(source);
+		this.name = name;
+		this.caption = "";
+		this.imageKey = BlobStore.put(source);
+		this.width = metadata.getWidth();
+		this.height = metadata.getHeight();
+		this.orientation = metadata.getOrientation();
+		this.date = metadata.getCaptureDate() != null ? metadata.getCaptureDate() : date;
+		this.tags = setStarterTags();
+		this.date.set(Calendar.MILLISECOND, 0);
+	}
+
+	/**
+	 * Starts making the thumbnails and pyramid of the image and its perceptual hash in
+	 * the background. Called once the photo is in an album, so photos that are turned
+	 * away, like duplicates, cost no more than reading their header.
+	 */
+	public void prepare() {
+		ThumbnailStore.generateLater(imageKey, getOrientation());
+		ImagePyramid.generateLater(imageKey);
+		if (!perceptualHashKnown) {
+			PerceptualHash.computeLater(this);
+		}
+	}
+
 	/**
 	 * Returns the name of this photo
 	 * @return the name of this photo
@@ -78,11 +174,201 @@ public class Photo implements Serializable {
 	}
 
 	/**
-	 * Returns the image represented by this photo
-	 * @return the image represented by this photo
+	 * Returns the image represented by this photo. The image is read from the
+	 * blob store and decoded the first time it is needed and then kept in the
+	 * image cache while it is in use, so photos that are never shown cost no pixel
+	 * memory and photos that are shown again are not decoded again. The image is
+	 * as stored, to be shown turned by getOrientation().
+	 * @return the image represented by this photo, null if it cannot be read
 	 */
 	public Image getImage() {
-		return image.getImage();
+		try {
+			return ImageCache.get(imageKey);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a small upright copy of the image represented by this photo, for lists of photos
+	 * @param size the size of the thumbnail, ThumbnailStore.SMALL or LARGE
+	 * @return the thumbnail, null if it cannot be read
+	 */
+	public Image getThumbnail(int size) {
+		try {
+			return ThumbnailStore.get(imageKey, size, getOrientation());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the key of the image in the blob store
+	 * @return the blob key of the image
+	 */
+	public String getImageKey() {
+		return imageKey;
+	}
+
+	/**
+	 * Returns the width of the original image, which may be larger than the image
+	 * that is shown
+	 * @return the width in pixels, 0 if the image cannot be read
+	 */
+	public int getWidth() {
+		readSizeIfUnknown();
+		return width;
+	}
+
+	/**
+	 * Returns the height of the original image, which may be larger than the image
+	 * that is shown
+	 * @return the height in pixels, 0 if the image cannot be read
+	 */
+	public int getHeight() {
+		readSizeIfUnknown();
+		return height;
+	}
+
+	/**
+	 * Tells whether the dimensions are known without reading the blob
+	 * @return true if the width and height are known
+	 */
+	public boolean hasSize() {
+		return width > 0;
+	}
+
+	/**
+	 * Returns how the image is to be turned to be shown upright, reading it from the
+	 * header of the blob the first time for photos saved before it was recorded
+	 * @return the EXIF orientation, 1 to 8
+	 */
+	public int getOrientation() {
+		if (orientation == 0) {
+			orientation = ImageMetadata.orientationOf(BlobStore.path(imageKey));
+		}
+		return orientation;
+	}
+
+	/**
+	 * Tells whether the orientation is known without reading the blob
+	 * @return true if the orientation is known
+	 */
+	public boolean hasOrientation() {
+		return orientation != 0;
+	}
+
+	/**
+	 * Sets the EXIF orientation, for storage that keeps it apart from the photo
+	 * @param orientation the orientation, 1 to 8, or 0 if it is not known
+	 */
+	public void setOrientation(int orientation) {
+		this.orientation = orientation;
+	}
+
+	/**
+	 * Returns the perceptual hash of the image, computing it from the thumbnail the
+	 * first time for photos saved before hashes were recorded
+	 * @return the hash, 0 if the image cannot be read
+	 */
+	public long getPerceptualHash() {
+		if (!perceptualHashKnown) {
+			try {
+				perceptualHash = PerceptualHash.of(imageKey, getOrientation());
+				perceptualHashKnown = true;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return perceptualHash;
+	}
+
+	/**
+	 * Tells whether the perceptual hash has been computed
+	 * @return true if the hash is known
+	 */
+	public boolean hasPerceptualHash() {
+		return perceptualHashKnown;
+	}
+
+	/**
+	 * Sets the perceptual hash, for storage that keeps it apart from the photo
+	 * @param perceptualHash the hash
+	 */
+	public void setPerceptualHash(long perceptualHash) {
+		this.perceptualHash = perceptualHash;
+		this.perceptualHashKnown = true;
+	}
+
+	/**
+	 * Sets the dimensions of the original image, for storage that keeps them apart
+	 * from the photo
+	 * @param width the width in pixels
+	 * @param height the height in pixels
+	 */
+	public void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Reads the dimensions from the header of the blob for photos saved before
+	 * they were recorded
+	 */
+	private void readSizeIfUnknown() {
+		if (width > 0) {
+			return;
+		}
+		try {
+			int[] size = ImageCodec.readSize(BlobStore.path(imageKey));
+			width = size[0];
+			height = size[1];
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the orientation of an image file that is not stored yet
+	 * @param encoded the contents of the image file
+	 * @return the EXIF orientation, NORMAL if the file does not say
+	 */
+	private static int orientationOf(byte[] encoded) {
+		try {
+			return ImageMetadata.read(new ByteArrayInputStream(encoded)).getOrientation();
+		} catch (IOException e) {
+			return ImageMetadata.NORMAL;
+		}
+	}
+
+	/**
+	 * Moves the data of an image into the blob store
+	 * @param data the encoded image
+	 * @return the blob key of the image
+	 */
+	private static String storeBlob(byte[] data) {
+		try {
+			return BlobStore.put(data);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads a photo, moving the pixels of photos saved before the blob store
+	 * into the blob store so they are no longer written with the user data.
+	 * @param in the stream the photo is read from
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (image != null) {
+			imageKey = image.moveToBlobStore();
+			width = image.getWidth();
+			height = image.getHeight();
+			image = null;
+		}
 	}
 
 	/**
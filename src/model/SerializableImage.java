@@ -1,19 +1,30 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
+import storage.BlobStore;
+import storage.ImageCodec;
 
 
 public class SerializableImage implements Serializable {
-	
+
 	private static final long serialVersionUID = -1266447099158556616L;
 	private int width, height;
-	private int[][] pixels;
-	
+	private int[][] pixels; // column-major grid, only set in data saved before argb
+	private int[] argb;
+	private transient byte[] digest; // SHA-256 of the pixels, null until first compared
+	private transient String blobKey; // once the pixels of an image read from old data are in the blob store
+
 	/**
 	 * Converts an Image object to a serializable representation
 	 * @param image the image to be converted
@@ -21,29 +32,39 @@ public class SerializableImage implements Serializable {
 	public SerializableImage(Image image) {
 		width = (int)image.getWidth();
 		height = (int)image.getHeight();
-		pixels = new int[width][height];
-		
-		PixelReader reader = image.getPixelReader();
-		for (int currentWidth = 0; currentWidth < width; currentWidth++)
-			for (int currentHeight = 0; currentHeight < height; currentHeight++)
-				pixels[currentWidth][currentHeight] = reader.getArgb(currentWidth, currentHeight);
+		argb = new int[width * height];
+
+		if (argb.length > 0)
+			image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, 0, width);
 	}
-	
+
+	/**
+	 * Wraps pixels that are already in memory
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param argb the ARGB color values, row by row
+	 */
+	public SerializableImage(int width, int height, int[] argb) {
+		if (argb.length != width * height)
+			throw new IllegalArgumentException("Expected " + width * height + " pixels, got " + argb.length);
+		this.width = width;
+		this.height = height;
+		this.argb = argb;
+	}
+
 	/**
 	 * Converts the serialized representation back to an Image
 	 * @return Image object
 	 */
 	public Image getImage() {
 		WritableImage image = new WritableImage(width, height);
-		
-		PixelWriter w = image.getPixelWriter();
-		for (int i = 0; i < width; i++)
-			for (int j = 0; j < height; j++)
-				w.setArgb(i, j, pixels[i][j]);
-		
+
+		if (argb.length > 0)
+			image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, 0, width);
+
 		return image;
 	}
-	
+
 	/**
 	 * Gets the width of this image
 	 * @return the width of this image
@@ -51,7 +72,7 @@ public class SerializableImage implements Serializable {
 	public int getWidth() {
 		return width;
 	}
-	
+
 	/**
 	 * Gets the height of this image
 	 * @return the height of this image
@@ -59,30 +80,93 @@ public class SerializableImage implements Serializable {
 	public int getHeight() {
 		return height;
 	}
-	
+
 	/**
-	 * 2D Pixels array accessor
-	 * @return a 2D int array representing the color values
+	 * Pixels array accessor
+	 * @return a copy of the ARGB color values, row by row, in one array of width * height
 	 */
-	public int[][] getPixels() {
-		return pixels;
+	public int[] getArgb() {
+		return argb.clone();
 	}
-	
+
 	/**
-	 * check if two images are equal
+	 * Gives the pixels without copying them
+	 * @return a read-only view of the ARGB color values, row by row
+	 */
+	public IntBuffer getPixels() {
+		return IntBuffer.wrap(argb).asReadOnlyBuffer();
+	}
+
+	/**
+	 * check if two images are equal. The SHA-256 digests of the pixels are compared
+	 * first, so images compared more than once are told apart without comparing
+	 * every pixel.
 	 * @param image	The serializable image to be compared to
 	 * @return true if they're equal, else false
 	 */
 	public boolean equals(SerializableImage image) {
-		if (width != image.getWidth() || height != image.getHeight())
+		if (width != image.width || height != image.height)
+			return false;
+		if (!Arrays.equals(digest(), image.digest()))
 			return false;
-		
-		for (int currentRow = 0; currentRow < width; currentRow++)
-			for (int currentColumn = 0; currentColumn < height; currentColumn++)
-				if (pixels[currentRow][currentColumn] != image.getPixels()[currentRow][currentColumn])
-					return false;
-		
-		return true;
+
+		return Arrays.equals(argb, image.argb);
+	}
+
+	/**
+	 * Hashes the pixels, once per image
+	 */
+	private byte[] digest() {
+		if (digest == null) {
+			MessageDigest sha;
+			try {
+				sha = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e); // every Java platform has SHA-256
+			}
+			ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+			for (int pixel : argb) {
+				if (!chunk.hasRemaining()) {
+					sha.update(chunk.array(), 0, chunk.position());
+					chunk.clear();
+				}
+				chunk.putInt(pixel);
+			}
+			sha.update(chunk.array(), 0, chunk.position());
+			digest = sha.digest();
+		}
+		return digest;
+	}
+
+	/**
+	 * Reads an image, converting the column-major grid of images saved before
+	 * the row-major array into the array
+	 * @param in the stream the image is read from
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (pixels != null) {
+			argb = new int[width * height];
+			for (int x = 0; x < width; x++)
+				for (int y = 0; y < height; y++)
+					argb[y * width + x] = pixels[x][y];
+			Arrays.fill(pixels, null); // the stream holds on to the grid until it is closed
+			pixels = null;
+		}
+	}
+
+	/**
+	 * Moves the pixels of an image read from old data into the blob store and drops
+	 * them, since the stream that read the image holds on to it until it is closed
+	 * @return the key of the blob holding the pixels
+	 * @throws IOException if the blob cannot be written
+	 */
+	String moveToBlobStore() throws IOException {
+		if (blobKey == null) {
+			blobKey = BlobStore.put(ImageCodec.encodePixels(this));
+			argb = null;
+		}
+		return blobKey;
 	}
-	
+
 }
@@ -0,0 +1,233 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A TagIndex lists, for every tag of a user, the photos that have it, so a tag search
+ * costs as much as the photos it finds instead of a walk through every album, photo
+ * and tag. A photo shown in several albums is listed once, and stays listed until it
+ * is removed from the last of them.
+ *
+ * The index of a user is built the first time it is asked for, or restored from the
+ * user's shard, and kept up to date by the edits below as they happen. Edits to a user
+ * whose index was never built change nothing, since it is built from the photos as
+ * they are when it is needed.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class TagIndex {
+
+	private LinkedHashMap<Tag, LinkedHashSet<Photo>> postings = new LinkedHashMap<>();
+	private IdentityHashMap<Photo, Integer> albumCounts = new IdentityHashMap<>();
+
+	/**
+	 * Returns the index of a user, building it from their albums if it was never built
+	 * @param user the user
+	 * @return the index
+	 */
+	public static TagIndex of(User user) {
+		TagIndex index = user.getTagIndex();
+		if (index == null) {
+			index = new TagIndex();
+			for (Album album : user.getAlbums()) {
+				for (Photo photo : album.getPhotos()) {
+					index.add(photo);
+				}
+			}
+			user.setTagIndex(index);
+		}
+		return index;
+	}
+
+	/**
+	 * Gives a user an index that was saved with them
+	 * @param user the user
+	 * @param postings the photos of each tag
+	 * @param albumCounts the number of albums showing each photo
+	 */
+	public static void restore(User user, Map<Tag, ? extends Collection<Photo>> postings, Map<Photo, Integer> albumCounts) {
+		TagIndex index = new TagIndex();
+		for (Map.Entry<Tag, ? extends Collection<Photo>> posting : postings.entrySet()) {
+			if (!posting.getValue().isEmpty()) {
+				index.postings.put(posting.getKey(), new LinkedHashSet<>(posting.getValue()));
+			}
+		}
+		index.albumCounts.putAll(albumCounts);
+		user.setTagIndex(index);
+	}
+
+	/**
+	 * Updates the index of a user for photos that were just added to one of their albums
+	 * @param user the user
+	 * @param photos the photos
+	 */
+	public static void photosAdded(User user, Collection<Photo> photos) {
+		TagIndex index = user.getTagIndex();
+		if (index != null) {
+			for (Photo photo : photos) {
+				index.add(photo);
+			}
+		}
+	}
+
+	/**
+	 * Updates the index of a user for a photo that was just added to one of their albums
+	 * @param user the user
+	 * @param photo the photo
+	 */
+	public static void photoAdded(User user, Photo photo) {
+		photosAdded(user, Collections.singletonList(photo));
+	}
+
+	/**
+	 * Updates the index of a user for photos that were just removed from one of their albums
+	 * @param user the user
+	 * @param photos the photos
+	 */
+	public static void photosRemoved(User user, Collection<Photo> photos) {
+		TagIndex index = user.getTagIndex();
+		if (index != null) {
+			for (Photo photo : photos) {
+				index.remove(photo);
+			}
+		}
+	}
+
+	/**
+	 * Updates the index of a user for a photo that was just removed from one of their albums
+	 * @param user the user
+	 * @param photo the photo
+	 */
+	public static void photoRemoved(User user, Photo photo) {
+		photosRemoved(user, Collections.singletonList(photo));
+	}
+
+	/**
+	 * Updates the index of a user for a tag that was just added to a photo
+	 * @param user the user
+	 * @param photo the photo
+	 * @param tag the tag
+	 */
+	public static void tagAdded(User user, Photo photo, Tag tag) {
+		TagIndex index = user.getTagIndex();
+		if (index != null && index.albumCounts.containsKey(photo)) {
+			index.postings.computeIfAbsent(tag, t -> new LinkedHashSet<>()).add(photo);
+		}
+	}
+
+	/**
+	 * Updates the index of a user for a tag that was just removed from a photo
+	 * @param user the user
+	 * @param photo the photo
+	 * @param tag the tag
+	 */
+	public static void tagRemoved(User user, Photo photo, Tag tag) {
+		TagIndex index = user.getTagIndex();
+		if (index != null && !photo.getTags().contains(tag)) {
+			index.unlist(photo, tag);
+		}
+	}
+
+	/**
+	 * Returns the tags that at least one photo has
+	 * @return the tags
+	 */
+	public ArrayList<Tag> getTags() {
+		return new ArrayList<>(postings.keySet());
+	}
+
+	/**
+	 * Returns the photos that have a tag
+	 * @param tag the tag
+	 * @return the photos, in the order they were tagged
+	 */
+	public Set<Photo> photosWith(Tag tag) {
+		LinkedHashSet<Photo> photos = postings.get(tag);
+		return photos == null ? Collections.emptySet() : Collections.unmodifiableSet(photos);
+	}
+
+	/**
+	 * Returns the photos that have both of two tags, looking only at the photos of
+	 * the rarer one
+	 * @param first a tag
+	 * @param second another tag
+	 * @return the photos
+	 */
+	public List<Photo> photosWithBoth(Tag first, Tag second) {
+		Set<Photo> a = photosWith(first), b = photosWith(second);
+		Set<Photo> fewer = a.size() <= b.size() ? a : b, more = fewer == a ? b : a;
+		ArrayList<Photo> photos = new ArrayList<>();
+		for (Photo photo : fewer) {
+			if (more.contains(photo)) {
+				photos.add(photo);
+			}
+		}
+		return photos;
+	}
+
+	/**
+	 * Returns the photos that have either of two tags
+	 * @param first a tag
+	 * @param second another tag
+	 * @return the photos, each once
+	 */
+	public List<Photo> photosWithEither(Tag first, Tag second) {
+		LinkedHashSet<Photo> photos = new LinkedHashSet<>(photosWith(first));
+		photos.addAll(photosWith(second));
+		return new ArrayList<>(photos);
+	}
+
+	/**
+	 * Returns every tag with its photos, for saving the index
+	 * @return the photos of each tag
+	 */
+	public Map<Tag, Set<Photo>> getPostings() {
+		return Collections.unmodifiableMap(postings);
+	}
+
+	/**
+	 * Lists a photo under its tags when it enters its first album
+	 */
+	private void add(Photo photo) {
+		int count = albumCounts.getOrDefault(photo, 0);
+		albumCounts.put(photo, count + 1);
+		if (count == 0) {
+			for (Tag tag : photo.getTags()) {
+				postings.computeIfAbsent(tag, t -> new LinkedHashSet<>()).add(photo);
+			}
+		}
+	}
+
+	/**
+	 * Unlists a photo from its tags when it leaves its last album
+	 */
+	private void remove(Photo photo) {
+		Integer count = albumCounts.get(photo);
+		if (count == null) {
+			return;
+		}
+		if (count > 1) {
+			albumCounts.put(photo, count - 1);
+			return;
+		}
+		albumCounts.remove(photo);
+		for (Tag tag : photo.getTags()) {
+			unlist(photo, tag);
+		}
+	}
+
+	private void unlist(Photo photo, Tag tag) {
+		LinkedHashSet<Photo> photos = postings.get(tag);
+		if (photos != null && photos.remove(photo) && photos.isEmpty()) {
+			postings.remove(tag);
+		}
+	}
+}
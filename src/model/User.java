@@ -9,6 +9,7 @@ public class User implements Serializable {
 	private static final long serialVersionUID = 8177923271139908648L;
 	private String username;
 	private ArrayList<Album> albums;
+	private transient TagIndex tagIndex; // null until built or restored, see TagIndex
 	
 	/**
 	 * Creates a new user
@@ -35,6 +36,22 @@ public class User implements Serializable {
 		return albums;
 	}
 	
+	/**
+	 * Returns the tag index of this user
+	 * @return the index, or null if it was not built yet
+	 */
+	TagIndex getTagIndex() {
+		return tagIndex;
+	}
+
+	/**
+	 * Sets the tag index of this user
+	 * @param tagIndex the index
+	 */
+	void setTagIndex(TagIndex tagIndex) {
+		this.tagIndex = tagIndex;
+	}
+
 	/**
 	 * Returns a string representation of this user
 	 * @return a string representation of this user
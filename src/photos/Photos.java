@@ -4,12 +4,13 @@ import controller.AdminController;
 import controller.LoginController;
 import javafx.application.Application;
 import javafx.event.ActionEvent;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Scene;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
-import javafx.scene.layout.Pane;
 import javafx.stage.Stage;
+import storage.DuplicateIndex;
+import storage.Repositories;
+import view.View;
+import view.Views;
 
 public class Photos extends Application {
 
@@ -21,24 +22,31 @@ public class Photos extends Application {
 	 */
 	public void start(Stage mainStage) {
 		try {
-			FXMLLoader loader = new FXMLLoader();
-			loader.setLocation(getClass().getResource("/view/LoginScreen.fxml"));
-			Pane root = (Pane) loader.load();
-			Scene scene = new Scene(root);
-
-			mainStage.setScene(scene);
+			View view = Views.get(Views.LOGIN_SCREEN);
 			mainStage.setResizable(false);
 			mainStage.setTitle("Photo Album");
-			mainStage.show();
+			view.show(mainStage);
 
-			LoginController controller = loader.<LoginController>getController();
+			LoginController controller = view.getController();
 			controller.start(mainStage);
+			// the other views are loaded while the user types their name
+			Views.preload();
+			// so the first duplicate check does not read every user on the FX thread
+			DuplicateIndex.buildLater();
 
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
 	}
 
+	/**
+	 * stops application, writing any saves that are still pending
+	 */
+	@Override
+	public void stop() {
+		Repositories.get().flush();
+	}
+
 	/**
 	 * main method
 	 * 
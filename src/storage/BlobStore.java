@@ -0,0 +1,154 @@
+package storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The BlobStore keeps image data outside of the user data, in content-addressed
+ * files under data/blobs. A blob is named after the SHA-256 hash of its bytes, so
+ * photos only need to hold the key and an image imported twice is stored once.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class BlobStore {
+
+	private static final String BLOB_DIRECTORY = "data/blobs";
+
+	/**
+	 * Stores a blob unless an identical one is already stored
+	 * @param data the bytes to be stored
+	 * @return the key of the stored blob
+	 * @throws IOException if the blob cannot be written
+	 */
+	public static String put(byte[] data) throws IOException {
+		String key = keyOf(data);
+		File blob = fileFor(key);
+		if (blob.exists()) {
+			return key;
+		}
+		blob.getParentFile().mkdirs();
+		File temp = new File(blob.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(blob) && !blob.exists()) {
+			throw new IOException("Cannot store blob " + key);
+		}
+		temp.delete();
+		return key;
+	}
+
+	/**
+	 * Stores the contents of a file unless an identical blob is already stored. The
+	 * file is hashed while it is copied, a buffer at a time, so it is never held in
+	 * memory whole.
+	 * @param source the file to be stored
+	 * @return the key of the stored blob
+	 * @throws IOException if the file cannot be read or the blob cannot be written
+	 */
+	public static String put(Path source) throws IOException {
+		MessageDigest digest = newDigest();
+		File directory = new File(BLOB_DIRECTORY);
+		directory.mkdirs();
+		File temp = File.createTempFile("import", ".tmp", directory);
+		try {
+			InputStream in = Files.newInputStream(source);
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					digest.update(buffer, 0, read);
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				out.close();
+				in.close();
+			}
+			String key = toHex(digest.digest());
+			File blob = fileFor(key);
+			if (!blob.exists()) {
+				blob.getParentFile().mkdirs();
+				if (!temp.renameTo(blob) && !blob.exists()) {
+					throw new IOException("Cannot store blob " + key);
+				}
+			}
+			return key;
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Reads a stored blob
+	 * @param key the key returned when the blob was stored
+	 * @return the stored bytes
+	 * @throws IOException if the blob is missing or unreadable
+	 */
+	public static byte[] get(String key) throws IOException {
+		return Files.readAllBytes(fileFor(key).toPath());
+	}
+
+	/**
+	 * Returns the path of a stored blob, for readers that stream or seek through it
+	 * instead of reading it whole
+	 * @param key the key returned when the blob was stored
+	 * @return the path of the blob file
+	 */
+	public static Path path(String key) {
+		return fileFor(key).toPath();
+	}
+
+	/**
+	 * Checks whether a blob is stored under a key
+	 * @param key the key of the blob
+	 * @return true if the blob exists, false otherwise
+	 */
+	public static boolean contains(String key) {
+		return fileFor(key).exists();
+	}
+
+	/**
+	 * Computes the key of a blob from its content
+	 * @param data the bytes to be hashed
+	 * @return the hex encoded SHA-256 hash of the bytes
+	 */
+	public static String keyOf(byte[] data) {
+		return toHex(newDigest().digest(data));
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] hash) {
+		StringBuilder key = new StringBuilder();
+		for (byte b : hash) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns the file a blob is stored in. Blobs are spread over subdirectories
+	 * named after the first two characters of the key.
+	 * @param key the key of the blob
+	 * @return the blob file
+	 */
+	private static File fileFor(String key) {
+		return new File(new File(BLOB_DIRECTORY, key.substring(0, 2)), key);
+	}
+}
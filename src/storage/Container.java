@@ -0,0 +1,168 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A Container is a file made of numbered sections behind a header that records what
+ * kind of file it is, the schema version it was written with and where each section
+ * starts. Readers look sections up by number, so a newer schema can add sections that
+ * older readers skip, and a reader can tell an older schema apart and convert it.
+ *
+ * Header, big-endian:
+ * <pre>
+ * magic          4 bytes
+ * schema version 4 bytes
+ * section count  4 bytes
+ * per section:   id 4 bytes, offset 8 bytes, length 8 bytes
+ * </pre>
+ * Offsets are counted from the start of the file.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class Container {
+
+	private static final int FIXED_HEADER_BYTES = 12;
+	private static final int SECTION_ENTRY_BYTES = 20;
+
+	private int version;
+	private HashMap<Integer, ByteBuffer> sections = new HashMap<>();
+
+	private Container(int version) {
+		this.version = version;
+	}
+
+	/**
+	 * Checks whether data starts with the header of a container of the given kind
+	 * @param data the start of the file
+	 * @param magic the magic number of the kind of file
+	 * @return true if the data starts with the magic number
+	 */
+	public static boolean isContainer(ByteBuffer data, int magic) {
+		return data.remaining() >= FIXED_HEADER_BYTES && data.getInt(data.position()) == magic;
+	}
+
+	/**
+	 * Reads the header of a container and locates its sections
+	 * @param data the whole file
+	 * @param magic the magic number of the kind of file expected
+	 * @param maxVersion the newest schema version the caller understands
+	 * @return the container
+	 * @throws IOException if the data is not such a container, was written with a newer
+	 *         schema, or a section lies outside the data
+	 */
+	public static Container read(ByteBuffer data, int magic, int maxVersion) throws IOException {
+		ByteBuffer header = data.duplicate();
+		if (!isContainer(header, magic)) {
+			throw new IOException("Not a container of the expected kind");
+		}
+		int start = header.position();
+		header.getInt();
+		Container container = new Container(header.getInt());
+		if (container.version < 1 || container.version > maxVersion) {
+			throw new IOException("Unsupported schema version " + container.version);
+		}
+		int count = header.getInt();
+		if (count < 0 || header.remaining() < (long) count * SECTION_ENTRY_BYTES) {
+			throw new IOException("Truncated container header");
+		}
+		for (int i = 0; i < count; i++) {
+			int id = header.getInt();
+			long offset = header.getLong(), length = header.getLong();
+			if (offset < 0 || length < 0 || offset + length > data.limit() - start) {
+				throw new IOException("Section " + id + " lies outside the container");
+			}
+			ByteBuffer section = data.duplicate();
+			section.position(start + (int) offset).limit(start + (int) (offset + length));
+			container.sections.put(id, section.slice());
+		}
+		return container;
+	}
+
+	/**
+	 * Returns the schema version the container was written with
+	 * @return the schema version
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns a section of the container
+	 * @param id the number of the section
+	 * @return the contents of the section, or null if the container has no such section
+	 */
+	public ByteBuffer section(int id) {
+		ByteBuffer section = sections.get(id);
+		return section == null ? null : section.duplicate();
+	}
+
+	/**
+	 * Returns a section the caller cannot do without
+	 * @param id the number of the section
+	 * @return the contents of the section
+	 * @throws IOException if the container has no such section
+	 */
+	public ByteBuffer requireSection(int id) throws IOException {
+		ByteBuffer section = section(id);
+		if (section == null) {
+			throw new IOException("Missing section " + id);
+		}
+		return section;
+	}
+
+	/**
+	 * Collects sections and writes them behind a container header
+	 */
+	public static class Writer {
+		private int magic, version;
+		private ArrayList<Integer> ids = new ArrayList<>();
+		private ArrayList<byte[]> contents = new ArrayList<>();
+
+		/**
+		 * Constructor
+		 * @param magic the magic number of the kind of file
+		 * @param version the schema version the sections are written with
+		 */
+		public Writer(int magic, int version) {
+			this.magic = magic;
+			this.version = version;
+		}
+
+		/**
+		 * Adds a section, to be written in the order sections are added
+		 * @param id the number of the section
+		 * @param data the contents of the section
+		 * @return this writer
+		 */
+		public Writer addSection(int id, byte[] data) {
+			ids.add(id);
+			contents.add(data);
+			return this;
+		}
+
+		/**
+		 * Writes the header followed by the sections
+		 * @return the whole container
+		 */
+		public byte[] toByteArray() {
+			long offset = FIXED_HEADER_BYTES + (long) SECTION_ENTRY_BYTES * ids.size();
+			long size = offset;
+			for (byte[] data : contents) {
+				size += data.length;
+			}
+			ByteBuffer out = ByteBuffer.allocate((int) size);
+			out.putInt(magic).putInt(version).putInt(ids.size());
+			for (int i = 0; i < ids.size(); i++) {
+				out.putInt(ids.get(i)).putLong(offset).putLong(contents.get(i).length);
+				offset += contents.get(i).length;
+			}
+			for (byte[] data : contents) {
+				out.put(data);
+			}
+			return out.array();
+		}
+	}
+}
@@ -0,0 +1,594 @@
+package storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import model.Album;
+import model.Photo;
+import model.User;
+
+/**
+ * The DuplicateIndex knows, for every image in the library, which users have a photo
+ * of it, so an exact duplicate is found with one lookup instead of a walk through
+ * every album. Images are identified by their blob key, the SHA-256 hash of the file,
+ * so two photos are duplicates exactly when they have the same key.
+ *
+ * For each key the index counts the album entries of every user showing it, which
+ * stays right across copies, moves and deletions. It is split into buckets by the
+ * first two characters of the key, like the blob store, each kept in a file under
+ * data/duplicates and loaded when first needed, so an edit rewrites only one small
+ * bucket. A library that has no index yet is indexed in full on a background thread
+ * at startup; edits made meanwhile are counted once it is done.
+ *
+ * The index is kept up to date by the operations that change albums, both when they
+ * are made and when they are replayed from a journal. It remembers the journal
+ * sequence number of the last operation of each user it counted, so an operation that
+ * is replayed every time its user is read is only counted once.
+ *
+ * The index is a hint: a lookup that finds the current user is checked against their
+ * albums before a photo is called a duplicate, and images shared between users are
+ * checked against the albums of those users before they are reported. When the last
+ * photo of an image is removed, the decoded pixels and the pyramid made from it are
+ * deleted.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class DuplicateIndex {
+
+	private static final String INDEX_DIRECTORY = "data/duplicates";
+	private static final String BUILT_MARKER = "built";
+	private static final String SEQUENCES_FILE = "sequences";
+	private static final int MAGIC = 0x50484431; // "PHD1"
+
+	private static HashMap<String, Bucket> buckets = new HashMap<>();
+	private static HashMap<String, Long> counted = new HashMap<>(); // per user, the last journaled operation counted
+	private static boolean built;
+	private static volatile Thread building; // the thread reading every user to build the index
+	private static HashMap<String, Long> replayed = new HashMap<>(); // per user, the last operation the build read
+	private static ArrayList<Change> pending = new ArrayList<>(); // operations made while the index was built
+
+	/**
+	 * Starts indexing the library in the background if it was never indexed
+	 */
+	public static synchronized void buildLater() {
+		if (!isBuilt() && building == null && Repositories.get().exists()) {
+			startBuild(); // a library that does not exist yet is indexed when it is created
+		}
+	}
+
+	/**
+	 * Counts photos that an operation added to an album
+	 * @param op the operation, made just now or replayed from the journal
+	 * @param photos the photos
+	 */
+	public static void photosAdded(Operation op, Collection<Photo> photos) {
+		count(op, photos, 1);
+	}
+
+	/**
+	 * Counts a photo that an operation added to an album
+	 * @param op the operation, made just now or replayed from the journal
+	 * @param photo the photo
+	 */
+	public static void photoAdded(Operation op, Photo photo) {
+		count(op, Collections.singletonList(photo), 1);
+	}
+
+	/**
+	 * Uncounts photos that an operation removed from an album
+	 * @param op the operation, made just now or replayed from the journal
+	 * @param photos the photos
+	 */
+	public static void photosRemoved(Operation op, Collection<Photo> photos) {
+		count(op, photos, -1);
+	}
+
+	/**
+	 * Uncounts a photo that an operation removed from an album
+	 * @param op the operation, made just now or replayed from the journal
+	 * @param photo the photo
+	 */
+	public static void photoRemoved(Operation op, Photo photo) {
+		count(op, Collections.singletonList(photo), -1);
+	}
+
+	/**
+	 * Removes every photo of a user that was deleted. It does not wait for an index
+	 * that is still being built: the removal is made once the build is done, and a
+	 * build started later reads the library without the user. It reads every bucket,
+	 * so call it off the FX thread.
+	 * @param username the name of the user
+	 */
+	public static synchronized void removeUser(String username) {
+		if (isBuilt()) {
+			uncountUser(username);
+		} else if (building != null) {
+			pending.add(new Change(username));
+		}
+	}
+
+	/**
+	 * Finds the albums of a user that already show an image. It never waits for the
+	 * index: while the index is still being built the user's albums are looked through.
+	 * @param user the user
+	 * @param key the blob key of the image
+	 * @return the albums, empty if the user has no photo of the image
+	 */
+	public static List<Album> albumsWith(User user, String key) {
+		ArrayList<Album> albums = new ArrayList<>();
+		synchronized (DuplicateIndex.class) {
+			if (isBuilt()) {
+				Entry entry = bucketFor(key).entries.get(key);
+				if (entry == null || !entry.counts.containsKey(user.getUsername())) {
+					return albums; // the common case, answered without looking at any album
+				}
+			}
+		}
+		for (Album album : user.getAlbums()) {
+			for (Photo photo : album.getPhotos()) {
+				if (photo.getImageKey().equals(key)) {
+					albums.add(album);
+					break;
+				}
+			}
+		}
+		return albums;
+	}
+
+	/**
+	 * Lists the images that more than one user has a photo of. The users the index
+	 * names are read and their albums checked, so counts that went stale are corrected
+	 * instead of reported. It waits for an index that is still being built and reads
+	 * users, so call it off the FX thread.
+	 * @return for each such image, the name of one of its photos and the names of the users
+	 */
+	public static List<Map.Entry<String, Set<String>>> sharedImages() {
+		LinkedHashMap<String, Map.Entry<String, Set<String>>> candidates = new LinkedHashMap<>();
+		synchronized (DuplicateIndex.class) {
+			awaitBuilt();
+			for (Bucket bucket : allBuckets()) {
+				for (Map.Entry<String, Entry> entry : bucket.entries.entrySet()) {
+					if (entry.getValue().counts.size() > 1) {
+						candidates.put(entry.getKey(), new AbstractMap.SimpleImmutableEntry<>(entry.getValue().name,
+								new HashSet<>(entry.getValue().counts.keySet())));
+					}
+				}
+			}
+		}
+		// users are read outside the lock, since reading one replays their journal through the index
+		HashMap<String, HashMap<String, Integer>> keysOfUsers = new HashMap<>();
+		PhotoRepository repository = Repositories.get();
+		ArrayList<Map.Entry<String, Set<String>>> shared = new ArrayList<>();
+		for (Map.Entry<String, Map.Entry<String, Set<String>>> candidate : candidates.entrySet()) {
+			String key = candidate.getKey();
+			HashSet<String> owners = new HashSet<>();
+			for (String username : candidate.getValue().getValue()) {
+				HashMap<String, Integer> keys = keysOfUsers.computeIfAbsent(username, name -> keysOf(repository.readUser(name)));
+				int count = keys.getOrDefault(key, 0);
+				if (count > 0) {
+					owners.add(username);
+				}
+				correct(key, candidate.getValue().getKey(), username, count);
+			}
+			if (owners.size() > 1) {
+				shared.add(new AbstractMap.SimpleImmutableEntry<>(candidate.getValue().getKey(), owners));
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Replaces the whole index with the photos of the given users
+	 * @param users every user of the library
+	 */
+	public static synchronized void rebuild(List<User> users) {
+		buckets.clear();
+		File directory = new File(INDEX_DIRECTORY);
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				PersistenceService.delete(file.toPath());
+			}
+		}
+		for (int i = 0; i < 256; i++) {
+			buckets.put(String.format("%02x", i), new Bucket(String.format("%02x", i)));
+		}
+		for (User user : users) {
+			for (Album album : user.getAlbums()) {
+				for (Photo photo : album.getPhotos()) {
+					bucketFor(photo.getImageKey()).add(photo.getImageKey(), photo.getName(), user.getUsername(), 1);
+				}
+			}
+		}
+		for (Bucket bucket : buckets.values()) {
+			if (!bucket.entries.isEmpty()) {
+				bucket.save();
+			}
+		}
+		saveSequences();
+		PersistenceService.replace(new File(INDEX_DIRECTORY, BUILT_MARKER).toPath(), new byte[0]);
+		built = true;
+	}
+
+	/**
+	 * Counts an operation, unless it was counted when it was made. Operations replayed
+	 * by the build itself are only noted, since the build counts the photos as they end
+	 * up, operations made while another thread builds the index wait for it, and
+	 * operations made before the index is built at all are counted by that build.
+	 */
+	private static void count(Operation op, Collection<Photo> photos, int count) {
+		if (Thread.currentThread() == building) {
+			replayed.merge(op.getUsername(), op.getSequence(), Math::max);
+			return;
+		}
+		synchronized (DuplicateIndex.class) {
+			if (isBuilt()) {
+				apply(op, photos, count);
+			} else if (building != null) {
+				pending.add(new Change(op, new ArrayList<>(photos), count));
+			}
+		}
+	}
+
+	/**
+	 * Changes the counts of the photos of an operation that was not counted yet
+	 */
+	private static void apply(Operation op, Collection<Photo> photos, int count) {
+		String username = op.getUsername();
+		long last = counted.getOrDefault(username, 0L);
+		if (op.getSequence() != 0 && op.getSequence() <= last) {
+			return; // replayed from the journal, and counted when it was made
+		}
+		HashSet<Bucket> changed = new HashSet<>();
+		for (Photo photo : photos) {
+			Bucket bucket = bucketFor(photo.getImageKey());
+			bucket.add(photo.getImageKey(), photo.getName(), username, count);
+			changed.add(bucket);
+		}
+		for (Bucket bucket : changed) {
+			bucket.save();
+		}
+		if (op.getSequence() > last) {
+			counted.put(username, op.getSequence());
+			saveSequences();
+		}
+	}
+
+	/**
+	 * Drops the counts of a user from every bucket
+	 */
+	private static void uncountUser(String username) {
+		for (Bucket bucket : allBuckets()) {
+			if (bucket.removeUser(username)) {
+				bucket.save();
+			}
+		}
+		counted.remove(username);
+		saveSequences();
+	}
+
+	/**
+	 * Sets the count of a user for an image to the number of album entries they really have
+	 */
+	private static synchronized void correct(String key, String name, String username, int count) {
+		Bucket bucket = bucketFor(key);
+		Entry entry = bucket.entries.get(key);
+		int indexed = entry == null ? 0 : entry.counts.getOrDefault(username, 0);
+		if (indexed != count) {
+			bucket.add(key, name, username, count - indexed);
+			bucket.save();
+		}
+	}
+
+	/**
+	 * Counts the album entries of each image of a user
+	 * @return the number of album entries of each blob key, empty if the user cannot be read
+	 */
+	private static HashMap<String, Integer> keysOf(User user) {
+		HashMap<String, Integer> keys = new HashMap<>();
+		if (user != null) {
+			for (Album album : user.getAlbums()) {
+				for (Photo photo : album.getPhotos()) {
+					keys.merge(photo.getImageKey(), 1, Integer::sum);
+				}
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Reads every user and indexes their photos. The users are read without holding
+	 * the lock, since reading a user replays their journal, and edits made meanwhile
+	 * are counted afterwards.
+	 */
+	private static void build() {
+		ArrayList<User> users = new ArrayList<>();
+		try {
+			PhotoRepository repository = Repositories.get();
+			for (String username : repository.readUsernames()) {
+				User user = repository.readUser(username);
+				if (user != null) {
+					users.add(user);
+				}
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		synchronized (DuplicateIndex.class) {
+			try {
+				counted.clear();
+				counted.putAll(replayed);
+				replayed.clear();
+				rebuild(users);
+				building = null;
+				for (Change change : pending) {
+					if (change.op != null) {
+						apply(change.op, change.photos, change.count);
+					} else {
+						uncountUser(change.removedUser);
+					}
+				}
+			} finally {
+				building = null;
+				pending.clear();
+				DuplicateIndex.class.notifyAll();
+			}
+		}
+	}
+
+	private static void startBuild() {
+		building = new Thread(DuplicateIndex::build, "duplicate-index");
+		building.setDaemon(true);
+		building.start();
+	}
+
+	/**
+	 * Makes sure the index is built before it is used, waiting for the build that is
+	 * running or starting one if none is. The lock is given up while waiting, since the
+	 * build replays journals through the index.
+	 */
+	private static void awaitBuilt() {
+		while (!isBuilt()) {
+			if (building == null) {
+				if (!Repositories.get().exists()) {
+					rebuild(new ArrayList<>());
+					return;
+				}
+				startBuild();
+			}
+			try {
+				DuplicateIndex.class.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Tells whether the index was built, loading the sequence numbers of an index
+	 * built in an earlier run
+	 */
+	private static boolean isBuilt() {
+		if (!built && building == null && new File(INDEX_DIRECTORY, BUILT_MARKER).exists()) {
+			readSequences();
+			built = true;
+		}
+		return built;
+	}
+
+	private static void saveSequences() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(counted.size());
+			for (Map.Entry<String, Long> sequence : counted.entrySet()) {
+				out.writeUTF(sequence.getKey());
+				out.writeLong(sequence.getValue());
+			}
+			out.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // cannot happen in memory
+		}
+		PersistenceService.replace(new File(INDEX_DIRECTORY, SEQUENCES_FILE).toPath(), bytes.toByteArray());
+	}
+
+	private static void readSequences() {
+		counted.clear();
+		Path file = new File(INDEX_DIRECTORY, SEQUENCES_FILE).toPath();
+		if (!Files.exists(file)) {
+			return;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a duplicate index: " + file);
+			}
+			for (int i = in.readInt(); i > 0; i--) {
+				counted.put(in.readUTF(), in.readLong());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Deletes the files made from an image that no photo shows any more. They are
+	 * only a cache, so a count that was wrong costs a decode, not a photo.
+	 */
+	private static void released(String key) {
+		MappedPixelStore.delete(key);
+		ImagePyramid.delete(key);
+	}
+
+	private static Collection<Bucket> allBuckets() {
+		for (int i = 0; i < 256; i++) {
+			bucketFor(String.format("%02x", i));
+		}
+		return buckets.values();
+	}
+
+	private static Bucket bucketFor(String key) {
+		String prefix = key.substring(0, 2);
+		Bucket bucket = buckets.get(prefix);
+		if (bucket == null) {
+			bucket = Bucket.load(prefix);
+			buckets.put(prefix, bucket);
+		}
+		return bucket;
+	}
+
+	/**
+	 * The keys of the index that start with the same two characters
+	 */
+	private static class Bucket {
+		private String prefix;
+		private HashMap<String, Entry> entries = new HashMap<>();
+
+		Bucket(String prefix) {
+			this.prefix = prefix;
+		}
+
+		void add(String key, String name, String username, int count) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				if (count <= 0) {
+					return;
+				}
+				entry = new Entry(name);
+				entries.put(key, entry);
+			}
+			int total = entry.counts.getOrDefault(username, 0) + count;
+			if (total > 0) {
+				entry.counts.put(username, total);
+			} else {
+				entry.counts.remove(username);
+				if (entry.counts.isEmpty()) {
+					entries.remove(key);
+					released(key);
+				}
+			}
+		}
+
+		boolean removeUser(String username) {
+			boolean changed = false;
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Entry> entry = iterator.next();
+				if (entry.getValue().counts.remove(username) != null) {
+					changed = true;
+					if (entry.getValue().counts.isEmpty()) {
+						iterator.remove();
+						released(entry.getKey());
+					}
+				}
+			}
+			return changed;
+		}
+
+		/**
+		 * Hands the bucket to the persistence service, which writes it in the background
+		 */
+		void save() {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try {
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(MAGIC);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeUTF(entry.getValue().name);
+					out.writeInt(entry.getValue().counts.size());
+					for (Map.Entry<String, Integer> count : entry.getValue().counts.entrySet()) {
+						out.writeUTF(count.getKey());
+						out.writeInt(count.getValue());
+					}
+				}
+				out.close();
+			} catch (IOException e) {
+				throw new IllegalStateException(e); // cannot happen in memory
+			}
+			PersistenceService.replace(fileFor(prefix), bytes.toByteArray());
+		}
+
+		static Bucket load(String prefix) {
+			Bucket bucket = new Bucket(prefix);
+			Path file = fileFor(prefix);
+			if (!Files.exists(file)) {
+				return bucket;
+			}
+			try {
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+				if (in.readInt() != MAGIC) {
+					throw new IOException("Not a duplicate index: " + file);
+				}
+				for (int i = in.readInt(); i > 0; i--) {
+					String key = in.readUTF();
+					Entry entry = new Entry(in.readUTF());
+					for (int j = in.readInt(); j > 0; j--) {
+						entry.counts.put(in.readUTF(), in.readInt());
+					}
+					bucket.entries.put(key, entry);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return bucket;
+		}
+
+		static Path fileFor(String prefix) {
+			return new File(INDEX_DIRECTORY, prefix + ".idx").toPath();
+		}
+	}
+
+	/**
+	 * An operation or a removed user, made while the index was built and counted once
+	 * the build is done
+	 */
+	private static class Change {
+		private Operation op; // null for a removed user
+		private ArrayList<Photo> photos;
+		private int count;
+		private String removedUser;
+
+		Change(Operation op, ArrayList<Photo> photos, int count) {
+			this.op = op;
+			this.photos = photos;
+			this.count = count;
+		}
+
+		Change(String removedUser) {
+			this.removedUser = removedUser;
+		}
+	}
+
+	/**
+	 * The users that have a photo of one image
+	 */
+	private static class Entry {
+		private String name;
+		private LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+
+		Entry(String name) {
+			this.name = name;
+		}
+	}
+}
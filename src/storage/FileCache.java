@@ -0,0 +1,95 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * The FileCache keeps directories of files that can be made again, like decoded
+ * pixels and image pyramids, within a budget of bytes on disk. Files are marked as
+ * used when they are opened, and when a directory grows over its budget the files
+ * used least recently are deleted first.
+ *
+ * A file that cannot be deleted, because it is still mapped on a system that does not
+ * allow that, is left for the next trim.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class FileCache {
+
+	/**
+	 * Marks a file as just used, so it is deleted after files that were not
+	 * @param file the file
+	 */
+	public static void touch(Path file) {
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the file was deleted meanwhile; it is made again when it is needed
+		}
+	}
+
+	/**
+	 * Deletes the files of a directory used least recently until the directory fits
+	 * its budget
+	 * @param directory the directory, whose subdirectories count too
+	 * @param budget the most bytes the files may take
+	 * @param keep a file that was just written and is not to be deleted, or null
+	 */
+	public static synchronized void trim(File directory, long budget, Path keep) {
+		ArrayList<File> files = new ArrayList<>();
+		collect(directory, files);
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+		if (total <= budget) {
+			return;
+		}
+		files.sort(Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (total <= budget) {
+				break;
+			}
+			if (keep != null && file.toPath().equals(keep)) {
+				continue;
+			}
+			long length = file.length();
+			if (delete(file.toPath())) {
+				total -= length;
+			}
+		}
+	}
+
+	/**
+	 * Deletes a file that can be made again
+	 * @param file the file
+	 * @return true if the file is gone
+	 */
+	public static boolean delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+			return true;
+		} catch (IOException e) {
+			return false; // still mapped, left for the next trim
+		}
+	}
+
+	private static void collect(File directory, ArrayList<File> files) {
+		File[] children = directory.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				collect(child, files);
+			} else if (!child.getName().endsWith(".tmp")) {
+				files.add(child);
+			}
+		}
+	}
+}
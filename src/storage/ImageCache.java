@@ -0,0 +1,209 @@
+package storage;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javafx.scene.image.Image;
+
+/**
+ * The ImageCache keeps recently shown images decoded, up to a budget of pixel bytes,
+ * so an image is decoded once while it is in use no matter how often list cells and
+ * viewers ask for it. When the budget is exceeded the least recently used images are
+ * dropped. Images are keyed by blob key, so photos showing the same file share one
+ * decoded image; thumbnails are cached next to them under keys of their own.
+ *
+ * The budget is taken from the system property photos.imageCache.bytes, and defaults
+ * to a quarter of the maximum heap size, but at most 512 MB.
+ *
+ * Large photos backed by mapped pixels take no heap, so they are kept to a budget of
+ * their own instead, which bounds the address space and page cache they hold on to.
+ * It is taken from the system property photos.imageCache.mappedBytes and defaults to
+ * 2 GB.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ImageCache {
+
+	private static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+	private static final long DEFAULT_MAX_MAPPED_BYTES = 2048L * 1024 * 1024;
+
+	private static long maxBytes = Long.getLong("photos.imageCache.bytes",
+			Math.min(Runtime.getRuntime().maxMemory() / 4, DEFAULT_MAX_BYTES));
+	private static long maxMappedBytes = Long.getLong("photos.imageCache.mappedBytes", DEFAULT_MAX_MAPPED_BYTES);
+	private static LinkedHashMap<String, Image> images = new LinkedHashMap<>(64, 0.75f, true);
+	private static long bytes, mappedBytes;
+	private static long hits, misses, evictions;
+
+	/**
+	 * Returns the decoded image of a blob, decoding it if it is not cached
+	 * @param key the key of the blob
+	 * @return the image
+	 * @throws IOException if the blob cannot be read or decoded
+	 */
+	public static Image get(String key) throws IOException {
+		return get(key, () -> ImageCodec.decode(key));
+	}
+
+	/**
+	 * Returns a cached image, loading it if it is not cached
+	 * @param key the key the image is cached under
+	 * @param loader loads the image on a miss
+	 * @return the image
+	 * @throws IOException if the image cannot be loaded
+	 */
+	public static Image get(String key, Loader loader) throws IOException {
+		synchronized (ImageCache.class) {
+			Image image = images.get(key);
+			if (image != null) {
+				hits++;
+				return image;
+			}
+			misses++;
+		}
+		// decoded outside the lock, so a slow decode does not hold up cached images
+		Image image = loader.load();
+		put(key, image);
+		return image;
+	}
+
+	/**
+	 * Returns a cached image without loading it
+	 * @param key the key the image is cached under
+	 * @return the image, null if it is not cached
+	 */
+	public static synchronized Image peek(String key) {
+		Image image = images.get(key);
+		if (image != null) {
+			hits++;
+		}
+		return image;
+	}
+
+	/**
+	 * Adds an image that was decoded elsewhere, evicting the least recently used
+	 * images of the same kind until the cache fits its budgets again. An image larger
+	 * than the whole budget of its kind is not cached.
+	 * @param key the key of the blob the image was decoded from
+	 * @param image the decoded image
+	 */
+	public static synchronized void put(String key, Image image) {
+		if (sizeOf(image) > (MappedPixelStore.isMapped(image) ? maxMappedBytes : maxBytes)) {
+			return;
+		}
+		Image previous = images.put(key, image);
+		if (previous != null) {
+			charge(previous, -1);
+		}
+		charge(image, 1);
+		evict(key);
+	}
+
+	/**
+	 * Changes the budget, evicting images if the cache no longer fits
+	 * @param budget the new budget in bytes of decoded pixels on the heap
+	 */
+	public static synchronized void setMaxBytes(long budget) {
+		maxBytes = budget;
+		evict(null);
+	}
+
+	/**
+	 * Drops every cached image
+	 */
+	public static synchronized void clear() {
+		images.clear();
+		bytes = 0;
+		mappedBytes = 0;
+	}
+
+	/**
+	 * Returns the number of requests answered from the cache
+	 * @return the number of hits
+	 */
+	public static synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests that had to decode an image
+	 * @return the number of misses
+	 */
+	public static synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of images dropped to stay within the budget
+	 * @return the number of evictions
+	 */
+	public static synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the bytes of decoded pixels currently cached on the heap
+	 * @return the size of the cache in bytes
+	 */
+	public static synchronized long getSize() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the bytes of mapped pixels currently cached
+	 * @return the size of the mapped images in bytes
+	 */
+	public static synchronized long getMappedSize() {
+		return mappedBytes;
+	}
+
+	/**
+	 * Returns a summary of the counters, for logging
+	 * @return the counters of the cache
+	 */
+	public static synchronized String stats() {
+		return String.format("ImageCache: %d images, %d of %d bytes, %d of %d mapped bytes, %d hits, %d misses, %d evictions",
+				images.size(), bytes, maxBytes, mappedBytes, maxMappedBytes, hits, misses, evictions);
+	}
+
+	/**
+	 * Loads an image that is not cached
+	 */
+	public interface Loader {
+		Image load() throws IOException;
+	}
+
+	/**
+	 * Drops the least recently used images of each kind that is over its budget,
+	 * except the image just added
+	 */
+	private static void evict(String added) {
+		Iterator<Map.Entry<String, Image>> eldest = images.entrySet().iterator();
+		while ((bytes > maxBytes || mappedBytes > maxMappedBytes) && eldest.hasNext()) {
+			Map.Entry<String, Image> entry = eldest.next();
+			boolean mapped = MappedPixelStore.isMapped(entry.getValue());
+			if (entry.getKey().equals(added) || (mapped ? mappedBytes <= maxMappedBytes : bytes <= maxBytes)) {
+				continue;
+			}
+			charge(entry.getValue(), -1);
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Adds the pixels of an image to the budget it counts against, or takes them off
+	 */
+	private static void charge(Image image, int sign) {
+		if (MappedPixelStore.isMapped(image)) {
+			mappedBytes += sign * sizeOf(image);
+		} else {
+			bytes += sign * sizeOf(image);
+		}
+	}
+
+	private static long sizeOf(Image image) {
+		return 4L * (long) image.getWidth() * (long) image.getHeight();
+	}
+}
@@ -0,0 +1,265 @@
+package storage;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import javafx.scene.image.Image;
+import model.SerializableImage;
+
+/**
+ * The ImageCodec turns the blobs of the blob store back into images. Photos imported
+ * from a file keep the original JPEG, PNG, GIF or BMP bytes and are decoded on demand.
+ * Images that have no source file, like photos saved as pixel grids before the blob
+ * store, are kept as deflate-compressed ARGB pixels instead, which is lossless.
+ *
+ * Image files whose longer side is above a maximum are decoded subsampled, a few rows
+ * at a time, so only the reduced image is held in memory; the blob keeps the original
+ * at full resolution. The maximum is taken from the system property
+ * photos.decode.maxSize and defaults to 4096 pixels.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ImageCodec {
+
+	private static final int PIXELS_MAGIC = 0x50585a31; // "PXZ1"
+	private static final int SERIALIZED_MAGIC = 0xaced;
+	private static final int DEFAULT_MAX_DECODED_SIZE = 4096;
+
+	private static int maxDecodedSize = Integer.getInteger("photos.decode.maxSize", DEFAULT_MAX_DECODED_SIZE);
+
+	/**
+	 * Encodes the pixels of an image as a lossless compressed blob
+	 * @param image the image to be encoded
+	 * @return the compressed pixels
+	 */
+	public static byte[] encodePixels(SerializableImage image) {
+		IntBuffer argb = image.getPixels();
+		ByteBuffer pixelBytes = ByteBuffer.allocate(4 * argb.remaining());
+		pixelBytes.asIntBuffer().put(argb);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(PIXELS_MAGIC);
+			out.writeInt(image.getWidth());
+			out.writeInt(image.getHeight());
+			DeflaterOutputStream deflated = new DeflaterOutputStream(out);
+			deflated.write(pixelBytes.array());
+			deflated.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // cannot happen in memory
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a stored blob into an image. Large photos are decoded into mapped
+	 * memory outside of the heap, everything else is decoded in memory. The image is
+	 * as stored; views turn it upright by the orientation the photo recorded.
+	 * @param key the key of the blob
+	 * @return the decoded image
+	 * @throws IOException if the blob is missing or not a readable image
+	 */
+	public static Image decode(String key) throws IOException {
+		Path blob = BlobStore.path(key);
+		Image mapped = MappedPixelStore.open(key, blob);
+		if (mapped != null) {
+			return mapped;
+		}
+		Image image = decodeReduced(blob);
+		if (image == null) {
+			image = decode(Files.readAllBytes(blob));
+		}
+		return image;
+	}
+
+	/**
+	 * Reads the dimensions of an encoded image from its header, which also checks
+	 * that it can be decoded
+	 * @param data the contents of an image file
+	 * @return the width and height of the image
+	 * @throws IOException if the format is not supported or the header is broken
+	 */
+	public static int[] readSize(byte[] data) throws IOException {
+		return readSize(ImageIO.createImageInputStream(new ByteArrayInputStream(data)));
+	}
+
+	/**
+	 * Reads the dimensions of an image file or a stored blob from its header,
+	 * without decoding any pixels
+	 * @param file the image file or blob
+	 * @return the width and height of the image
+	 * @throws IOException if the format is not supported or the header is broken
+	 */
+	public static int[] readSize(Path file) throws IOException {
+		DataInputStream header = new DataInputStream(Files.newInputStream(file));
+		int magic = 0;
+		try {
+			magic = header.readInt();
+			if (magic == PIXELS_MAGIC) {
+				return new int[] { header.readInt(), header.readInt() };
+			}
+		} catch (IOException e) {
+			// too short to hold pixels, left to the image readers
+		} finally {
+			header.close();
+		}
+		if (magic >>> 16 == SERIALIZED_MAGIC) {
+			SerializableImage pixels = decodeRaw(Files.readAllBytes(file));
+			return new int[] { pixels.getWidth(), pixels.getHeight() };
+		}
+		return readSize(ImageIO.createImageInputStream(file.toFile()));
+	}
+
+	private static int[] readSize(ImageInputStream in) throws IOException {
+		if (in == null) {
+			throw new IOException("Unreadable image");
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				throw new IOException("Unsupported image format");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int[] size = { reader.getWidth(0), reader.getHeight(0) };
+				if (size[0] <= 0 || size[1] <= 0) {
+					throw new IOException("Image has no pixels");
+				}
+				return size;
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Decodes an image file that is larger than the maximum decoded size, skipping
+	 * rows and columns while it is read so only the reduced image is ever in memory
+	 * @param blob the file of the encoded image
+	 * @return the reduced image, or null if the image is small enough to be decoded
+	 *         whole or the blob is not an image file
+	 * @throws IOException if the image cannot be decoded
+	 */
+	private static Image decodeReduced(Path blob) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(blob.toFile());
+		if (in == null) {
+			return null;
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+				if (longest <= maxDecodedSize) {
+					return null;
+				}
+				int step = (longest + maxDecodedSize - 1) / maxDecodedSize;
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(step, step, 0, 0);
+				BufferedImage image = reader.read(0, param);
+				int width = image.getWidth(), height = image.getHeight();
+				return new SerializableImage(width, height, image.getRGB(0, 0, width, height, null, 0, width)).getImage();
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Decodes a blob into an image
+	 * @param data the bytes of the blob
+	 * @return the decoded image
+	 * @throws IOException if the blob is not a readable image
+	 */
+	public static Image decode(byte[] data) throws IOException {
+		SerializableImage pixels = decodeRaw(data);
+		if (pixels != null) {
+			return pixels.getImage();
+		}
+		Image image = new Image(new ByteArrayInputStream(data));
+		if (image.isError()) {
+			throw new IOException("Unsupported image format", image.getException());
+		}
+		return image;
+	}
+
+	/**
+	 * Decodes a blob that holds pixels rather than the bytes of an image file
+	 * @param data the bytes of the blob
+	 * @return the pixels, or null if the blob is an image file
+	 * @throws IOException if the blob is truncated
+	 */
+	static SerializableImage decodeRaw(byte[] data) throws IOException {
+		if (data.length >= 4 && readInt(data) == PIXELS_MAGIC) {
+			return decodePixels(data);
+		}
+		if (data.length >= 2 && readInt(data) >>> 16 == SERIALIZED_MAGIC) {
+			// blobs stored as serialized pixel grids before encoded bytes were kept
+			ObjectInputStream objIn = new ObjectInputStream(new ByteArrayInputStream(data));
+			try {
+				return (SerializableImage) objIn.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			} finally {
+				objIn.close();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes a blob of compressed pixels
+	 * @param data the bytes of the blob
+	 * @return the decoded pixels
+	 * @throws IOException if the blob is truncated
+	 */
+	private static SerializableImage decodePixels(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		in.readInt();
+		int width = in.readInt(), height = in.readInt();
+		byte[] pixelBytes = new byte[4 * width * height];
+		DataInputStream inflated = new DataInputStream(new InflaterInputStream(in));
+		try {
+			inflated.readFully(pixelBytes);
+		} finally {
+			inflated.close();
+		}
+		int[] argb = new int[width * height];
+		ByteBuffer.wrap(pixelBytes).asIntBuffer().get(argb);
+		return new SerializableImage(width, height, argb);
+	}
+
+	private static int readInt(byte[] data) {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value = (value << 8) | (i < data.length ? data[i] & 0xff : 0);
+		}
+		return value;
+	}
+}
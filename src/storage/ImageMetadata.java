@@ -0,0 +1,357 @@
+package storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * ImageMetadata reads the dimensions, the EXIF orientation and the EXIF capture date
+ * of a JPEG, PNG, GIF or BMP file from its header, without decoding any pixels. The
+ * file is read front to back and only up to the start of the image data, so a whole
+ * folder can be dated and sized in the time it takes to decode a single photo.
+ *
+ * JPEG files are read up to the start of scan, with the EXIF block taken from the
+ * APP1 segment. PNG files are read up to the first image data chunk, with the EXIF
+ * block taken from the eXIf chunk. GIF and BMP files have no EXIF block, so only
+ * their dimensions are read.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ImageMetadata {
+
+	public static final int NORMAL = 1;
+
+	private static final long PNG_SIGNATURE = 0x89504e470d0a1a0aL;
+	private static final int TAG_ORIENTATION = 0x0112;
+	private static final int TAG_DATE_TIME = 0x0132;
+	private static final int TAG_EXIF_IFD = 0x8769;
+	private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+	private static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+
+	private int width, height;
+	private int orientation = NORMAL;
+	private Calendar captureDate;
+
+	private ImageMetadata() {
+	}
+
+	/**
+	 * Reads the metadata of an image file
+	 * @param file the image file
+	 * @return the metadata
+	 * @throws IOException if the file is not a JPEG, PNG, GIF or BMP file or its header is broken
+	 */
+	public static ImageMetadata read(Path file) throws IOException {
+		InputStream in = Files.newInputStream(file);
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the metadata of an image from the start of its file
+	 * @param stream the contents of the image file, left open
+	 * @return the metadata
+	 * @throws IOException if the image is not a JPEG, PNG, GIF or BMP file or its header is broken
+	 */
+	public static ImageMetadata read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+		ImageMetadata metadata = new ImageMetadata();
+		try {
+			in.mark(8);
+			long signature = in.readLong();
+			in.reset();
+			if ((signature >>> 48) == 0xffd8) {
+				metadata.readJpeg(in);
+			} else if (signature == PNG_SIGNATURE) {
+				metadata.readPng(in);
+			} else if ((signature >>> 40) == 0x474946) { // "GIF"
+				metadata.readGif(in);
+			} else if ((signature >>> 48) == 0x424d) { // "BM"
+				metadata.readBmp(in);
+			} else {
+				throw new IOException("Unsupported image format");
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated image header", e);
+		}
+		if (metadata.width <= 0 || metadata.height <= 0) {
+			throw new IOException("Image has no pixels");
+		}
+		return metadata;
+	}
+
+	/**
+	 * Reads only the orientation of an image file
+	 * @param file the image file or blob
+	 * @return the EXIF orientation, NORMAL if the file does not say or is not an image file
+	 */
+	public static int orientationOf(Path file) {
+		try {
+			return read(file).getOrientation();
+		} catch (IOException e) {
+			return NORMAL; // pixel blobs have no header to read
+		}
+	}
+
+	/**
+	 * Turns pixels the way an EXIF orientation says, so they show upright. Orientations
+	 * 5 to 8 swap the width and the height.
+	 * @param argb the pixels as stored, row by row
+	 * @param width the width as stored
+	 * @param height the height as stored
+	 * @param orientation the EXIF orientation
+	 * @return the upright pixels, row by row, or the same array for NORMAL
+	 */
+	public static int[] orient(int[] argb, int width, int height, int orientation) {
+		if (orientation <= NORMAL || orientation > 8) {
+			return argb;
+		}
+		boolean swap = orientation >= 5;
+		int uprightWidth = swap ? height : width, uprightHeight = swap ? width : height;
+		int[] upright = new int[argb.length];
+		for (int y = 0; y < uprightHeight; y++) {
+			for (int x = 0; x < uprightWidth; x++) {
+				int sourceX, sourceY;
+				switch (orientation) {
+				case 2: sourceX = width - 1 - x; sourceY = y; break; // flip left to right
+				case 3: sourceX = width - 1 - x; sourceY = height - 1 - y; break; // turn half way
+				case 4: sourceX = x; sourceY = height - 1 - y; break; // flip top to bottom
+				case 5: sourceX = y; sourceY = x; break; // flip along the diagonal
+				case 6: sourceX = y; sourceY = height - 1 - x; break; // turn a quarter clockwise
+				case 7: sourceX = width - 1 - y; sourceY = height - 1 - x; break; // flip along the other diagonal
+				default: sourceX = width - 1 - y; sourceY = x; break; // turn a quarter counterclockwise
+				}
+				upright[y * uprightWidth + x] = argb[sourceY * width + sourceX];
+			}
+		}
+		return upright;
+	}
+
+	/**
+	 * Returns the width of the image as it is stored, before it is oriented
+	 * @return the width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the image as it is stored, before it is oriented
+	 * @return the height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns how the image is to be turned to be shown upright
+	 * @return the EXIF orientation, 1 to 8, NORMAL if the file does not say
+	 */
+	public int getOrientation() {
+		return orientation;
+	}
+
+	/**
+	 * Returns when the photo was taken
+	 * @return the EXIF capture date, null if the file does not say
+	 */
+	public Calendar getCaptureDate() {
+		return captureDate;
+	}
+
+	/**
+	 * Reads the segments of a JPEG file up to the start of scan
+	 */
+	private void readJpeg(DataInputStream in) throws IOException {
+		in.readUnsignedShort(); // start of image
+		while (true) {
+			int marker = in.readUnsignedByte();
+			if (marker != 0xff) {
+				throw new IOException("Broken JPEG header");
+			}
+			do {
+				marker = in.readUnsignedByte(); // markers may be padded with 0xff
+			} while (marker == 0xff);
+			if (marker == 0xd9 || marker == 0xda) { // end of image, start of scan
+				return;
+			}
+			if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+				continue; // markers without a length
+			}
+			int length = in.readUnsignedShort() - 2;
+			if (length < 0) {
+				throw new IOException("Broken JPEG header");
+			}
+			if (marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+				// start of frame: precision, height, width
+				in.readUnsignedByte();
+				height = in.readUnsignedShort();
+				width = in.readUnsignedShort();
+				skip(in, length - 5);
+			} else if (marker == 0xe1 && length > 6) {
+				byte[] segment = new byte[length];
+				in.readFully(segment);
+				if (new String(segment, 0, 6, StandardCharsets.ISO_8859_1).equals("Exif\0\0")) {
+					readExif(ByteBuffer.wrap(segment, 6, length - 6).slice());
+				}
+			} else {
+				skip(in, length);
+			}
+		}
+	}
+
+	/**
+	 * Reads the chunks of a PNG file up to the first image data
+	 */
+	private void readPng(DataInputStream in) throws IOException {
+		in.readLong(); // signature
+		while (true) {
+			int length = in.readInt();
+			String type = new String(new byte[] { in.readByte(), in.readByte(), in.readByte(), in.readByte() },
+					StandardCharsets.ISO_8859_1);
+			if (length < 0 || type.equals("IDAT") || type.equals("IEND")) {
+				return;
+			}
+			if (type.equals("IHDR")) {
+				width = in.readInt();
+				height = in.readInt();
+				skip(in, length - 8);
+			} else if (type.equals("eXIf")) {
+				byte[] chunk = new byte[length];
+				in.readFully(chunk);
+				readExif(ByteBuffer.wrap(chunk));
+			} else {
+				skip(in, length);
+			}
+			in.readInt(); // CRC
+		}
+	}
+
+	/**
+	 * Reads the logical screen size of a GIF file
+	 */
+	private void readGif(DataInputStream in) throws IOException {
+		skip(in, 6);
+		width = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+		height = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+	}
+
+	/**
+	 * Reads the size of a BMP file from its bitmap header
+	 */
+	private void readBmp(DataInputStream in) throws IOException {
+		skip(in, 14);
+		int headerSize = Integer.reverseBytes(in.readInt());
+		if (headerSize == 12) {
+			width = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+			height = Short.toUnsignedInt(Short.reverseBytes(in.readShort()));
+		} else {
+			width = Integer.reverseBytes(in.readInt());
+			height = Math.abs(Integer.reverseBytes(in.readInt())); // negative for rows stored top down
+		}
+	}
+
+	/**
+	 * Reads the orientation and the capture date from an EXIF block, which is laid
+	 * out like a TIFF file
+	 */
+	private void readExif(ByteBuffer tiff) {
+		try {
+			short byteOrder = tiff.getShort(0);
+			if (byteOrder == 0x4949) { // "II"
+				tiff.order(ByteOrder.LITTLE_ENDIAN);
+			} else if (byteOrder != 0x4d4d) { // "MM"
+				return;
+			}
+			String dateTime = null, original = null, offset = null;
+			int ifd = tiff.getInt(4);
+			int exifIfd = -1;
+			for (int i = 0, count = tiff.getShort(ifd) & 0xffff; i < count; i++) {
+				int entry = ifd + 2 + 12 * i;
+				int tag = tiff.getShort(entry) & 0xffff;
+				if (tag == TAG_ORIENTATION) {
+					int value = tiff.getShort(entry + 8) & 0xffff;
+					orientation = value >= 1 && value <= 8 ? value : NORMAL;
+				} else if (tag == TAG_DATE_TIME) {
+					dateTime = readAscii(tiff, entry);
+				} else if (tag == TAG_EXIF_IFD) {
+					exifIfd = tiff.getInt(entry + 8);
+				}
+			}
+			if (exifIfd > 0) {
+				for (int i = 0, count = tiff.getShort(exifIfd) & 0xffff; i < count; i++) {
+					int entry = exifIfd + 2 + 12 * i;
+					int tag = tiff.getShort(entry) & 0xffff;
+					if (tag == TAG_DATE_TIME_ORIGINAL) {
+						original = readAscii(tiff, entry);
+					} else if (tag == TAG_OFFSET_TIME_ORIGINAL) {
+						offset = readAscii(tiff, entry);
+					}
+				}
+			}
+			captureDate = parseDate(original != null ? original : dateTime, original != null ? offset : null);
+		} catch (IndexOutOfBoundsException e) {
+			// a broken EXIF block leaves the photo without a capture date
+		}
+	}
+
+	private static String readAscii(ByteBuffer tiff, int entry) {
+		int count = tiff.getInt(entry + 4);
+		int start = count > 4 ? tiff.getInt(entry + 8) : entry + 8;
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < count && tiff.get(start + i) != 0; i++) {
+			value.append((char) tiff.get(start + i));
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Parses an EXIF date, "yyyy:MM:dd HH:mm:ss" in the local time of the camera
+	 * @param date the date, or null
+	 * @param offset the offset of the local time from UTC, "+hh:mm", or null if not known
+	 * @return the date, null if it is missing or blank
+	 */
+	private static Calendar parseDate(String date, String offset) {
+		if (date == null || date.length() < 19 || date.charAt(0) == ' ' || date.startsWith("0000")) {
+			return null;
+		}
+		try {
+			Calendar calendar = Calendar.getInstance();
+			if (offset != null && offset.length() == 6) {
+				calendar.setTimeZone(TimeZone.getTimeZone("GMT" + offset));
+			}
+			calendar.clear();
+			calendar.set(Integer.parseInt(date.substring(0, 4)), Integer.parseInt(date.substring(5, 7)) - 1,
+					Integer.parseInt(date.substring(8, 10)), Integer.parseInt(date.substring(11, 13)),
+					Integer.parseInt(date.substring(14, 16)), Integer.parseInt(date.substring(17, 19)));
+			Calendar local = Calendar.getInstance();
+			local.setTimeInMillis(calendar.getTimeInMillis());
+			return local;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static void skip(DataInputStream in, long count) throws IOException {
+		while (count > 0) {
+			long skipped = in.skip(count);
+			if (skipped <= 0) {
+				in.readByte(); // throws at the end of the file
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+}
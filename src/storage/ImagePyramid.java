@@ -0,0 +1,434 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * An ImagePyramid keeps a huge photo at full size and at every halving down to a single
+ * tile, each level cut into square tiles, so a viewer only ever reads the level that
+ * matches its zoom and the tiles that are on screen. Memory use then depends on the
+ * size of the screen rather than the size of the photo.
+ *
+ * Pyramids are made for the photos that are large enough for the MappedPixelStore,
+ * from its decoded file, in the background when such a photo is imported or first
+ * opened. They are kept under data/pyramids next to the blob they were made from.
+ * Each level is stored as tiles of premultiplied ARGB in native byte order, one
+ * fixed-size slot per tile, and is memory-mapped, so a tile is shown straight from
+ * the mapping. Each level is made by averaging 2 by 2 blocks of the level above it.
+ * Levels are mapped in windows of a fixed number of tiles, since a single mapping is
+ * limited to 2 GB and the full size level of the largest photos is larger than that.
+ *
+ * Pyramids are a cache like the decoded files they are made from: they are kept within
+ * a budget of bytes, taken from the system property photos.pyramids.bytes and 4 GB by
+ * default, and the pyramid of an image is deleted when the last photo of the image is
+ * removed. A photo whose pyramid is gone gets a new one the next time it is opened.
+ *
+ * Header, big-endian: magic, tile size, level count, then per level its width,
+ * height and the offset of its tiles.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ImagePyramid {
+
+	public static final int TILE_SIZE = 256;
+	private static final String PYRAMID_DIRECTORY = "data/pyramids";
+	private static final int MAGIC = 0x50585031; // "PXP1"
+	private static final int HEADER_BYTES = 12;
+	private static final int LEVEL_BYTES = 16;
+	private static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+	private static final int WINDOW_TILES = 2048; // 512 MB of tiles per mapping
+	private static final long DEFAULT_MAX_BYTES = 4096L * 1024 * 1024;
+
+	private static long maxBytes = Long.getLong("photos.pyramids.bytes", DEFAULT_MAX_BYTES);
+
+	private static ExecutorService generator = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "pyramid-generator");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+
+	private static ConcurrentHashMap<String, FutureTask<Void>> generating = new ConcurrentHashMap<>();
+
+	private int[] widths, heights;
+	private IntBuffer[][] levels; // the windows of each level
+
+	private ImagePyramid(int[] widths, int[] heights, IntBuffer[][] levels) {
+		this.widths = widths;
+		this.heights = heights;
+		this.levels = levels;
+	}
+
+	/**
+	 * Opens the pyramid of a blob
+	 * @param key the key of the blob
+	 * @return the pyramid, or null if the blob has none
+	 * @throws IOException if the pyramid cannot be read
+	 */
+	public static ImagePyramid open(String key) throws IOException {
+		File file = fileFor(key);
+		if (!file.exists()) {
+			return null;
+		}
+		FileCache.touch(file.toPath());
+		RandomAccessFile in = new RandomAccessFile(file, "rw");
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != TILE_SIZE) {
+				throw new IOException("Not an image pyramid: " + file);
+			}
+			int count = in.readInt();
+			int[] widths = new int[count], heights = new int[count];
+			long[] offsets = new long[count];
+			for (int level = 0; level < count; level++) {
+				widths[level] = in.readInt();
+				heights[level] = in.readInt();
+				offsets[level] = in.readLong();
+			}
+			IntBuffer[][] levels = new IntBuffer[count][];
+			for (int level = 0; level < count; level++) {
+				// PixelBuffer needs a writable buffer; private mode keeps the file unchanged
+				levels[level] = mapLevel(in.getChannel(), FileChannel.MapMode.PRIVATE, offsets[level],
+						levelBytes(widths[level], heights[level]));
+			}
+			return new ImagePyramid(widths, heights, levels);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks whether a blob has a pyramid
+	 * @param key the key of the blob
+	 * @return true if the blob has a pyramid
+	 */
+	public static boolean exists(String key) {
+		return fileFor(key).exists();
+	}
+
+	/**
+	 * Deletes the pyramid of a blob that no photo shows any more
+	 * @param key the key of the blob
+	 */
+	public static void delete(String key) {
+		FileCache.delete(fileFor(key).toPath());
+	}
+
+	/**
+	 * Makes the pyramid of a blob on a background thread, if it is large enough to need one
+	 * @param key the key of the blob
+	 */
+	public static void generateLater(String key) {
+		generator.execute(() -> {
+			try {
+				generate(key);
+			} catch (IOException | RuntimeException e) {
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * Makes the pyramid of a blob if it is large enough to need one and does not have one yet
+	 * @param key the key of the blob
+	 * @throws IOException if the blob cannot be decoded or the pyramid cannot be written
+	 */
+	public static void generate(String key) throws IOException {
+		if (fileFor(key).exists()) {
+			return;
+		}
+		// one pyramid per key at a time; its decoded file comes from the same in-flight
+		// decode the viewer and the prefetcher use
+		FutureTask<Void> task = new FutureTask<>(() -> {
+			build(key);
+			return null;
+		});
+		FutureTask<Void> running = generating.putIfAbsent(key, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				generating.remove(key, task);
+			}
+		}
+		try {
+			running.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while making the pyramid of " + key, e);
+		}
+	}
+
+	/**
+	 * Writes the pyramid of a blob, through a temporary file, unless another one finished first
+	 */
+	private static void build(String key) throws IOException {
+		File target = fileFor(key);
+		if (target.exists()) {
+			return;
+		}
+		Path decoded = MappedPixelStore.decodedFile(key, BlobStore.path(key));
+		if (decoded == null) {
+			return;
+		}
+		int[] size = new int[2];
+		IntBuffer source = MappedPixelStore.mapDecoded(decoded, size);
+		int count = 1;
+		while (Math.max(size[0], size[1]) > TILE_SIZE << (count - 1)) {
+			count++;
+		}
+		int[] widths = new int[count], heights = new int[count];
+		long[] offsets = new long[count];
+		long offset = HEADER_BYTES + (long) count * LEVEL_BYTES;
+		for (int level = 0; level < count; level++) {
+			widths[level] = Math.max(1, (size[0] + (1 << level) - 1) >> level);
+			heights[level] = Math.max(1, (size[1] + (1 << level) - 1) >> level);
+			offsets[level] = offset;
+			offset += levelBytes(widths[level], heights[level]);
+		}
+
+		target.getParentFile().mkdirs();
+		File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		try {
+			write(temp, source, widths, heights, offsets, offset);
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+		FileCache.trim(new File(PYRAMID_DIRECTORY), maxBytes, target.toPath());
+	}
+
+	/**
+	 * Writes every level of a pyramid into a file
+	 */
+	private static void write(File file, IntBuffer source, int[] widths, int[] heights, long[] offsets, long length) throws IOException {
+		int count = widths.length;
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(length);
+			out.writeInt(MAGIC);
+			out.writeInt(TILE_SIZE);
+			out.writeInt(count);
+			for (int level = 0; level < count; level++) {
+				out.writeInt(widths[level]);
+				out.writeInt(heights[level]);
+				out.writeLong(offsets[level]);
+			}
+			IntBuffer[][] levels = new IntBuffer[count][];
+			for (int level = 0; level < count; level++) {
+				levels[level] = mapLevel(out.getChannel(), FileChannel.MapMode.READ_WRITE, offsets[level],
+						levelBytes(widths[level], heights[level]));
+			}
+			ImagePyramid pyramid = new ImagePyramid(widths, heights, levels);
+			pyramid.copyFullSize(source);
+			for (int level = 1; level < count; level++) {
+				pyramid.halve(level);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the number of levels, the full size being level 0
+	 * @return the number of levels
+	 */
+	public int getLevels() {
+		return levels.length;
+	}
+
+	/**
+	 * Returns the width of a level
+	 * @param level the level
+	 * @return the width in pixels
+	 */
+	public int getWidth(int level) {
+		return widths[level];
+	}
+
+	/**
+	 * Returns the height of a level
+	 * @param level the level
+	 * @return the height in pixels
+	 */
+	public int getHeight(int level) {
+		return heights[level];
+	}
+
+	/**
+	 * Returns the number of columns of tiles of a level
+	 * @param level the level
+	 * @return the number of columns
+	 */
+	public int getColumns(int level) {
+		return (widths[level] + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+	/**
+	 * Returns the number of rows of tiles of a level
+	 * @param level the level
+	 * @return the number of rows
+	 */
+	public int getRows(int level) {
+		return (heights[level] + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+	/**
+	 * Returns the level to show at a zoom, the smallest one that still has at least
+	 * one pixel for every pixel on screen
+	 * @param scale the screen pixels per pixel of the full size image
+	 * @return the level
+	 */
+	public int levelFor(double scale) {
+		int level = 0;
+		while (level + 1 < levels.length && scale * (1 << (level + 1)) <= 1) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Returns a tile of a level, backed by the mapping. Tiles in the last row and
+	 * column are smaller than TILE_SIZE if the level is not a multiple of it.
+	 * @param level the level
+	 * @param column the column of the tile
+	 * @param row the row of the tile
+	 * @return the tile
+	 */
+	public Image tile(int level, int column, int row) {
+		int width = tileWidth(level, column), height = tileHeight(level, row);
+		IntBuffer tile = window(level, column, row).duplicate();
+		int start = start(level, column, row);
+		tile.position(start).limit(start + width * height);
+		return new WritableImage(new PixelBuffer<>(width, height, tile.slice(), PixelFormat.getIntArgbPreInstance()));
+	}
+
+	/**
+	 * Cuts the decoded full size image into the tiles of level 0
+	 */
+	private void copyFullSize(IntBuffer source) {
+		int[] line = new int[TILE_SIZE];
+		for (int row = 0; row < getRows(0); row++) {
+			for (int column = 0; column < getColumns(0); column++) {
+				int width = tileWidth(0, column), height = tileHeight(0, row);
+				IntBuffer tile = window(0, column, row);
+				int start = start(0, column, row);
+				for (int y = 0; y < height; y++) {
+					source.position((row * TILE_SIZE + y) * widths[0] + column * TILE_SIZE);
+					source.get(line, 0, width);
+					tile.position(start + y * width);
+					tile.put(line, 0, width);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes a level by averaging 2 by 2 blocks of the level above it, which is exact
+	 * for premultiplied pixels
+	 */
+	private void halve(int level) {
+		int above = level - 1;
+		for (int row = 0; row < getRows(level); row++) {
+			for (int column = 0; column < getColumns(level); column++) {
+				int width = tileWidth(level, column), height = tileHeight(level, row);
+				IntBuffer tiles = window(level, column, row);
+				int start = start(level, column, row);
+				for (int y = 0; y < height; y++) {
+					int sourceY = 2 * (row * TILE_SIZE + y);
+					int nextY = Math.min(sourceY + 1, heights[above] - 1);
+					for (int x = 0; x < width; x++) {
+						int sourceX = 2 * (column * TILE_SIZE + x);
+						int nextX = Math.min(sourceX + 1, widths[above] - 1);
+						tiles.put(start + y * width + x, average(pixel(above, sourceX, sourceY), pixel(above, nextX, sourceY),
+								pixel(above, sourceX, nextY), pixel(above, nextX, nextY)));
+					}
+				}
+			}
+		}
+	}
+
+	private int pixel(int level, int x, int y) {
+		int column = x / TILE_SIZE, row = y / TILE_SIZE;
+		return window(level, column, row).get(start(level, column, row) + (y % TILE_SIZE) * tileWidth(level, column) + x % TILE_SIZE);
+	}
+
+	private static int average(int a, int b, int c, int d) {
+		int average = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int sum = ((a >>> shift) & 0xff) + ((b >>> shift) & 0xff) + ((c >>> shift) & 0xff) + ((d >>> shift) & 0xff);
+			average |= ((sum + 2) / 4) << shift;
+		}
+		return average;
+	}
+
+	/**
+	 * Returns the window of a level that holds a tile
+	 */
+	private IntBuffer window(int level, int column, int row) {
+		return levels[level][(int) (tileIndex(level, column, row) / WINDOW_TILES)];
+	}
+
+	/**
+	 * Returns where a tile starts in its window
+	 */
+	private int start(int level, int column, int row) {
+		return (int) (tileIndex(level, column, row) % WINDOW_TILES * (TILE_BYTES / 4));
+	}
+
+	private long tileIndex(int level, int column, int row) {
+		return row * (long) getColumns(level) + column;
+	}
+
+	private int tileWidth(int level, int column) {
+		return Math.min(TILE_SIZE, widths[level] - column * TILE_SIZE);
+	}
+
+	private int tileHeight(int level, int row) {
+		return Math.min(TILE_SIZE, heights[level] - row * TILE_SIZE);
+	}
+
+	private static long levelBytes(int width, int height) {
+		return (long) ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE) * TILE_BYTES;
+	}
+
+	/**
+	 * Maps the tiles of a level in windows of at most WINDOW_TILES tiles
+	 */
+	private static IntBuffer[] mapLevel(FileChannel channel, FileChannel.MapMode mode, long offset, long bytes) throws IOException {
+		long windowBytes = WINDOW_TILES * TILE_BYTES;
+		IntBuffer[] windows = new IntBuffer[(int) ((bytes + windowBytes - 1) / windowBytes)];
+		for (int i = 0; i < windows.length; i++) {
+			MappedByteBuffer window = channel.map(mode, offset + i * windowBytes, Math.min(windowBytes, bytes - i * windowBytes));
+			window.order(ByteOrder.nativeOrder());
+			windows[i] = window.asIntBuffer();
+		}
+		return windows;
+	}
+
+	private static File fileFor(String key) {
+		return new File(PYRAMID_DIRECTORY + "/" + key.substring(0, 2), key + ".pyramid");
+	}
+}
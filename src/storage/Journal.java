@@ -0,0 +1,146 @@
+package storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import model.User;
+
+/**
+ * A Journal is an append-only log of operations recorded since the last checkpoint
+ * of the user data it belongs to. Each record is a length-prefixed serialized
+ * Operation, so saving an edit costs the size of the edit rather than the size of
+ * the library.
+ *
+ * On startup the journal is replayed on top of the checkpoint. Records whose sequence
+ * number is already covered by the checkpoint are skipped, which makes a crash between
+ * writing a checkpoint and truncating the journal harmless.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class Journal {
+
+	private File file;
+	private long sequence = 0;
+	private int recordCount = 0;
+
+	/**
+	 * Constructor
+	 * @param file the file the journal is kept in
+	 */
+	public Journal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Appends an operation to the end of the journal. The record is handed to the
+	 * persistence service, which writes it in the background.
+	 * @param op the operation that was just applied in memory
+	 * @throws IOException if the operation cannot be serialized
+	 */
+	public synchronized void append(Operation op) throws IOException {
+		op.setSequence(sequence + 1);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0); // length, filled in below
+		ObjectOutputStream objOut = new ObjectOutputStream(out);
+		objOut.writeObject(op);
+		objOut.close();
+
+		byte[] record = bytes.toByteArray();
+		ByteBuffer.wrap(record).putInt(record.length - 4);
+		PersistenceService.append(file.toPath(), record);
+		sequence++;
+		recordCount++;
+	}
+
+	/**
+	 * Replays every journaled operation newer than the checkpoint onto the users
+	 * @param users the users loaded from the checkpoint
+	 * @param checkpointSequence the last sequence number contained in the checkpoint
+	 */
+	public synchronized void replay(ArrayList<User> users, long checkpointSequence) {
+		sequence = checkpointSequence;
+		recordCount = 0;
+		for (Operation op : read(checkpointSequence)) {
+			try {
+				op.apply(users);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			sequence = op.getSequence();
+			recordCount++;
+		}
+	}
+
+	/**
+	 * Reads every journaled operation newer than the checkpoint without applying it
+	 * @param checkpointSequence the last sequence number contained in the checkpoint
+	 * @return the operations in the order they were recorded
+	 */
+	public synchronized ArrayList<Operation> read(long checkpointSequence) {
+		ArrayList<Operation> ops = new ArrayList<>();
+		if (!file.exists()) {
+			return ops;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				while (true) {
+					byte[] record;
+					try {
+						record = new byte[in.readInt()];
+						in.readFully(record);
+					} catch (EOFException e) {
+						break; // end of journal, or a record torn by a crash
+					}
+					ObjectInputStream objIn = new ObjectInputStream(new ByteArrayInputStream(record));
+					Operation op = (Operation) objIn.readObject();
+					objIn.close();
+					if (op.getSequence() > checkpointSequence) {
+						ops.add(op);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return ops;
+	}
+
+	/**
+	 * Discards the journal after its operations were written into a checkpoint.
+	 * The file is deleted by the persistence service once the checkpoint is on disk.
+	 */
+	public synchronized void reset() {
+		PersistenceService.delete(file.toPath());
+		recordCount = 0;
+	}
+
+	/**
+	 * Returns the sequence number of the last recorded operation
+	 * @return the last sequence number
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns the number of operations recorded since the last checkpoint
+	 * @return the number of journal records
+	 */
+	public synchronized int getRecordCount() {
+		return recordCount;
+	}
+}
@@ -0,0 +1,181 @@
+package storage;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import model.User;
+
+/**
+ * The LegacyMigration converts a data.dat file, holding every user in one serialized
+ * ArrayList, into per-user shards. Each user is written to their shard and flushed to
+ * disk as soon as it has been deserialized, before the next user is read.
+ *
+ * An object stream holds on to every object it has read until it is closed, so that
+ * later references to them can be resolved, and the users read cannot be dropped from
+ * it. What it holds is kept small instead: each photo moves the pixels of its legacy
+ * image into the blob store as it is read, and the pixel columns of the image are kept
+ * out of the stream altogether, so of the library only its names, captions, dates and
+ * tags stay in memory until the end, and never more than one image's pixels.
+ *
+ * The index is written only once every shard is on disk, with the edits of the
+ * legacy journal applied, so a migration that is interrupted leaves no index behind
+ * and simply runs again from the legacy files on the next start.
+ *
+ * Can also be run on its own: java storage.LegacyMigration [data.dat [journal.dat]]
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class LegacyMigration {
+
+	/**
+	 * Converts a legacy data file and the journal kept next to it into shards
+	 * @param legacyData the data.dat file
+	 * @param legacyJournal the journal.dat file, which may not exist
+	 * @return the number of users migrated
+	 * @throws IOException if the data file cannot be read or a shard cannot be written
+	 */
+	public static int migrate(File legacyData, File legacyJournal) throws IOException {
+		ArrayList<String> usernames = new ArrayList<>();
+		long checkpointSequence = 0;
+		StreamingInput in = new StreamingInput(new BufferedInputStream(new FileInputStream(legacyData)), usernames);
+		try {
+			in.readObject(); // the list itself only holds nulls, see StreamingInput
+			try {
+				checkpointSequence = in.readLong();
+			} catch (EOFException e) {
+				// data file written before journaling, nothing to skip
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			in.close();
+		}
+		// edits journaled since data.dat was written, applied to the users they touch
+		LinkedHashMap<String, ArrayList<Operation>> opsByUser = new LinkedHashMap<>();
+		for (Operation op : new Journal(legacyJournal).read(checkpointSequence)) {
+			opsByUser.computeIfAbsent(op.getUsername(), username -> new ArrayList<>()).add(op);
+		}
+		for (String username : opsByUser.keySet()) {
+			ArrayList<User> users = new ArrayList<>();
+			if (usernames.contains(username)) {
+				users.add(ShardStore.readShardOf(username));
+			}
+			for (Operation op : opsByUser.get(username)) {
+				try {
+					op.apply(users);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			if (!users.isEmpty()) {
+				ShardStore.writeUser(users.get(0));
+				if (!usernames.contains(username)) {
+					usernames.add(username);
+				}
+			} else if (usernames.contains(username)) {
+				ShardStore.deleteShard(username);
+				usernames.remove(username);
+			}
+		}
+		// the index goes last, once every shard holds the journal, so an interrupted
+		// migration leaves no index behind and runs again from the legacy files
+		PersistenceService.flush();
+		ShardStore.addToIndex(usernames);
+		PersistenceService.flush();
+		legacyJournal.delete();
+		return ShardStore.readIndex().size();
+	}
+
+	/**
+	 * Migrates a legacy data file from the command line
+	 * @param args the data file and the journal file, data/data.dat and
+	 *        data/journal.dat if left out
+	 */
+	public static void main(String[] args) {
+		File data = new File(args.length > 0 ? args[0] : "data/data.dat");
+		File journal = new File(args.length > 1 ? args[1] : "data/journal.dat");
+		try {
+			long start = System.currentTimeMillis();
+			int count = migrate(data, journal);
+			System.out.println("Migrated " + count + " users in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * An ObjectInputStream that writes each user to their shard the moment the user
+	 * has been read, and hands null to the list in their place.
+	 *
+	 * The stream keeps what resolveObject returns, so each column of a legacy pixel grid
+	 * is kept as an empty array and handed back to the grid once the grid is read. The
+	 * image empties the grid when it has converted it, which leaves the columns to the
+	 * garbage collector.
+	 */
+	private static class StreamingInput extends ObjectInputStream {
+		private static final int[] READ_COLUMN = new int[0];
+
+		private ArrayList<String> usernames;
+		private ArrayList<int[]> columns = new ArrayList<>();
+		private int columnsToCome; // of the grid being read
+		private boolean replacedColumn; // the stream filters the replacement next
+
+		StreamingInput(InputStream in, ArrayList<String> usernames) throws IOException {
+			super(in);
+			this.usernames = usernames;
+			enableResolveObject(true);
+			setObjectInputFilter(this::countColumns);
+		}
+
+		/**
+		 * Tells the columns of a pixel grid from other int arrays, like those of a
+		 * Calendar, as the stream is about to read each array
+		 */
+		private ObjectInputFilter.Status countColumns(ObjectInputFilter.FilterInfo info) {
+			if (replacedColumn) {
+				replacedColumn = false;
+			} else if (info.serialClass() == int[][].class) {
+				columns.clear();
+				columnsToCome = (int) info.arrayLength();
+			} else if (info.serialClass() == int[].class && columnsToCome > 0) {
+				columnsToCome--;
+				columns.add(null); // filled in by resolveObject
+			}
+			return ObjectInputFilter.Status.UNDECIDED;
+		}
+
+		@Override
+		protected Object resolveObject(Object obj) throws IOException {
+			if (obj instanceof int[] && !columns.isEmpty() && columns.get(columns.size() - 1) == null) {
+				columns.set(columns.size() - 1, (int[]) obj);
+				replacedColumn = true;
+				return READ_COLUMN;
+			}
+			if (obj instanceof int[][]) {
+				int[][] grid = (int[][]) obj;
+				for (int x = 0; x < grid.length && x < columns.size(); x++) {
+					grid[x] = columns.get(x);
+				}
+				columns.clear();
+				return grid;
+			}
+			if (!(obj instanceof User)) {
+				return obj;
+			}
+			User user = (User) obj;
+			ShardStore.writeUser(user);
+			PersistenceService.flush();
+			usernames.add(user.getUsername());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,303 @@
+package storage;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * The MappedPixelStore keeps the decoded pixels of large photos in memory-mapped files
+ * under data/pixels instead of the Java heap. The image is decoded straight into the
+ * mapping and shown through a PixelBuffer that wraps it, so large photos do not count
+ * against the heap limit and the operating system decides which pages stay resident.
+ * The decoded file is kept, so a photo is usually only decoded the first time it is
+ * opened.
+ *
+ * Decoded files are a cache: the directory is kept within a budget of bytes, taken
+ * from the system property photos.pixels.bytes and 4 GB by default, by deleting the
+ * files opened least recently, and the file of an image is deleted when the last
+ * photo of the image is removed. Either way it is decoded again when it is next opened.
+ *
+ * A single mapping is limited to 2 GB, which caps mapped photos at about 536 megapixels.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class MappedPixelStore {
+
+	private static final String PIXEL_DIRECTORY = "data/pixels";
+	private static final long MIN_MAPPED_PIXELS = 16L * 1024 * 1024;
+	private static final long MIN_MAPPED_BLOB_BYTES = 1024 * 1024;
+	private static final long MAX_MAPPED_PIXELS = Integer.MAX_VALUE / 4;
+	private static final int HEADER_BYTES = 16;
+	private static final int MAGIC = 0x50584d31; // "PXM1"
+	private static final long DEFAULT_MAX_BYTES = 4096L * 1024 * 1024;
+
+	private static long maxBytes = Long.getLong("photos.pixels.bytes", DEFAULT_MAX_BYTES);
+
+	private static ConcurrentHashMap<String, FutureTask<Path>> decoding = new ConcurrentHashMap<>();
+	private static Set<Image> mapped = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+	/**
+	 * Returns the image of a blob backed by mapped pixels if the image is large
+	 * enough to be kept off the heap, decoding it into a mapped file if needed
+	 * @param key the key of the blob
+	 * @param blob the file of the encoded image
+	 * @return the mapped image, or null if the image should be decoded normally
+	 * @throws IOException if the mapped file cannot be written
+	 */
+	public static Image open(String key, Path blob) throws IOException {
+		Path pixels = decodedFile(key, blob);
+		return pixels == null ? null : map(pixels);
+	}
+
+	/**
+	 * Tells whether an image is backed by mapped pixels rather than the heap
+	 * @param image the image
+	 * @return true if the image was opened by this store
+	 */
+	public static boolean isMapped(Image image) {
+		return mapped.contains(image);
+	}
+
+	/**
+	 * Returns the decoded file of a blob if the image is large enough to be kept off
+	 * the heap, decoding it if needed
+	 * @param key the key of the blob
+	 * @param blob the file of the encoded image
+	 * @return the decoded file, or null if the image should be decoded normally
+	 * @throws IOException if the decoded file cannot be written
+	 */
+	static Path decodedFile(String key, Path blob) throws IOException {
+		File pixels = fileFor(key);
+		if (pixels.exists()) {
+			FileCache.touch(pixels.toPath());
+			return pixels.toPath();
+		}
+		// the viewer, the prefetcher and the pyramid generator may all ask for the same
+		// photo at once; the first one decodes it and the others wait for its file
+		FutureTask<Path> task = new FutureTask<>(() -> decodeFile(blob, pixels));
+		FutureTask<Path> running = decoding.putIfAbsent(key, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				decoding.remove(key, task);
+			}
+		}
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while decoding " + key, e);
+		}
+	}
+
+	/**
+	 * Deletes the decoded file of a blob that no photo shows any more
+	 * @param key the key of the blob
+	 */
+	public static void delete(String key) {
+		FileCache.delete(fileFor(key).toPath());
+	}
+
+	private static File fileFor(String key) {
+		return new File(PIXEL_DIRECTORY, key + ".argb");
+	}
+
+	/**
+	 * Decodes a blob into its decoded file, through a temporary file of its own
+	 * @param blob the file of the encoded image
+	 * @param pixels the decoded file to be written
+	 * @return the decoded file, or null if the image should be decoded normally
+	 * @throws IOException if the decoded file cannot be written
+	 */
+	private static Path decodeFile(Path blob, File pixels) throws IOException {
+		if (pixels.exists()) {
+			return pixels.toPath(); // finished by a decode that was running when it was first checked
+		}
+		if (Files.size(blob) < MIN_MAPPED_BLOB_BYTES) {
+			return null;
+		}
+		ImageInputStream in = ImageIO.createImageInputStream(blob.toFile());
+		if (in == null) {
+			return null;
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				long pixelCount = (long) reader.getWidth(0) * reader.getHeight(0);
+				ImageTypeSpecifier type = reader.getRawImageType(0);
+				int bands = type == null ? 0 : type.getNumBands();
+				if (pixelCount < MIN_MAPPED_PIXELS || pixelCount > MAX_MAPPED_PIXELS || (bands != 3 && bands != 4)) {
+					return null;
+				}
+				new File(PIXEL_DIRECTORY).mkdirs();
+				Path temp = Files.createTempFile(new File(PIXEL_DIRECTORY).toPath(), pixels.getName(), ".tmp");
+				try {
+					decode(reader, bands == 4, temp);
+					Files.move(temp, pixels.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} finally {
+					Files.deleteIfExists(temp);
+				}
+				FileCache.trim(new File(PIXEL_DIRECTORY), maxBytes, pixels.toPath());
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+		return pixels.toPath();
+	}
+
+	/**
+	 * Decodes an image into a new mapped file as premultiplied ARGB
+	 * @param reader the reader positioned on the image
+	 * @param hasAlpha whether the image has an alpha channel
+	 * @param target the file to be written
+	 * @throws IOException if the image cannot be decoded or written
+	 */
+	private static void decode(ImageReader reader, boolean hasAlpha, Path target) throws IOException {
+		int width = reader.getWidth(0), height = reader.getHeight(0);
+		FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+			header.putInt(MAGIC).putInt(width).putInt(height);
+			IntBuffer pixels = mapPixels(channel, FileChannel.MapMode.READ_WRITE, width, height);
+
+			// the reader writes the samples as they are, straight into the mapping
+			int[] masks = hasAlpha ? new int[] { 0xff0000, 0xff00, 0xff, 0xff000000 } : new int[] { 0xff0000, 0xff00, 0xff };
+			ColorModel model = hasAlpha
+					? new DirectColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), 32, masks[0], masks[1], masks[2], masks[3], false, DataBuffer.TYPE_INT)
+					: new DirectColorModel(24, masks[0], masks[1], masks[2]);
+			WritableRaster raster = Raster.createPackedRaster(new MappedDataBuffer(pixels, width * height), width, height, width, masks, null);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setDestination(new BufferedImage(model, raster, false, null));
+			reader.read(0, param);
+
+			for (int i = 0; i < width * height; i++) {
+				int argb = pixels.get(i);
+				pixels.put(i, hasAlpha ? premultiply(argb) : argb | 0xff000000);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Maps a decoded file and wraps it as an image without copying the pixels
+	 * @param file the decoded file
+	 * @return the image backed by the mapping
+	 * @throws IOException if the file is not a decoded image
+	 */
+	private static Image map(Path file) throws IOException {
+		int[] size = new int[2];
+		IntBuffer pixels = mapDecoded(file, size);
+		Image image = new WritableImage(new PixelBuffer<>(size[0], size[1], pixels, PixelFormat.getIntArgbPreInstance()));
+		mapped.add(image);
+		return image;
+	}
+
+	/**
+	 * Maps the pixels of a decoded file, row by row
+	 * @param file the decoded file
+	 * @param size receives the width and height of the image
+	 * @return the premultiplied ARGB pixels
+	 * @throws IOException if the file is not a decoded image
+	 */
+	static IntBuffer mapDecoded(Path file, int[] size) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a mapped image: " + file);
+			}
+			size[0] = header.getInt();
+			size[1] = header.getInt();
+			// PixelBuffer needs a writable buffer; private mode keeps the file unchanged
+			return mapPixels(channel, FileChannel.MapMode.PRIVATE, size[0], size[1]);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static IntBuffer mapPixels(FileChannel channel, FileChannel.MapMode mode, int width, int height) throws IOException {
+		MappedByteBuffer bytes = channel.map(mode, HEADER_BYTES, 4L * width * height);
+		bytes.order(ByteOrder.nativeOrder());
+		return bytes.asIntBuffer();
+	}
+
+	static int premultiply(int argb) {
+		int alpha = argb >>> 24;
+		if (alpha == 0xff) {
+			return argb;
+		}
+		int red = ((argb >> 16) & 0xff) * alpha / 0xff;
+		int green = ((argb >> 8) & 0xff) * alpha / 0xff;
+		int blue = (argb & 0xff) * alpha / 0xff;
+		return (alpha << 24) | (red << 16) | (green << 8) | blue;
+	}
+
+	/**
+	 * A DataBuffer over mapped pixels, so image readers can decode into the mapping
+	 */
+	private static class MappedDataBuffer extends DataBuffer {
+		private IntBuffer pixels;
+
+		MappedDataBuffer(IntBuffer pixels, int size) {
+			super(TYPE_INT, size);
+			this.pixels = pixels;
+		}
+
+		@Override
+		public int getElem(int bank, int i) {
+			return pixels.get(i);
+		}
+
+		@Override
+		public void setElem(int bank, int i, int val) {
+			pixels.put(i, val);
+		}
+	}
+}
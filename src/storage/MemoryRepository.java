@@ -0,0 +1,59 @@
+package storage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import model.User;
+
+/**
+ * The MemoryRepository keeps the users in memory only, so nothing is read from or
+ * written to disk and the library is gone when the app exits. Useful for trying the
+ * app out, or for running it against a read-only data folder.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class MemoryRepository implements PhotoRepository {
+
+	private LinkedHashMap<String, User> users = new LinkedHashMap<>();
+
+	@Override
+	public synchronized boolean exists() {
+		return !users.isEmpty();
+	}
+
+	@Override
+	public synchronized ArrayList<String> readUsernames() {
+		return new ArrayList<>(users.keySet());
+	}
+
+	@Override
+	public synchronized User readUser(String username) {
+		return users.get(username);
+	}
+
+	@Override
+	public synchronized void addUser(User user) {
+		users.put(user.getUsername(), user);
+	}
+
+	@Override
+	public synchronized void removeUser(String username) {
+		users.remove(username);
+	}
+
+	@Override
+	public void record(User user, Operation op) {
+		// the edit was applied to the user kept here already
+	}
+
+	@Override
+	public synchronized void save(ArrayList<User> users) {
+		for (User user : users) {
+			this.users.putIfAbsent(user.getUsername(), user);
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+}
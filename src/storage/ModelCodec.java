@@ -0,0 +1,410 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.TagIndex;
+import model.User;
+
+/**
+ * The ModelCodec writes a user with all of their albums, photos and tags in a compact
+ * binary format, replacing Java serialization for shards. It writes no class
+ * descriptors: lengths and counts are varints, dates are epoch milliseconds, every
+ * string is written once into a string table and every distinct tag once into a tag
+ * table, and a photo shared by several albums is written once and referenced by index.
+ *
+ * A shard is a Container whose sections are:
+ * <pre>
+ * USER:    checkpoint sequence, username string index
+ * STRINGS: count, then (length, UTF-8 bytes) each
+ * TAGS:    count, then (name, value) string indexes each
+ * PHOTOS:  count, then (name, caption, image key, date, tag count, tag indexes) each
+ * ALBUMS:  count, then (name, photo count, photo indexes) each
+ * SIZES:   count, then (width, height) of the original image of each photo, 0 if it is not known
+ * ORIENTATIONS: count, then the EXIF orientation of each photo, 0 if it is not known
+ * PERCEPTUAL_HASHES: count, then for each photo 0, or 1 and the 8 byte hash
+ * TAG_INDEX: count, then (tag index, photo count, photo indexes) each
+ * </pre>
+ * Every section is written and required. A size, orientation or hash that is not
+ * known yet is written as such, and is worked out from the blob when first asked.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ModelCodec {
+
+	private static final int MAGIC = 0x50485553; // "PHUS"
+	private static final int VERSION = 1;
+
+	private static final int USER_SECTION = 1;
+	private static final int STRINGS_SECTION = 2;
+	private static final int TAGS_SECTION = 3;
+	private static final int PHOTOS_SECTION = 4;
+	private static final int ALBUMS_SECTION = 5;
+	private static final int SIZES_SECTION = 6;
+	private static final int ORIENTATIONS_SECTION = 7;
+	private static final int PERCEPTUAL_HASHES_SECTION = 8;
+	private static final int TAG_INDEX_SECTION = 9;
+
+	/**
+	 * Checks whether a shard was written by this codec
+	 * @param data the start of the shard
+	 * @return true if the shard starts with the magic number of this codec
+	 */
+	public static boolean isEncoded(ByteBuffer data) {
+		return Container.isContainer(data, MAGIC);
+	}
+
+	/**
+	 * Encodes a user together with the checkpoint sequence of their shard
+	 * @param user the user to be encoded
+	 * @param sequence the sequence number of the last journaled operation
+	 * @return the encoded user
+	 */
+	public static byte[] encode(User user, long sequence) {
+		HashMap<String, Integer> strings = new HashMap<>();
+		ArrayList<String> stringTable = new ArrayList<>();
+		HashMap<Tag, Integer> tags = new HashMap<>();
+		ArrayList<Tag> tagTable = new ArrayList<>();
+		IdentityHashMap<Photo, Integer> photos = new IdentityHashMap<>();
+		ArrayList<Photo> photoTable = new ArrayList<>();
+
+		intern(user.getUsername(), strings, stringTable);
+		for (Album album : user.getAlbums()) {
+			intern(album.getName(), strings, stringTable);
+			for (Photo photo : album.getPhotos()) {
+				if (photos.containsKey(photo)) {
+					continue;
+				}
+				photos.put(photo, photoTable.size());
+				photoTable.add(photo);
+				intern(photo.getName(), strings, stringTable);
+				intern(photo.getCaption(), strings, stringTable);
+				intern(photo.getImageKey(), strings, stringTable);
+				for (Tag tag : photo.getTags()) {
+					if (!tags.containsKey(tag)) {
+						tags.put(tag, tagTable.size());
+						tagTable.add(tag);
+						intern(tag.getName(), strings, stringTable);
+						intern(tag.getValue(), strings, stringTable);
+					}
+				}
+			}
+		}
+
+		Output userSection = new Output();
+		userSection.writeVarLong(sequence);
+		userSection.writeVarLong(strings.get(user.getUsername()));
+
+		Output stringSection = new Output();
+		stringSection.writeVarLong(stringTable.size());
+		for (String string : stringTable) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			stringSection.writeVarLong(bytes.length);
+			stringSection.write(bytes);
+		}
+
+		Output tagSection = new Output();
+		tagSection.writeVarLong(tagTable.size());
+		for (Tag tag : tagTable) {
+			tagSection.writeVarLong(strings.get(tag.getName()));
+			tagSection.writeVarLong(strings.get(tag.getValue()));
+		}
+
+		Output photoSection = new Output();
+		photoSection.writeVarLong(photoTable.size());
+		for (Photo photo : photoTable) {
+			photoSection.writeVarLong(strings.get(photo.getName()));
+			photoSection.writeVarLong(strings.get(photo.getCaption()));
+			photoSection.writeVarLong(strings.get(photo.getImageKey()));
+			photoSection.writeVarLong(photo.getDate().getTimeInMillis());
+			photoSection.writeVarLong(photo.getTags().size());
+			for (Tag tag : photo.getTags()) {
+				photoSection.writeVarLong(tags.get(tag));
+			}
+		}
+
+		Output sizeSection = new Output();
+		sizeSection.writeVarLong(photoTable.size());
+		for (Photo photo : photoTable) {
+			// unknown sizes stay unknown, a checkpoint does not read image headers
+			sizeSection.writeVarLong(photo.hasSize() ? photo.getWidth() : 0);
+			sizeSection.writeVarLong(photo.hasSize() ? photo.getHeight() : 0);
+		}
+
+		Output orientationSection = new Output();
+		orientationSection.writeVarLong(photoTable.size());
+		for (Photo photo : photoTable) {
+			orientationSection.writeVarLong(photo.hasOrientation() ? photo.getOrientation() : 0);
+		}
+
+		Output hashSection = new Output();
+		hashSection.writeVarLong(photoTable.size());
+		for (Photo photo : photoTable) {
+			if (photo.hasPerceptualHash()) {
+				hashSection.writeVarLong(1);
+				hashSection.write(ByteBuffer.allocate(8).putLong(photo.getPerceptualHash()).array());
+			} else {
+				hashSection.writeVarLong(0); // not hashed yet, saving never waits for it
+			}
+		}
+
+		// the index is a cache, so anything in it that no album reaches is left out
+		// rather than allowed to fail the checkpoint
+		ArrayList<Integer> tagIndexes = new ArrayList<>();
+		ArrayList<ArrayList<Integer>> postingIndexes = new ArrayList<>();
+		for (Map.Entry<Tag, Set<Photo>> posting : TagIndex.of(user).getPostings().entrySet()) {
+			Integer tagIndex = tags.get(posting.getKey());
+			if (tagIndex == null) {
+				continue;
+			}
+			ArrayList<Integer> photoIndexes = new ArrayList<>(posting.getValue().size());
+			for (Photo photo : posting.getValue()) {
+				Integer photoIndex = photos.get(photo);
+				if (photoIndex != null) {
+					photoIndexes.add(photoIndex);
+				}
+			}
+			if (!photoIndexes.isEmpty()) {
+				tagIndexes.add(tagIndex);
+				postingIndexes.add(photoIndexes);
+			}
+		}
+		Output tagIndexSection = new Output();
+		tagIndexSection.writeVarLong(tagIndexes.size());
+		for (int i = 0; i < tagIndexes.size(); i++) {
+			tagIndexSection.writeVarLong(tagIndexes.get(i));
+			tagIndexSection.writeVarLong(postingIndexes.get(i).size());
+			for (int photoIndex : postingIndexes.get(i)) {
+				tagIndexSection.writeVarLong(photoIndex);
+			}
+		}
+
+		Output albumSection = new Output();
+		albumSection.writeVarLong(user.getAlbums().size());
+		for (Album album : user.getAlbums()) {
+			albumSection.writeVarLong(strings.get(album.getName()));
+			albumSection.writeVarLong(album.getPhotos().size());
+			for (Photo photo : album.getPhotos()) {
+				albumSection.writeVarLong(photos.get(photo));
+			}
+		}
+
+		return new Container.Writer(MAGIC, VERSION)
+				.addSection(USER_SECTION, userSection.toByteArray())
+				.addSection(STRINGS_SECTION, stringSection.toByteArray())
+				.addSection(TAGS_SECTION, tagSection.toByteArray())
+				.addSection(PHOTOS_SECTION, photoSection.toByteArray())
+				.addSection(ALBUMS_SECTION, albumSection.toByteArray())
+				.addSection(SIZES_SECTION, sizeSection.toByteArray())
+				.addSection(ORIENTATIONS_SECTION, orientationSection.toByteArray())
+				.addSection(PERCEPTUAL_HASHES_SECTION, hashSection.toByteArray())
+				.addSection(TAG_INDEX_SECTION, tagIndexSection.toByteArray())
+				.toByteArray();
+	}
+
+	/**
+	 * Decodes a user written by encode
+	 * @param data the encoded user
+	 * @return the user and the checkpoint sequence of their shard
+	 * @throws IOException if the data is not a user written by this codec
+	 */
+	public static Checkpoint decode(ByteBuffer data) throws IOException {
+		try {
+			Container container = Container.read(data, MAGIC, VERSION);
+			String[] strings = readStrings(container.requireSection(STRINGS_SECTION));
+			Tag[] tags = readTags(container.requireSection(TAGS_SECTION), strings);
+			ByteBuffer userSection = container.requireSection(USER_SECTION);
+			long sequence = readVarLong(userSection);
+			User user = new User(strings[readCount(userSection)]);
+			Photo[] photos = readPhotos(container.requireSection(PHOTOS_SECTION), strings, tags);
+			readSizes(container.requireSection(SIZES_SECTION), photos);
+			readOrientations(container.requireSection(ORIENTATIONS_SECTION), photos);
+			readPerceptualHashes(container.requireSection(PERCEPTUAL_HASHES_SECTION), photos);
+			IdentityHashMap<Photo, Integer> albumCounts = readAlbums(container.requireSection(ALBUMS_SECTION), strings, photos, user);
+			readTagIndex(container.requireSection(TAG_INDEX_SECTION), tags, photos, albumCounts, user);
+			return new Checkpoint(user, sequence);
+		} catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Truncated or corrupt user data", e);
+		}
+	}
+
+	private static String[] readStrings(ByteBuffer data) throws IOException {
+		String[] strings = new String[readCount(data)];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[readCount(data)];
+			data.get(bytes);
+			strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return strings;
+	}
+
+	private static Tag[] readTags(ByteBuffer data, String[] strings) throws IOException {
+		Tag[] tags = new Tag[readCount(data)];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = new Tag(strings[readCount(data)], strings[readCount(data)]);
+		}
+		return tags;
+	}
+
+	private static Photo[] readPhotos(ByteBuffer data, String[] strings, Tag[] tags) throws IOException {
+		Photo[] photos = new Photo[readCount(data)];
+		for (int i = 0; i < photos.length; i++) {
+			String name = strings[readCount(data)];
+			String caption = strings[readCount(data)];
+			String imageKey = strings[readCount(data)];
+			Calendar date = Calendar.getInstance();
+			date.setTimeInMillis(readVarLong(data));
+			int tagCount = readCount(data);
+			ArrayList<Tag> photoTags = new ArrayList<>(tagCount);
+			for (int t = 0; t < tagCount; t++) {
+				photoTags.add(tags[readCount(data)]);
+			}
+			photos[i] = new Photo(name, imageKey, caption, date, photoTags);
+		}
+		return photos;
+	}
+
+	private static void readSizes(ByteBuffer data, Photo[] photos) throws IOException {
+		int count = Math.min(readCount(data), photos.length);
+		for (int i = 0; i < count; i++) {
+			photos[i].setSize(readCount(data), readCount(data));
+		}
+	}
+
+	private static void readOrientations(ByteBuffer data, Photo[] photos) throws IOException {
+		int count = Math.min(readCount(data), photos.length);
+		for (int i = 0; i < count; i++) {
+			photos[i].setOrientation(readCount(data));
+		}
+	}
+
+	private static void readPerceptualHashes(ByteBuffer data, Photo[] photos) throws IOException {
+		int count = Math.min(readCount(data), photos.length);
+		for (int i = 0; i < count; i++) {
+			if (readCount(data) != 0) {
+				photos[i].setPerceptualHash(data.getLong());
+			}
+		}
+	}
+
+	private static void readTagIndex(ByteBuffer data, Tag[] tags, Photo[] photos, IdentityHashMap<Photo, Integer> albumCounts, User user) throws IOException {
+		LinkedHashMap<Tag, ArrayList<Photo>> postings = new LinkedHashMap<>();
+		int tagCount = readCount(data);
+		for (int i = 0; i < tagCount; i++) {
+			Tag tag = tags[readCount(data)];
+			int photoCount = readCount(data);
+			ArrayList<Photo> tagged = new ArrayList<>(photoCount);
+			for (int p = 0; p < photoCount; p++) {
+				tagged.add(photos[readCount(data)]);
+			}
+			postings.put(tag, tagged);
+		}
+		TagIndex.restore(user, postings, albumCounts);
+	}
+
+	/**
+	 * Reads the albums of a user, counting the albums each photo is in for the tag index
+	 */
+	private static IdentityHashMap<Photo, Integer> readAlbums(ByteBuffer data, String[] strings, Photo[] photos, User user) throws IOException {
+		IdentityHashMap<Photo, Integer> albumCounts = new IdentityHashMap<>();
+		int albumCount = readCount(data);
+		for (int i = 0; i < albumCount; i++) {
+			Album album = new Album(strings[readCount(data)]);
+			int photoCount = readCount(data);
+			album.getPhotos().ensureCapacity(photoCount);
+			for (int p = 0; p < photoCount; p++) {
+				Photo photo = photos[readCount(data)];
+				album.getPhotos().add(photo);
+				albumCounts.merge(photo, 1, Integer::sum);
+			}
+			user.getAlbums().add(album);
+		}
+		return albumCounts;
+	}
+
+	private static void intern(String string, HashMap<String, Integer> strings, ArrayList<String> table) {
+		if (!strings.containsKey(string)) {
+			strings.put(string, table.size());
+			table.add(string);
+		}
+	}
+
+	private static long readVarLong(ByteBuffer data) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = data.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static int readCount(ByteBuffer data) throws IOException {
+		long value = readVarLong(data);
+		if (value < 0 || value > Integer.MAX_VALUE) {
+			throw new IOException("Malformed count " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * A user decoded from a shard, with the sequence number the shard was written at
+	 */
+	public static class Checkpoint {
+		public final User user;
+		public final long sequence;
+
+		Checkpoint(User user, long sequence) {
+			this.user = user;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * A growable byte array with varint support
+	 */
+	private static class Output {
+		private byte[] bytes = new byte[4096];
+		private int size;
+
+		void writeVarLong(long value) {
+			ensure(10);
+			while ((value & ~0x7fL) != 0) {
+				bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		void write(byte[] data) {
+			ensure(data.length);
+			System.arraycopy(data, 0, bytes, size, data.length);
+			size += data.length;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+
+		private void ensure(int extra) {
+			if (size + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+			}
+		}
+	}
+}
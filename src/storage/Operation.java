@@ -0,0 +1,376 @@
+package storage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.TagIndex;
+import model.User;
+
+/**
+ * An Operation is a single mutation of the user data, small enough to be appended
+ * to the journal instead of rewriting the whole library. Each subclass knows how to
+ * re-apply itself to a freshly loaded list of users during replay.
+ *
+ * Photos are addressed by album name and index, so replaying the operations in the
+ * order they were recorded reproduces the same object graph, including photos shared
+ * between albums by a copy. Replaying an operation also updates the tag index of the
+ * user, so an index restored from a checkpoint stays current, and the duplicate index,
+ * which skips operations it already counted when they were made.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public abstract class Operation implements Serializable {
+
+	private static final long serialVersionUID = 4310907784135021542L;
+	private long sequence;
+	protected String username;
+
+	/**
+	 * Constructor
+	 * @param username the user this operation applies to
+	 */
+	protected Operation(String username) {
+		this.username = username;
+	}
+
+	/**
+	 * Returns the journal sequence number of this operation
+	 * @return the sequence number, 0 if not yet journaled
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Sets the journal sequence number of this operation
+	 * @param sequence the sequence number assigned by the journal
+	 */
+	void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Returns the name of the user this operation applies to
+	 * @return the username
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Re-applies this operation to the given users
+	 * @param users the list of all users
+	 */
+	public void apply(ArrayList<User> users) {
+		apply(findUser(users, username));
+	}
+
+	/**
+	 * Re-applies this operation to the user it was recorded for
+	 * @param user the user owning the data
+	 */
+	protected abstract void apply(User user);
+
+	/**
+	 * Finds a user by name
+	 * @param users the list of all users
+	 * @param username the name to look for
+	 * @return the user
+	 * @throws IllegalStateException if no such user exists
+	 */
+	protected static User findUser(ArrayList<User> users, String username) {
+		for (User user : users) {
+			if (user.getUsername().equals(username)) {
+				return user;
+			}
+		}
+		throw new IllegalStateException("No user " + username);
+	}
+
+	/**
+	 * Finds an album of a user by name
+	 * @param user the owner of the album
+	 * @param name the album name
+	 * @return the album
+	 * @throws IllegalStateException if no such album exists
+	 */
+	protected static Album findAlbum(User user, String name) {
+		for (Album album : user.getAlbums()) {
+			if (album.getName().equals(name)) {
+				return album;
+			}
+		}
+		throw new IllegalStateException("No album " + name + " for user " + user.getUsername());
+	}
+
+	/**
+	 * Adds a new user
+	 */
+	public static class AddUser extends Operation {
+		private static final long serialVersionUID = -6243541370936046418L;
+
+		public AddUser(String username) {
+			super(username);
+		}
+
+		@Override
+		public void apply(ArrayList<User> users) {
+			users.add(new User(username));
+		}
+
+		@Override
+		protected void apply(User user) {
+		}
+	}
+
+	/**
+	 * Removes a user and all of their albums
+	 */
+	public static class RemoveUser extends Operation {
+		private static final long serialVersionUID = 2796036713325938312L;
+
+		public RemoveUser(String username) {
+			super(username);
+		}
+
+		@Override
+		public void apply(ArrayList<User> users) {
+			users.remove(findUser(users, username));
+		}
+
+		@Override
+		protected void apply(User user) {
+		}
+	}
+
+	/**
+	 * Adds an empty album
+	 */
+	public static class AddAlbum extends Operation {
+		private static final long serialVersionUID = 1637330291431541227L;
+		protected String album;
+
+		public AddAlbum(String username, String album) {
+			super(username);
+			this.album = album;
+		}
+
+		@Override
+		protected void apply(User user) {
+			user.getAlbums().add(new Album(album));
+		}
+	}
+
+	/**
+	 * Renames an album
+	 */
+	public static class RenameAlbum extends Operation {
+		private static final long serialVersionUID = -8839546124389431427L;
+		protected String album, newName;
+
+		public RenameAlbum(String username, String album, String newName) {
+			super(username);
+			this.album = album;
+			this.newName = newName;
+		}
+
+		@Override
+		protected void apply(User user) {
+			findAlbum(user, album).setName(newName);
+		}
+	}
+
+	/**
+	 * Deletes an album
+	 */
+	public static class DeleteAlbum extends Operation {
+		private static final long serialVersionUID = 5178153431260411196L;
+		protected String album;
+
+		public DeleteAlbum(String username, String album) {
+			super(username);
+			this.album = album;
+		}
+
+		@Override
+		protected void apply(User user) {
+			Album deleted = findAlbum(user, album);
+			user.getAlbums().remove(deleted);
+			TagIndex.photosRemoved(user, deleted.getPhotos());
+			DuplicateIndex.photosRemoved(this, deleted.getPhotos());
+		}
+	}
+
+	/**
+	 * Adds a newly imported photo to the end of an album
+	 */
+	public static class AddPhoto extends Operation {
+		private static final long serialVersionUID = -3497170384580925052L;
+		protected String album;
+		protected Photo photo;
+
+		public AddPhoto(String username, String album, Photo photo) {
+			super(username);
+			this.album = album;
+			this.photo = photo;
+		}
+
+		@Override
+		protected void apply(User user) {
+			findAlbum(user, album).getPhotos().add(photo);
+			TagIndex.photoAdded(user, photo);
+			DuplicateIndex.photoAdded(this, photo);
+		}
+	}
+
+	/**
+	 * Adds a batch of newly imported photos to the end of an album, as one record
+	 */
+	public static class AddPhotos extends AddPhoto {
+		private static final long serialVersionUID = 7061932448714069215L;
+		protected ArrayList<Photo> photos;
+
+		public AddPhotos(String username, String album, List<Photo> photos) {
+			super(username, album, null);
+			this.photos = new ArrayList<>(photos);
+		}
+
+		@Override
+		protected void apply(User user) {
+			findAlbum(user, album).getPhotos().addAll(photos);
+			TagIndex.photosAdded(user, photos);
+			DuplicateIndex.photosAdded(this, photos);
+		}
+	}
+
+	/**
+	 * Removes the photo at an index of an album
+	 */
+	public static class RemovePhoto extends Operation {
+		private static final long serialVersionUID = 8190934546185329416L;
+		protected String album;
+		protected int index;
+
+		public RemovePhoto(String username, String album, int index) {
+			super(username);
+			this.album = album;
+			this.index = index;
+		}
+
+		@Override
+		protected void apply(User user) {
+			Photo removed = findAlbum(user, album).getPhotos().remove(index);
+			TagIndex.photoRemoved(user, removed);
+			DuplicateIndex.photoRemoved(this, removed);
+		}
+	}
+
+	/**
+	 * Copies the photo at an index of an album to the end of another album.
+	 * Both albums share the same photo afterwards.
+	 */
+	public static class CopyPhoto extends Operation {
+		private static final long serialVersionUID = -1201957416478318453L;
+		protected String from, to;
+		protected int index;
+
+		public CopyPhoto(String username, String from, int index, String to) {
+			super(username);
+			this.from = from;
+			this.index = index;
+			this.to = to;
+		}
+
+		@Override
+		protected void apply(User user) {
+			Photo photo = findAlbum(user, from).getPhotos().get(index);
+			findAlbum(user, to).getPhotos().add(photo);
+			TagIndex.photoAdded(user, photo);
+			DuplicateIndex.photoAdded(this, photo);
+		}
+	}
+
+	/**
+	 * Moves the photo at an index of an album to the end of another album
+	 */
+	public static class MovePhoto extends CopyPhoto {
+		private static final long serialVersionUID = 6300372826416858934L;
+
+		public MovePhoto(String username, String from, int index, String to) {
+			super(username, from, index, to);
+		}
+
+		@Override
+		protected void apply(User user) {
+			Photo photo = findAlbum(user, from).getPhotos().remove(index);
+			findAlbum(user, to).getPhotos().add(photo); // still in as many albums, so the tag index is unchanged
+		}
+	}
+
+	/**
+	 * Sets the caption of a photo
+	 */
+	public static class SetCaption extends Operation {
+		private static final long serialVersionUID = 2524717212806406785L;
+		protected String album, caption;
+		protected int index;
+
+		public SetCaption(String username, String album, int index, String caption) {
+			super(username);
+			this.album = album;
+			this.index = index;
+			this.caption = caption;
+		}
+
+		@Override
+		protected void apply(User user) {
+			findAlbum(user, album).getPhotos().get(index).setCaption(caption);
+		}
+	}
+
+	/**
+	 * Adds a tag to a photo
+	 */
+	public static class AddTag extends Operation {
+		private static final long serialVersionUID = -7711843504690167385L;
+		protected String album;
+		protected int index;
+		protected Tag tag;
+
+		public AddTag(String username, String album, int index, Tag tag) {
+			super(username);
+			this.album = album;
+			this.index = index;
+			this.tag = tag;
+		}
+
+		@Override
+		protected void apply(User user) {
+			Photo photo = findAlbum(user, album).getPhotos().get(index);
+			photo.getTags().add(tag);
+			TagIndex.tagAdded(user, photo, tag);
+		}
+	}
+
+	/**
+	 * Removes a tag from a photo
+	 */
+	public static class RemoveTag extends AddTag {
+		private static final long serialVersionUID = 3893126620815432127L;
+
+		public RemoveTag(String username, String album, int index, Tag tag) {
+			super(username, album, index, tag);
+		}
+
+		@Override
+		protected void apply(User user) {
+			Photo photo = findAlbum(user, album).getPhotos().get(index);
+			photo.getTags().remove(tag);
+			TagIndex.tagRemoved(user, photo, tag);
+		}
+	}
+}
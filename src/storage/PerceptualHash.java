@@ -0,0 +1,128 @@
+package storage;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import model.Photo;
+
+/**
+ * PerceptualHash computes a 64 bit difference hash (dHash) of an image, which stays
+ * the same or nearly the same when the image is resized, re-encoded or slightly
+ * edited, so near duplicates are photos whose hashes differ in only a few bits.
+ *
+ * The image is shrunk to 9 by 8 pixels of brightness, averaging whole blocks, and
+ * each bit records whether a pixel is brighter than its right neighbour. The hash is
+ * made from the small thumbnail of the photo, so it never decodes the full image.
+ *
+ * Hashes computed in the background are queued once per photo, and an image whose
+ * thumbnail cannot be read is not tried again until the app is restarted.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class PerceptualHash {
+
+	public static final int BITS = 64;
+	private static final int COLUMNS = 9, ROWS = 8;
+
+	private static ExecutorService hasher = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "perceptual-hasher");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+	private static Set<Photo> queued = Collections.newSetFromMap(new IdentityHashMap<>());
+	private static HashSet<String> failed = new HashSet<>(); // keys of images that could not be hashed
+
+	/**
+	 * Computes the hash of a blob
+	 * @param key the key of the blob
+	 * @param orientation the EXIF orientation of the photo
+	 * @return the hash
+	 * @throws IOException if the blob is not a readable image
+	 */
+	public static long of(String key, int orientation) throws IOException {
+		return of(ThumbnailStore.readThumbnail(key, ThumbnailStore.SMALL, orientation));
+	}
+
+	/**
+	 * Computes the hash of an image
+	 * @param image the image, ideally already small
+	 * @return the hash
+	 */
+	public static long of(BufferedImage image) {
+		int width = image.getWidth(), height = image.getHeight();
+		int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+		double[] brightness = new double[COLUMNS * ROWS];
+		for (int row = 0; row < ROWS; row++) {
+			int top = row * height / ROWS, bottom = Math.max(top + 1, (row + 1) * height / ROWS);
+			for (int column = 0; column < COLUMNS; column++) {
+				int left = column * width / COLUMNS, right = Math.max(left + 1, (column + 1) * width / COLUMNS);
+				double sum = 0;
+				for (int y = top; y < bottom; y++) {
+					for (int x = left; x < right; x++) {
+						int pixel = argb[y * width + x];
+						sum += 0.299 * ((pixel >> 16) & 0xff) + 0.587 * ((pixel >> 8) & 0xff) + 0.114 * (pixel & 0xff);
+					}
+				}
+				brightness[row * COLUMNS + column] = sum / ((bottom - top) * (right - left));
+			}
+		}
+		long hash = 0;
+		for (int row = 0; row < ROWS; row++) {
+			for (int column = 0; column < COLUMNS - 1; column++) {
+				hash <<= 1;
+				if (brightness[row * COLUMNS + column] > brightness[row * COLUMNS + column + 1]) {
+					hash |= 1;
+				}
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Computes the hash of a photo on a background thread, unless it is already
+	 * queued or its image could not be hashed before
+	 * @param photo the photo
+	 */
+	public static void computeLater(Photo photo) {
+		synchronized (PerceptualHash.class) {
+			if (failed.contains(photo.getImageKey()) || !queued.add(photo)) {
+				return;
+			}
+		}
+		hasher.execute(() -> {
+			photo.getPerceptualHash();
+			synchronized (PerceptualHash.class) {
+				queued.remove(photo);
+				if (!photo.hasPerceptualHash()) {
+					failed.add(photo.getImageKey());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Tells whether the image of a photo could not be hashed in the background
+	 * @param photo the photo
+	 * @return true if its thumbnail could not be read
+	 */
+	public static synchronized boolean hasFailed(Photo photo) {
+		return failed.contains(photo.getImageKey());
+	}
+
+	/**
+	 * Counts the bits two hashes differ in
+	 * @param a a hash
+	 * @param b another hash
+	 * @return the Hamming distance, 0 for images that look the same, up to 64
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+}
@@ -0,0 +1,195 @@
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PersistenceService writes the user data on a background thread so that saving
+ * never blocks the user interface. Callers hand over the bytes to be written and
+ * return at once; writes arriving within a short delay of each other are coalesced,
+ * so a burst of edits costs one write per file.
+ *
+ * Files are replaced atomically through a temporary file and a rename. Pending writes
+ * are applied in three phases, replacements first, then deletions, then appends, so a
+ * journal is only truncated once the checkpoint that covers it is on disk.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class PersistenceService {
+
+	private static final long DEBOUNCE_MILLIS = 250;
+	private static final long MAX_DELAY_MILLIS = 2000;
+
+	private static LinkedHashMap<Path, PendingFile> pending = new LinkedHashMap<>();
+	private static ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "persistence-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static ScheduledFuture<?> scheduledFlush;
+	private static long firstPendingMillis;
+	private static final Object flushLock = new Object();
+
+	/**
+	 * Replaces the contents of a file
+	 * @param file the file to be written
+	 * @param contents the new contents
+	 */
+	public static synchronized void replace(Path file, byte[] contents) {
+		PendingFile write = pendingFor(file);
+		write.contents = contents;
+		write.delete = false;
+		write.appends.clear();
+		schedule();
+	}
+
+	/**
+	 * Appends bytes to the end of a file
+	 * @param file the file to be appended to
+	 * @param bytes the bytes to be appended
+	 */
+	public static synchronized void append(Path file, byte[] bytes) {
+		pendingFor(file).appends.add(bytes);
+		schedule();
+	}
+
+	/**
+	 * Deletes a file, dropping anything still waiting to be appended to it
+	 * @param file the file to be deleted
+	 */
+	public static synchronized void delete(Path file) {
+		PendingFile write = pendingFor(file);
+		write.contents = null;
+		write.delete = true;
+		write.appends.clear();
+		schedule();
+	}
+
+	/**
+	 * Writes everything that is pending and waits until it is on disk
+	 */
+	public static void flush() {
+		synchronized (flushLock) {
+			LinkedHashMap<Path, PendingFile> writes;
+			synchronized (PersistenceService.class) {
+				writes = pending;
+				pending = new LinkedHashMap<>();
+				if (scheduledFlush != null) {
+					scheduledFlush.cancel(false);
+					scheduledFlush = null;
+				}
+			}
+			write(writes);
+		}
+	}
+
+	/**
+	 * Schedules a flush after the debounce delay, postponing an already scheduled
+	 * one unless the oldest pending write has waited for too long
+	 */
+	private static void schedule() {
+		long now = System.currentTimeMillis();
+		if (scheduledFlush == null) {
+			firstPendingMillis = now;
+		} else if (now - firstPendingMillis < MAX_DELAY_MILLIS) {
+			scheduledFlush.cancel(false);
+		} else {
+			return;
+		}
+		scheduledFlush = writer.schedule(PersistenceService::flush, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static PendingFile pendingFor(Path file) {
+		PendingFile write = pending.get(file);
+		if (write == null) {
+			write = new PendingFile();
+			pending.put(file, write);
+		}
+		return write;
+	}
+
+	private static void write(LinkedHashMap<Path, PendingFile> writes) {
+		for (Map.Entry<Path, PendingFile> write : writes.entrySet()) {
+			if (write.getValue().contents != null) {
+				try {
+					replaceAtomically(write.getKey(), write.getValue().contents);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		for (Map.Entry<Path, PendingFile> write : writes.entrySet()) {
+			if (write.getValue().delete) {
+				try {
+					Files.deleteIfExists(write.getKey());
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		for (Map.Entry<Path, PendingFile> write : writes.entrySet()) {
+			if (!write.getValue().appends.isEmpty()) {
+				try {
+					appendAll(write.getKey(), write.getValue().appends);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private static void replaceAtomically(Path file, byte[] contents) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(contents);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void appendAll(Path file, ArrayList<byte[]> appends) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+				StandardOpenOption.WRITE);
+		try {
+			for (byte[] bytes : appends) {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * The writes waiting for one file
+	 */
+	private static class PendingFile {
+		byte[] contents;
+		boolean delete;
+		ArrayList<byte[]> appends = new ArrayList<>();
+	}
+}
@@ -0,0 +1,71 @@
+package storage;
+
+import java.util.ArrayList;
+
+import model.User;
+
+/**
+ * A PhotoRepository stores the users of the app with their albums, photos and tags.
+ * Controllers edit the users in memory and report every edit to the repository as an
+ * Operation, so a backend can save just the part of the library that changed.
+ *
+ * The encoded images themselves are kept in the BlobStore by every backend, and photos
+ * only refer to them by key.
+ *
+ * Failures are printed and otherwise ignored, like everywhere else in the app, so a
+ * broken save never takes the user interface down with it.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public interface PhotoRepository {
+
+	/**
+	 * Checks whether the library has been created
+	 * @return true if the library exists, false if it still has to be created
+	 */
+	boolean exists();
+
+	/**
+	 * Reads the names of all users
+	 * @return the list of usernames
+	 */
+	ArrayList<String> readUsernames();
+
+	/**
+	 * Reads one user with all of their albums, photos and tags
+	 * @param username the name of the user
+	 * @return the user, or null if there is no such user or it cannot be read
+	 */
+	User readUser(String username);
+
+	/**
+	 * Adds a new user, replacing any user of the same name
+	 * @param user the new user
+	 */
+	void addUser(User user);
+
+	/**
+	 * Removes a user and all of their albums
+	 * @param username the name of the user
+	 */
+	void removeUser(String username);
+
+	/**
+	 * Saves an edit that was just applied to a user in memory
+	 * @param user the user, already containing the edit
+	 * @param op the edit to be saved
+	 */
+	void record(User user, Operation op);
+
+	/**
+	 * Saves the given users: users that are not in the repository yet are added, and
+	 * users with edits that are not fully saved yet are written out
+	 * @param users the users to be saved
+	 */
+	void save(ArrayList<User> users);
+
+	/**
+	 * Waits until everything saved so far is on disk
+	 */
+	void flush();
+}
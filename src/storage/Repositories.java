@@ -0,0 +1,39 @@
+package storage;
+
+/**
+ * Repositories picks the PhotoRepository the app stores its library in. The backend is
+ * chosen with the system property photos.repository:
+ * <ul>
+ * <li>serialized, the default: per-user shard files under data/users</li>
+ * <li>sql: an embedded database reached through JDBC, at the URL given by the system
+ * property photos.jdbc.url (jdbc:h2:./data/photos by default); the driver of that
+ * database has to be on the class path</li>
+ * <li>memory: nothing is saved</li>
+ * </ul>
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class Repositories {
+
+	private static PhotoRepository repository;
+
+	/**
+	 * Returns the repository of the app, creating it on first use
+	 * @return the repository
+	 */
+	public static synchronized PhotoRepository get() {
+		if (repository == null) {
+			switch (System.getProperty("photos.repository", "serialized")) {
+			case "sql":
+				repository = new SqlRepository(System.getProperty("photos.jdbc.url", SqlRepository.DEFAULT_URL));
+				break;
+			case "memory":
+				repository = new MemoryRepository();
+				break;
+			default:
+				repository = new SerializedRepository();
+			}
+		}
+		return repository;
+	}
+}
@@ -0,0 +1,123 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import model.User;
+
+/**
+ * The SerializedRepository keeps every user in a shard file of their own with a
+ * journal of the edits since the shard was written, see ShardStore. A data.dat file
+ * from before the shards is migrated the first time the library is opened.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class SerializedRepository implements PhotoRepository {
+
+	private static final String LEGACY_DATA_PATH = "data/data.dat";
+	private static final String LEGACY_JOURNAL_PATH = "data/journal.dat";
+
+	/**
+	 * Checks whether the library exists, moving the data of a single data.dat file
+	 * into per-user shards first if it has not been done yet. The file is converted
+	 * one user at a time, see LegacyMigration.
+	 * @return true if the library exists, false if it still has to be created
+	 */
+	@Override
+	public boolean exists() {
+		if (ShardStore.exists()) {
+			return true;
+		}
+		File legacyData = new File(LEGACY_DATA_PATH);
+		if (!legacyData.isFile() || legacyData.length() == 0) {
+			return false;
+		}
+		try {
+			LegacyMigration.migrate(legacyData, new File(LEGACY_JOURNAL_PATH));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return ShardStore.exists();
+	}
+
+	@Override
+	public ArrayList<String> readUsernames() {
+		try {
+			return ShardStore.readIndex();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new ArrayList<>();
+		}
+	}
+
+	@Override
+	public User readUser(String username) {
+		try {
+			return ShardStore.readUser(username);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	@Override
+	public void addUser(User user) {
+		try {
+			ShardStore.addUser(user);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void removeUser(String username) {
+		try {
+			ShardStore.removeUser(username);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Appends an edit to the journal of the user's shard
+	 * @param user the user, already containing the edit
+	 * @param op the edit to be saved
+	 */
+	@Override
+	public void record(User user, Operation op) {
+		try {
+			ShardStore.record(user, op);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Saves the given users to their shards. Users that are not in the index yet are
+	 * added to it, and only users with journaled edits have their shard rewritten,
+	 * which compacts their journal.
+	 * @param users the users to be saved
+	 */
+	@Override
+	public void save(ArrayList<User> users) {
+		try {
+			ArrayList<String> index = ShardStore.readIndex();
+			for (User user : users) {
+				if (!index.contains(user.getUsername())) {
+					ShardStore.addUser(user);
+				} else if (ShardStore.isDirty(user.getUsername())) {
+					ShardStore.writeUser(user);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void flush() {
+		PersistenceService.flush();
+	}
+}
@@ -0,0 +1,294 @@
+package storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import model.User;
+
+/**
+ * The ShardStore keeps every user in a shard of their own under data/users, next to
+ * a small index listing the usernames. Logging in reads only the index and the shard
+ * of the user logging in, and saving rewrites only the shard of the user that changed.
+ *
+ * A shard is a checkpoint of one user, written by the ModelCodec together with the
+ * sequence number of the last operation it contains, and edits since the checkpoint
+ * are kept in the journal of that shard. Shards written with Java serialization are
+ * still read, and are rewritten in the new format at the next checkpoint.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ShardStore {
+
+	private static final String SHARD_DIRECTORY = "data/users";
+	private static final String INDEX_PATH = "data/users/index.dat";
+	private static final int CHECKPOINT_INTERVAL = 100;
+	private static HashMap<String, Journal> journals = new HashMap<>();
+	private static ArrayList<String> index; // cached, as it may not be written yet
+
+	/**
+	 * Checks whether the sharded user data has been created
+	 * @return true if the user index exists, false otherwise
+	 */
+	public static synchronized boolean exists() {
+		return index != null || new File(INDEX_PATH).exists();
+	}
+
+	/**
+	 * Reads the names of all users from the index
+	 * @return the list of usernames
+	 * @throws IOException if the index cannot be read
+	 */
+	@SuppressWarnings("unchecked")
+	public static synchronized ArrayList<String> readIndex() throws IOException {
+		if (index == null) {
+			if (!new File(INDEX_PATH).exists()) {
+				return new ArrayList<>();
+			}
+			ObjectInputStream objIn = new ObjectInputStream(new FileInputStream(INDEX_PATH));
+			try {
+				index = (ArrayList<String>) objIn.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			} finally {
+				objIn.close();
+			}
+		}
+		return new ArrayList<>(index);
+	}
+
+	/**
+	 * Reads one user from their shard and replays their journal
+	 * @param username the name of the user
+	 * @return the user, or null if there is no such user
+	 * @throws IOException if the shard cannot be read
+	 */
+	public static synchronized User readUser(String username) throws IOException {
+		if (!readIndex().contains(username)) {
+			return null;
+		}
+		return readShardOf(username);
+	}
+
+	/**
+	 * Reads one user from their shard and replays their journal, whether or not the
+	 * user is in the index yet
+	 * @param username the name of the user, whose shard must exist
+	 * @return the user
+	 * @throws IOException if the shard cannot be read
+	 */
+	static synchronized User readShardOf(String username) throws IOException {
+		PersistenceService.flush(); // the shard or journal may still be pending
+		User user;
+		long checkpointSequence = 0;
+		ByteBuffer shard = readShard(shardFor(username).toPath());
+		if (ModelCodec.isEncoded(shard)) {
+			ModelCodec.Checkpoint checkpoint = ModelCodec.decode(shard);
+			user = checkpoint.user;
+			checkpointSequence = checkpoint.sequence;
+		} else {
+			// shard written with Java serialization before the model codec
+			ObjectInputStream objIn = new ObjectInputStream(new ByteArrayInputStream(shard.array()));
+			try {
+				user = (User) objIn.readObject();
+				try {
+					checkpointSequence = objIn.readLong();
+				} catch (EOFException e) {
+					// shard without a sequence number, nothing to skip
+				}
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			} finally {
+				objIn.close();
+			}
+		}
+		ArrayList<User> users = new ArrayList<>();
+		users.add(user);
+		Journal journal = new Journal(journalFor(username));
+		journal.replay(users, checkpointSequence);
+		journals.put(username, journal);
+		return user;
+	}
+
+	/**
+	 * Writes a checkpoint of a user to their shard and discards their journal. The
+	 * user is encoded right away and written by the persistence service.
+	 * @param user the user to be written
+	 * @throws IOException if the user cannot be encoded
+	 */
+	public static synchronized void writeUser(User user) throws IOException {
+		Journal journal = journal(user.getUsername());
+		byte[] shard = ModelCodec.encode(user, journal.getSequence());
+		PersistenceService.replace(shardFor(user.getUsername()).toPath(), shard);
+		journal.reset();
+	}
+
+	/**
+	 * Appends an edit of a user to their journal, compacting the journal into the
+	 * shard once enough operations have piled up
+	 * @param user the user, already containing the edit
+	 * @param op the edit to be saved
+	 * @throws IOException if neither the operation nor the user can be serialized
+	 */
+	public static synchronized void record(User user, Operation op) throws IOException {
+		Journal journal = journal(user.getUsername());
+		try {
+			journal.append(op);
+		} catch (IOException e) {
+			e.printStackTrace();
+			writeUser(user);
+			return;
+		}
+		if (journal.getRecordCount() >= CHECKPOINT_INTERVAL) {
+			writeUser(user);
+		}
+	}
+
+	/**
+	 * Checks whether a user has edits that are not yet in their shard
+	 * @param username the name of the user
+	 * @return true if the journal of the user has records, false otherwise
+	 */
+	public static synchronized boolean isDirty(String username) {
+		Journal journal = journals.get(username);
+		return journal != null && journal.getRecordCount() > 0;
+	}
+
+	/**
+	 * Adds a user to the index and writes their shard
+	 * @param user the new user
+	 * @throws IOException if the shard or the index cannot be serialized
+	 */
+	public static synchronized void addUser(User user) throws IOException {
+		writeUser(user);
+		ArrayList<String> usernames = readIndex();
+		if (!usernames.contains(user.getUsername())) {
+			usernames.add(user.getUsername());
+			writeIndex(usernames);
+		}
+	}
+
+	/**
+	 * Adds users whose shards were already written to the index in one write
+	 * @param usernames the names of the users
+	 * @throws IOException if the index cannot be serialized
+	 */
+	public static synchronized void addToIndex(ArrayList<String> usernames) throws IOException {
+		ArrayList<String> indexed = readIndex();
+		for (String username : usernames) {
+			if (!indexed.contains(username)) {
+				indexed.add(username);
+			}
+		}
+		writeIndex(indexed);
+	}
+
+	/**
+	 * Removes a user from the index and deletes their shard and journal
+	 * @param username the name of the user
+	 * @throws IOException if the index cannot be serialized
+	 */
+	public static synchronized void removeUser(String username) throws IOException {
+		ArrayList<String> usernames = readIndex();
+		usernames.remove(username);
+		writeIndex(usernames);
+		deleteShard(username);
+	}
+
+	/**
+	 * Deletes the shard and journal of a user without touching the index
+	 * @param username the name of the user
+	 */
+	static synchronized void deleteShard(String username) {
+		journal(username).reset();
+		journals.remove(username);
+		PersistenceService.delete(shardFor(username).toPath());
+	}
+
+	/**
+	 * Writes the list of usernames to the index
+	 * @param usernames the list of usernames
+	 * @throws IOException if the index cannot be serialized
+	 */
+	private static void writeIndex(ArrayList<String> usernames) throws IOException {
+		index = usernames;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objOut = new ObjectOutputStream(bytes);
+		objOut.writeObject(usernames);
+		objOut.close();
+		PersistenceService.replace(new File(INDEX_PATH).toPath(), bytes.toByteArray());
+	}
+
+	/**
+	 * Reads a whole shard through a file channel
+	 * @param file the shard file
+	 * @return the contents of the shard
+	 * @throws IOException if the shard cannot be read
+	 */
+	private static ByteBuffer readShard(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer shard = ByteBuffer.allocate((int) channel.size());
+			while (shard.hasRemaining() && channel.read(shard) >= 0) {
+				// keep reading until the buffer is full
+			}
+			shard.flip();
+			return shard;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Returns the journal of a user, starting an empty one if none was read
+	 * @param username the name of the user
+	 * @return the journal of the user
+	 */
+	private static Journal journal(String username) {
+		Journal journal = journals.get(username);
+		if (journal == null) {
+			journal = new Journal(journalFor(username));
+			journals.put(username, journal);
+		}
+		return journal;
+	}
+
+	/**
+	 * Returns the shard file of a user. The file is named after the hex encoded
+	 * username, so any username maps to a valid file name.
+	 * @param username the name of the user
+	 * @return the shard file
+	 */
+	private static File shardFor(String username) {
+		return new File(SHARD_DIRECTORY, fileName(username) + ".dat");
+	}
+
+	/**
+	 * Returns the journal file of a user
+	 * @param username the name of the user
+	 * @return the journal file
+	 */
+	private static File journalFor(String username) {
+		return new File(SHARD_DIRECTORY, fileName(username) + ".journal");
+	}
+
+	private static String fileName(String username) {
+		StringBuilder name = new StringBuilder();
+		for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+			name.append(String.format("%02x", b));
+		}
+		return name.toString();
+	}
+}
@@ -0,0 +1,239 @@
+package storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import model.Album;
+import model.Photo;
+import model.User;
+
+/**
+ * A SimilarityIndex finds the photos of a user that look alike, by the Hamming distance
+ * between their perceptual hashes. It is a multi-index hash table: each hash is split
+ * into four 16 bit parts and filed under each of them. Two hashes within a distance d
+ * differ in at most d / 4 bits in one of the parts, so a search only looks up the
+ * parts within that many bits of the query's own, a few hundred table lookups, and
+ * compares the whole hash of just the photos found there instead of every photo.
+ *
+ * Photos with the same hash are filed together, and a photo shown in several albums is
+ * indexed once. Photos whose hash is not known yet are left out and hashed in the
+ * background, so building an index never reads a thumbnail; they are added once they
+ * are hashed, and photos whose image cannot be hashed are dropped.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class SimilarityIndex {
+
+	public static final int NEAR_DUPLICATE = 10; // bits out of 64
+	private static final int PARTS = 4, PART_BITS = PerceptualHash.BITS / PARTS;
+
+	private List<HashMap<Integer, ArrayList<Long>>> tables = new ArrayList<>(PARTS);
+	private HashMap<Long, ArrayList<Photo>> byHash = new HashMap<>();
+	private ArrayList<Photo> photos = new ArrayList<>();
+	private ArrayList<Photo> unhashed = new ArrayList<>(); // left out until hashed in the background
+
+	/**
+	 * Creates an empty index
+	 */
+	public SimilarityIndex() {
+		for (int part = 0; part < PARTS; part++) {
+			tables.add(new HashMap<>());
+		}
+	}
+
+	/**
+	 * Indexes every photo of a user that has a hash, and starts hashing the others
+	 * in the background
+	 * @param user the user
+	 * @return the index
+	 */
+	public static SimilarityIndex of(User user) {
+		SimilarityIndex index = new SimilarityIndex();
+		IdentityHashMap<Photo, Boolean> seen = new IdentityHashMap<>();
+		for (Album album : user.getAlbums()) {
+			for (Photo photo : album.getPhotos()) {
+				if (seen.put(photo, Boolean.TRUE) == null) {
+					index.add(photo);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a photo, or leaves it out and hashes it in the background if its hash is
+	 * not known yet
+	 * @param photo the photo
+	 */
+	public void add(Photo photo) {
+		if (!photo.hasPerceptualHash()) {
+			if (!PerceptualHash.hasFailed(photo)) {
+				PerceptualHash.computeLater(photo);
+				unhashed.add(photo);
+			}
+			return;
+		}
+		index(photo);
+	}
+
+	/**
+	 * Adds the photos that were left out and have been hashed since, without queuing
+	 * any photo again, and drops those whose image could not be hashed
+	 */
+	public void addHashed() {
+		Iterator<Photo> left = unhashed.iterator();
+		while (left.hasNext()) {
+			Photo photo = left.next();
+			if (photo.hasPerceptualHash()) {
+				left.remove();
+				index(photo);
+			} else if (PerceptualHash.hasFailed(photo)) {
+				left.remove();
+			}
+		}
+	}
+
+	private void index(Photo photo) {
+		long hash = photo.getPerceptualHash();
+		photos.add(photo);
+		ArrayList<Photo> same = byHash.get(hash);
+		if (same == null) {
+			same = new ArrayList<>(1);
+			byHash.put(hash, same);
+			for (int part = 0; part < PARTS; part++) {
+				tables.get(part).computeIfAbsent(part(hash, part), value -> new ArrayList<>()).add(hash);
+			}
+		}
+		same.add(photo);
+	}
+
+	/**
+	 * Finds the photos that look like a photo
+	 * @param photo the photo
+	 * @param maxDistance the largest number of bits the hashes may differ in
+	 * @return the other photos within the distance, the most alike first
+	 */
+	public List<Photo> similar(Photo photo, int maxDistance) {
+		ArrayList<Photo> found = new ArrayList<>();
+		if (!photo.hasPerceptualHash()) {
+			return found; // getting the hash would read the thumbnail right here
+		}
+		long hash = photo.getPerceptualHash();
+		for (Photo match : within(hash, maxDistance)) {
+			if (match != photo) {
+				found.add(match);
+			}
+		}
+		found.sort(Comparator.comparingInt(match -> PerceptualHash.distance(hash, match.getPerceptualHash())));
+		return found;
+	}
+
+	/**
+	 * Groups the photos that look alike, for a near duplicate report. Photos are in
+	 * the same group if a chain of photos within the distance of each other links them.
+	 * @param maxDistance the largest number of bits the hashes of neighbours may differ in
+	 * @return the groups of two or more photos, largest first
+	 */
+	public List<List<Photo>> groups(int maxDistance) {
+		IdentityHashMap<Photo, Integer> numbers = new IdentityHashMap<>();
+		for (Photo photo : photos) {
+			numbers.put(photo, numbers.size());
+		}
+		int[] parent = new int[photos.size()];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+		}
+		for (Map.Entry<Long, ArrayList<Photo>> same : byHash.entrySet()) {
+			Photo photo = same.getValue().get(0);
+			for (Photo match : within(same.getKey(), maxDistance)) {
+				int a = find(parent, numbers.get(photo)), b = find(parent, numbers.get(match));
+				if (a != b) {
+					parent[a] = b;
+				}
+			}
+		}
+		HashMap<Integer, List<Photo>> groups = new HashMap<>();
+		for (Photo photo : photos) {
+			groups.computeIfAbsent(find(parent, numbers.get(photo)), root -> new ArrayList<>()).add(photo);
+		}
+		ArrayList<List<Photo>> result = new ArrayList<>();
+		for (List<Photo> group : groups.values()) {
+			if (group.size() > 1) {
+				result.add(group);
+			}
+		}
+		result.sort(Collections.reverseOrder(Comparator.comparingInt(List::size)));
+		return result;
+	}
+
+	/**
+	 * Returns the number of photos indexed
+	 * @return the number of photos
+	 */
+	public int size() {
+		return photos.size();
+	}
+
+	/**
+	 * Returns the number of photos left out because they were not hashed yet
+	 * @return the number of photos being hashed
+	 */
+	public int getUnhashedCount() {
+		return unhashed.size();
+	}
+
+	/**
+	 * Collects the photos whose hash is within a distance of a hash, looking up every
+	 * part value within distance / 4 bits of the part of the hash
+	 */
+	private List<Photo> within(long hash, int maxDistance) {
+		HashSet<Long> candidates = new HashSet<>();
+		int partDistance = Math.min(maxDistance / PARTS, PART_BITS);
+		for (int part = 0; part < PARTS; part++) {
+			probe(tables.get(part), part(hash, part), 0, partDistance, candidates);
+		}
+		ArrayList<Photo> found = new ArrayList<>();
+		for (long candidate : candidates) {
+			if (PerceptualHash.distance(hash, candidate) <= maxDistance) {
+				found.addAll(byHash.get(candidate));
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Collects the hashes filed under a part value and every value reached by flipping
+	 * up to the given number of its bits, each from the given bit on
+	 */
+	private static void probe(HashMap<Integer, ArrayList<Long>> table, int value, int fromBit, int flips, HashSet<Long> candidates) {
+		ArrayList<Long> hashes = table.get(value);
+		if (hashes != null) {
+			candidates.addAll(hashes);
+		}
+		if (flips == 0) {
+			return;
+		}
+		for (int bit = fromBit; bit < PART_BITS; bit++) {
+			probe(table, value ^ (1 << bit), bit + 1, flips - 1, candidates);
+		}
+	}
+
+	private static int part(long hash, int part) {
+		return (int) (hash >>> (part * PART_BITS)) & ((1 << PART_BITS) - 1);
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+}
@@ -0,0 +1,591 @@
+package storage;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.WeakHashMap;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * The SqlRepository keeps the library in an embedded database reached through JDBC.
+ * Each user is read with a handful of indexed queries, and each edit updates only the
+ * rows it touches in one transaction: renaming an album updates one row, moving a
+ * photo rewrites the photo lists of two albums, and tagging a photo rewrites the tags
+ * of that photo.
+ *
+ * Only portable SQL is used, so any embedded database with a JDBC driver will do; the
+ * URL decides which one. The default URL is an H2 database, so h2.jar has to be on the
+ * class path unless another URL and driver are given.
+ *
+ * Besides what the user edits, each photo row keeps the size, orientation and
+ * perceptual hash of its image. Those are often only worked out after the photo was
+ * saved, so save writes the ones found since. The tag index of a user is not kept
+ * apart: the tags table, indexed by user and tag, is read with the user and the index
+ * is built from it on the first search.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class SqlRepository implements PhotoRepository {
+
+	public static final String DEFAULT_URL = "jdbc:h2:./data/photos";
+
+	private static final String[] SCHEMA = {
+		"CREATE TABLE users (username VARCHAR(255) NOT NULL, PRIMARY KEY (username))",
+		"CREATE TABLE albums (username VARCHAR(255) NOT NULL, album_id BIGINT NOT NULL, name VARCHAR(1024) NOT NULL,"
+				+ " sort_order INTEGER NOT NULL, PRIMARY KEY (username, album_id))",
+		"CREATE TABLE photos (username VARCHAR(255) NOT NULL, photo_id BIGINT NOT NULL, name VARCHAR(1024),"
+				+ " caption VARCHAR(4096), image_key VARCHAR(64), taken BIGINT, width INTEGER, height INTEGER,"
+				+ " orientation INTEGER, perceptual_hash BIGINT, PRIMARY KEY (username, photo_id))",
+		"CREATE TABLE album_photos (username VARCHAR(255) NOT NULL, album_id BIGINT NOT NULL, sort_order INTEGER NOT NULL,"
+				+ " photo_id BIGINT NOT NULL, PRIMARY KEY (username, album_id, sort_order))",
+		"CREATE TABLE tags (username VARCHAR(255) NOT NULL, photo_id BIGINT NOT NULL, sort_order INTEGER NOT NULL,"
+				+ " tag_name VARCHAR(255), tag_value VARCHAR(1024), PRIMARY KEY (username, photo_id, sort_order))",
+		"CREATE INDEX album_photos_by_photo ON album_photos (username, photo_id)",
+		// tag searches are always within one user, so the tag index leads with the username
+		"CREATE INDEX tags_by_user_value ON tags (username, tag_name, tag_value)",
+	};
+	private static final int SIZE_KNOWN = 1, ORIENTATION_KNOWN = 2, HASH_KNOWN = 4;
+
+	private String url;
+	private Connection connection;
+	// Photo does not override equals(Object), so photos are told apart by identity
+	private WeakHashMap<Photo, Long> photoIds = new WeakHashMap<>();
+	// which of the size, orientation and hash of each photo are in its row
+	private WeakHashMap<Photo, Integer> savedDetails = new WeakHashMap<>();
+
+	/**
+	 * Constructor
+	 * @param url the JDBC URL of the database, which is created if needed
+	 */
+	public SqlRepository(String url) {
+		this.url = url;
+	}
+
+	@Override
+	public synchronized boolean exists() {
+		try {
+			PreparedStatement query = connection().prepareStatement("SELECT COUNT(*) FROM users");
+			try {
+				ResultSet rows = query.executeQuery();
+				rows.next();
+				return rows.getLong(1) > 0;
+			} finally {
+				query.close();
+				connection.commit();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized ArrayList<String> readUsernames() {
+		ArrayList<String> usernames = new ArrayList<>();
+		try {
+			PreparedStatement query = connection().prepareStatement("SELECT username FROM users ORDER BY username");
+			try {
+				ResultSet rows = query.executeQuery();
+				while (rows.next()) {
+					usernames.add(rows.getString(1));
+				}
+			} finally {
+				query.close();
+				connection.commit();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return usernames;
+	}
+
+	@Override
+	public synchronized User readUser(String username) {
+		try {
+			try {
+				return readUser(connection(), username);
+			} finally {
+				connection.commit();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized void addUser(User user) {
+		try {
+			Connection db = connection();
+			try {
+				deleteUser(db, user.getUsername());
+				insertUser(db, user);
+				db.commit();
+			} catch (SQLException e) {
+				db.rollback();
+				throw e;
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public synchronized void removeUser(String username) {
+		try {
+			Connection db = connection();
+			try {
+				deleteUser(db, username);
+				db.commit();
+			} catch (SQLException e) {
+				db.rollback();
+				throw e;
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Updates the rows an edit touched. Edits of other kinds, and edits whose rows do
+	 * not match the database, rewrite the whole user instead.
+	 * @param user the user, already containing the edit
+	 * @param op the edit to be saved
+	 */
+	@Override
+	public synchronized void record(User user, Operation op) {
+		try {
+			Connection db = connection();
+			try {
+				if (!recordPartially(db, user, op)) {
+					deleteUser(db, user.getUsername());
+					insertUser(db, user);
+				}
+				db.commit();
+			} catch (SQLException | RuntimeException e) {
+				db.rollback();
+				e.printStackTrace();
+				addUser(user);
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds the users that are not in the database yet. Users that are already there
+	 * have every edit committed when it was recorded, and only the sizes, orientations
+	 * and hashes worked out since are written.
+	 * @param users the users to be saved
+	 */
+	@Override
+	public synchronized void save(ArrayList<User> users) {
+		HashSet<String> usernames = new HashSet<>(readUsernames());
+		for (User user : users) {
+			if (!usernames.contains(user.getUsername())) {
+				addUser(user);
+				continue;
+			}
+			try {
+				Connection db = connection();
+				try {
+					updateDetails(db, user);
+					db.commit();
+				} catch (SQLException e) {
+					db.rollback();
+					throw e;
+				}
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+		// every write is committed by the time it returns
+	}
+
+	private Connection connection() throws SQLException {
+		if (connection == null || connection.isClosed()) {
+			connection = DriverManager.getConnection(url);
+			connection.setAutoCommit(false);
+			createSchema(connection);
+		}
+		return connection;
+	}
+
+	private static void createSchema(Connection db) throws SQLException {
+		DatabaseMetaData metaData = db.getMetaData();
+		ResultSet tables = metaData.getTables(null, db.getSchema(), "%", new String[] { "TABLE" });
+		try {
+			while (tables.next()) {
+				if (tables.getString("TABLE_NAME").equalsIgnoreCase("users")) {
+					return;
+				}
+			}
+		} finally {
+			tables.close();
+		}
+		Statement statement = db.createStatement();
+		try {
+			for (String sql : SCHEMA) {
+				statement.executeUpdate(sql);
+			}
+			db.commit();
+		} finally {
+			statement.close();
+		}
+	}
+
+	private User readUser(Connection db, String username) throws SQLException {
+		PreparedStatement query = db.prepareStatement("SELECT COUNT(*) FROM users WHERE username = ?");
+		try {
+			query.setString(1, username);
+			ResultSet rows = query.executeQuery();
+			rows.next();
+			if (rows.getLong(1) == 0) {
+				return null;
+			}
+		} finally {
+			query.close();
+		}
+		User user = new User(username);
+
+		LinkedHashMap<Long, Album> albums = new LinkedHashMap<>();
+		query = db.prepareStatement("SELECT album_id, name FROM albums WHERE username = ? ORDER BY sort_order");
+		try {
+			query.setString(1, username);
+			ResultSet rows = query.executeQuery();
+			while (rows.next()) {
+				Album album = new Album(rows.getString(2));
+				albums.put(rows.getLong(1), album);
+				user.getAlbums().add(album);
+			}
+		} finally {
+			query.close();
+		}
+
+		HashMap<Long, ArrayList<Tag>> tagsByPhoto = new HashMap<>();
+		HashMap<Tag, Tag> sharedTags = new HashMap<>();
+		query = db.prepareStatement("SELECT photo_id, tag_name, tag_value FROM tags WHERE username = ? ORDER BY photo_id, sort_order");
+		try {
+			query.setString(1, username);
+			ResultSet rows = query.executeQuery();
+			while (rows.next()) {
+				Tag tag = new Tag(rows.getString(2), rows.getString(3));
+				Tag shared = sharedTags.putIfAbsent(tag, tag);
+				tagsByPhoto.computeIfAbsent(rows.getLong(1), id -> new ArrayList<>()).add(shared == null ? tag : shared);
+			}
+		} finally {
+			query.close();
+		}
+
+		HashMap<Long, Photo> photos = new HashMap<>();
+		query = db.prepareStatement("SELECT photo_id, name, caption, image_key, taken, width, height, orientation, perceptual_hash"
+				+ " FROM photos WHERE username = ?");
+		try {
+			query.setString(1, username);
+			ResultSet rows = query.executeQuery();
+			while (rows.next()) {
+				long id = rows.getLong(1);
+				Calendar date = Calendar.getInstance();
+				date.setTimeInMillis(rows.getLong(5));
+				ArrayList<Tag> tags = tagsByPhoto.get(id);
+				Photo photo = new Photo(rows.getString(2), rows.getString(4), rows.getString(3), date,
+						tags == null ? new ArrayList<>() : tags);
+				int width = rows.getInt(6), height = rows.getInt(7);
+				if (!rows.wasNull()) {
+					photo.setSize(width, height);
+				}
+				photo.setOrientation(rows.getInt(8)); // 0 if not known
+				long hash = rows.getLong(9);
+				if (!rows.wasNull()) {
+					photo.setPerceptualHash(hash);
+				}
+				photos.put(id, photo);
+				photoIds.put(photo, id);
+				savedDetails.put(photo, detailsOf(photo));
+			}
+		} finally {
+			query.close();
+		}
+
+		query = db.prepareStatement("SELECT album_id, photo_id FROM album_photos WHERE username = ? ORDER BY album_id, sort_order");
+		try {
+			query.setString(1, username);
+			ResultSet rows = query.executeQuery();
+			while (rows.next()) {
+				Album album = albums.get(rows.getLong(1));
+				Photo photo = photos.get(rows.getLong(2));
+				if (album != null && photo != null) {
+					album.getPhotos().add(photo);
+				}
+			}
+		} finally {
+			query.close();
+		}
+		return user;
+	}
+
+	/**
+	 * Saves an edit by updating only the rows it touched
+	 * @return false if the edit is of a kind that has to rewrite the whole user
+	 */
+	private boolean recordPartially(Connection db, User user, Operation op) throws SQLException {
+		String username = user.getUsername();
+		if (op instanceof Operation.AddAlbum) {
+			String name = ((Operation.AddAlbum) op).album;
+			long id = nextId(db, "SELECT MAX(album_id) FROM albums WHERE username = ?", username);
+			update(db, "INSERT INTO albums (username, album_id, name, sort_order) VALUES (?, ?, ?, ?)",
+					username, id, name, user.getAlbums().indexOf(Operation.findAlbum(user, name)));
+		} else if (op instanceof Operation.RenameAlbum) {
+			Operation.RenameAlbum rename = (Operation.RenameAlbum) op;
+			update(db, "UPDATE albums SET name = ? WHERE username = ? AND name = ?", rename.newName, username, rename.album);
+		} else if (op instanceof Operation.DeleteAlbum) {
+			long id = albumId(db, username, ((Operation.DeleteAlbum) op).album);
+			update(db, "DELETE FROM album_photos WHERE username = ? AND album_id = ?", username, id);
+			update(db, "DELETE FROM albums WHERE username = ? AND album_id = ?", username, id);
+			deleteUnusedPhotos(db, username);
+		} else if (op instanceof Operation.AddPhoto) { // and AddPhotos
+			writeAlbumPhotos(db, user, ((Operation.AddPhoto) op).album);
+		} else if (op instanceof Operation.RemovePhoto) {
+			writeAlbumPhotos(db, user, ((Operation.RemovePhoto) op).album);
+			deleteUnusedPhotos(db, username);
+		} else if (op instanceof Operation.CopyPhoto) { // and MovePhoto
+			Operation.CopyPhoto copy = (Operation.CopyPhoto) op;
+			writeAlbumPhotos(db, user, copy.from);
+			writeAlbumPhotos(db, user, copy.to);
+		} else if (op instanceof Operation.SetCaption) {
+			Operation.SetCaption caption = (Operation.SetCaption) op;
+			Photo photo = Operation.findAlbum(user, caption.album).getPhotos().get(caption.index);
+			update(db, "UPDATE photos SET caption = ? WHERE username = ? AND photo_id = ?",
+					photo.getCaption(), username, photoId(db, username, photo));
+		} else if (op instanceof Operation.AddTag) { // and RemoveTag
+			Operation.AddTag tag = (Operation.AddTag) op;
+			Photo photo = Operation.findAlbum(user, tag.album).getPhotos().get(tag.index);
+			long id = photoId(db, username, photo);
+			update(db, "DELETE FROM tags WHERE username = ? AND photo_id = ?", username, id);
+			insertTags(db, username, id, photo);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Rewrites the list of photos of one album, adding the photos that are new
+	 */
+	private void writeAlbumPhotos(Connection db, User user, String albumName) throws SQLException {
+		String username = user.getUsername();
+		Album album = Operation.findAlbum(user, albumName);
+		long albumId = albumId(db, username, albumName);
+		ArrayList<Long> ids = new ArrayList<>();
+		for (Photo photo : album.getPhotos()) {
+			ids.add(photoId(db, username, photo));
+		}
+		update(db, "DELETE FROM album_photos WHERE username = ? AND album_id = ?", username, albumId);
+		PreparedStatement insert = db.prepareStatement(
+				"INSERT INTO album_photos (username, album_id, sort_order, photo_id) VALUES (?, ?, ?, ?)");
+		try {
+			for (int i = 0; i < ids.size(); i++) {
+				insert.setString(1, username);
+				insert.setLong(2, albumId);
+				insert.setInt(3, i);
+				insert.setLong(4, ids.get(i));
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		} finally {
+			insert.close();
+		}
+	}
+
+	/**
+	 * Returns the id of a photo, inserting the photo if it is not in the database yet
+	 */
+	private long photoId(Connection db, String username, Photo photo) throws SQLException {
+		Long id = photoIds.get(photo);
+		if (id == null) {
+			id = nextId(db, "SELECT MAX(photo_id) FROM photos WHERE username = ?", username);
+			insertPhoto(db, username, id, photo);
+			photoIds.put(photo, id);
+		}
+		return id;
+	}
+
+	private long albumId(Connection db, String username, String name) throws SQLException {
+		PreparedStatement query = db.prepareStatement("SELECT album_id FROM albums WHERE username = ? AND name = ?");
+		try {
+			query.setString(1, username);
+			query.setString(2, name);
+			ResultSet rows = query.executeQuery();
+			if (!rows.next()) {
+				throw new SQLException("No album " + name + " for user " + username);
+			}
+			return rows.getLong(1);
+		} finally {
+			query.close();
+		}
+	}
+
+	private void insertUser(Connection db, User user) throws SQLException {
+		String username = user.getUsername();
+		update(db, "INSERT INTO users (username) VALUES (?)", username);
+		IdentityHashMap<Photo, Long> ids = new IdentityHashMap<>();
+		PreparedStatement albums = db.prepareStatement("INSERT INTO albums (username, album_id, name, sort_order) VALUES (?, ?, ?, ?)");
+		PreparedStatement albumPhotos = db.prepareStatement(
+				"INSERT INTO album_photos (username, album_id, sort_order, photo_id) VALUES (?, ?, ?, ?)");
+		try {
+			for (int a = 0; a < user.getAlbums().size(); a++) {
+				Album album = user.getAlbums().get(a);
+				albums.setString(1, username);
+				albums.setLong(2, a + 1);
+				albums.setString(3, album.getName());
+				albums.setInt(4, a);
+				albums.addBatch();
+				for (int p = 0; p < album.getPhotos().size(); p++) {
+					Photo photo = album.getPhotos().get(p);
+					Long id = ids.get(photo);
+					if (id == null) {
+						id = (long) ids.size() + 1;
+						ids.put(photo, id);
+						insertPhoto(db, username, id, photo);
+						photoIds.put(photo, id);
+					}
+					albumPhotos.setString(1, username);
+					albumPhotos.setLong(2, a + 1);
+					albumPhotos.setInt(3, p);
+					albumPhotos.setLong(4, id);
+					albumPhotos.addBatch();
+				}
+			}
+			albums.executeBatch();
+			albumPhotos.executeBatch();
+		} finally {
+			albums.close();
+			albumPhotos.close();
+		}
+	}
+
+	private void insertPhoto(Connection db, String username, long id, Photo photo) throws SQLException {
+		int details = detailsOf(photo);
+		update(db, "INSERT INTO photos (username, photo_id, name, caption, image_key, taken, width, height, orientation,"
+				+ " perceptual_hash) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+				username, id, photo.getName(), photo.getCaption(), photo.getImageKey(), photo.getDate().getTimeInMillis(),
+				(details & SIZE_KNOWN) != 0 ? photo.getWidth() : null, (details & SIZE_KNOWN) != 0 ? photo.getHeight() : null,
+				(details & ORIENTATION_KNOWN) != 0 ? photo.getOrientation() : null,
+				(details & HASH_KNOWN) != 0 ? photo.getPerceptualHash() : null);
+		savedDetails.put(photo, details);
+		insertTags(db, username, id, photo);
+	}
+
+	/**
+	 * Writes the sizes, orientations and hashes of a user's photos that were worked
+	 * out since their rows were written
+	 */
+	private void updateDetails(Connection db, User user) throws SQLException {
+		PreparedStatement update = db.prepareStatement("UPDATE photos SET width = ?, height = ?, orientation = ?,"
+				+ " perceptual_hash = ? WHERE username = ? AND photo_id = ?");
+		try {
+			IdentityHashMap<Photo, Boolean> seen = new IdentityHashMap<>();
+			for (Album album : user.getAlbums()) {
+				for (Photo photo : album.getPhotos()) {
+					Long id = photoIds.get(photo);
+					int details = detailsOf(photo);
+					if (seen.put(photo, true) != null || id == null || Integer.valueOf(details).equals(savedDetails.get(photo))) {
+						continue;
+					}
+					update.setObject(1, (details & SIZE_KNOWN) != 0 ? photo.getWidth() : null);
+					update.setObject(2, (details & SIZE_KNOWN) != 0 ? photo.getHeight() : null);
+					update.setObject(3, (details & ORIENTATION_KNOWN) != 0 ? photo.getOrientation() : null);
+					update.setObject(4, (details & HASH_KNOWN) != 0 ? photo.getPerceptualHash() : null);
+					update.setString(5, user.getUsername());
+					update.setLong(6, id);
+					update.addBatch();
+					savedDetails.put(photo, details);
+				}
+			}
+			update.executeBatch();
+		} finally {
+			update.close();
+		}
+	}
+
+	/**
+	 * Returns which of the size, orientation and hash of a photo are known, without
+	 * working any of them out
+	 */
+	private static int detailsOf(Photo photo) {
+		return (photo.hasSize() ? SIZE_KNOWN : 0) | (photo.hasOrientation() ? ORIENTATION_KNOWN : 0)
+				| (photo.hasPerceptualHash() ? HASH_KNOWN : 0);
+	}
+
+	private void insertTags(Connection db, String username, long id, Photo photo) throws SQLException {
+		PreparedStatement insert = db.prepareStatement(
+				"INSERT INTO tags (username, photo_id, sort_order, tag_name, tag_value) VALUES (?, ?, ?, ?, ?)");
+		try {
+			for (int i = 0; i < photo.getTags().size(); i++) {
+				insert.setString(1, username);
+				insert.setLong(2, id);
+				insert.setInt(3, i);
+				insert.setString(4, photo.getTags().get(i).getName());
+				insert.setString(5, photo.getTags().get(i).getValue());
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		} finally {
+			insert.close();
+		}
+	}
+
+	private void deleteUnusedPhotos(Connection db, String username) throws SQLException {
+		update(db, "DELETE FROM tags WHERE username = ? AND photo_id NOT IN"
+				+ " (SELECT photo_id FROM album_photos WHERE username = ?)", username, username);
+		update(db, "DELETE FROM photos WHERE username = ? AND photo_id NOT IN"
+				+ " (SELECT photo_id FROM album_photos WHERE username = ?)", username, username);
+	}
+
+	private void deleteUser(Connection db, String username) throws SQLException {
+		for (String table : new String[] { "tags", "album_photos", "photos", "albums", "users" }) {
+			update(db, "DELETE FROM " + table + " WHERE username = ?", username);
+		}
+	}
+
+	private static long nextId(Connection db, String sql, String username) throws SQLException {
+		PreparedStatement query = db.prepareStatement(sql);
+		try {
+			query.setString(1, username);
+			ResultSet rows = query.executeQuery();
+			return rows.next() ? rows.getLong(1) + 1 : 1;
+		} finally {
+			query.close();
+		}
+	}
+
+	private static void update(Connection db, String sql, Object... params) throws SQLException {
+		PreparedStatement statement = db.prepareStatement(sql);
+		try {
+			for (int i = 0; i < params.length; i++) {
+				statement.setObject(i + 1, params[i]);
+			}
+			statement.executeUpdate();
+		} finally {
+			statement.close();
+		}
+	}
+}
@@ -0,0 +1,409 @@
+package storage;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import model.Album;
+import model.Photo;
+
+/**
+ * A ThumbnailAtlas packs the thumbnails of one album into memory-mapped files under
+ * data/atlases, so opening an album maps a few files instead of reading a file per
+ * photo, and list cells show their tile straight from the mapping without decoding.
+ *
+ * The atlas is a chain of segment files, each starting with a header and an index of
+ * fixed-size entries, one per tile slot, followed by the tiles. A tile holds the
+ * premultiplied ARGB pixels of a thumbnail in native byte order; thumbnails narrower
+ * than the tile size only use the front of their slot. Tiles are added the first time
+ * a photo is shown and freed when the photo leaves the album, and freed slots are
+ * reused, so the atlas is only ever updated one tile at a time. A slot freed while the
+ * atlas is open is only reused after the atlas is opened again, since cells may still
+ * show the image wrapping it until then.
+ *
+ * When every slot is taken a segment with as many slots as the atlas already has is
+ * added, up to a gigabyte each, so the atlas doubles without copying a tile or
+ * replacing a file that is mapped, and no segment is too large to map.
+ *
+ * Header, big-endian: magic, version, tile size, capacity of the segment. Index entry:
+ * blob key as 64 ASCII bytes, all zero for a free slot, then width and height.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ThumbnailAtlas {
+
+	private static final String ATLAS_DIRECTORY = "data/atlases";
+	private static final int MAGIC = 0x50584131; // "PXA1"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+	private static final int KEY_BYTES = 64;
+	private static final int ENTRY_BYTES = KEY_BYTES + 8;
+	private static final int INITIAL_CAPACITY = 64;
+	private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+	private String username, albumName;
+	private int tileSize, capacity;
+	private ArrayList<Segment> segments = new ArrayList<>();
+	private HashMap<String, Integer> slots = new HashMap<>();
+	private TreeSet<Integer> freeSlots = new TreeSet<>(); // free since the atlas was opened
+	private HashMap<String, Image> tiles = new HashMap<>();
+
+	private ThumbnailAtlas(String username, String albumName, int tileSize) {
+		this.username = username;
+		this.albumName = albumName;
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Opens the atlas of an album, creating it if needed, and frees the tiles of
+	 * photos that are no longer in the album
+	 * @param username the owner of the album
+	 * @param album the album
+	 * @param tileSize the size of the thumbnails, ThumbnailStore.SMALL or LARGE
+	 * @return the atlas
+	 * @throws IOException if the atlas cannot be read or created
+	 */
+	public static ThumbnailAtlas open(String username, Album album, int tileSize) throws IOException {
+		ThumbnailAtlas atlas = new ThumbnailAtlas(username, album.getName(), tileSize);
+		if (!atlas.readSegments()) {
+			atlas.create(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, album.getPhotoCount())) * 2));
+		}
+		atlas.sync(album);
+		return atlas;
+	}
+
+	/**
+	 * Moves the atlases of an album along with a rename
+	 * @param username the owner of the album
+	 * @param oldName the old name of the album
+	 * @param newName the new name of the album
+	 */
+	public static void rename(String username, String oldName, String newName) {
+		for (int size : new int[] { ThumbnailStore.SMALL, ThumbnailStore.LARGE }) {
+			for (int segment = 0; fileFor(username, oldName, size, segment).exists(); segment++) {
+				fileFor(username, oldName, size, segment).renameTo(fileFor(username, newName, size, segment));
+			}
+		}
+	}
+
+	/**
+	 * Deletes the atlases of a deleted album
+	 * @param username the owner of the album
+	 * @param albumName the name of the album
+	 */
+	public static void delete(String username, String albumName) {
+		for (int size : new int[] { ThumbnailStore.SMALL, ThumbnailStore.LARGE }) {
+			deleteSegments(username, albumName, size, 0);
+		}
+	}
+
+	/**
+	 * Deletes the atlases of every album of a deleted user
+	 * @param username the user
+	 */
+	public static void deleteAll(String username) {
+		File directory = new File(ATLAS_DIRECTORY, hex(username));
+		File[] atlases = directory.listFiles();
+		if (atlases != null) {
+			for (File atlas : atlases) {
+				atlas.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Returns the tile of a photo, adding it to the atlas the first time it is asked for
+	 * @param photo the photo
+	 * @return the thumbnail backed by the mapping, null if it cannot be made
+	 */
+	public synchronized Image tile(Photo photo) {
+		String key = photo.getImageKey();
+		Image tile = tiles.get(key);
+		if (tile != null) {
+			return tile;
+		}
+		try {
+			Integer slot = slots.get(key);
+			if (slot == null) {
+				slot = add(key, ThumbnailStore.readThumbnail(key, tileSize, photo.getOrientation()));
+			}
+			tile = wrap(slot);
+			tiles.put(key, tile);
+			return tile;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the tile of a photo only if it is already in the atlas, which never
+	 * touches the disk beyond the mapping
+	 * @param photo the photo
+	 * @return the thumbnail backed by the mapping, null if it has no tile yet
+	 */
+	public synchronized Image peek(Photo photo) {
+		String key = photo.getImageKey();
+		Image tile = tiles.get(key);
+		Integer slot = slots.get(key);
+		if (tile == null && slot != null) {
+			tile = wrap(slot);
+			tiles.put(key, tile);
+		}
+		return tile;
+	}
+
+	/**
+	 * Frees the tiles of photos that have left the album. Tiles of photos that were
+	 * added are written when they are first shown. The freed slots are cleared in the
+	 * index, so they are free the next time the atlas is opened, but not reused before.
+	 * @param album the album
+	 */
+	public synchronized void sync(Album album) {
+		HashSet<String> keys = new HashSet<>();
+		for (Photo photo : album.getPhotos()) {
+			keys.add(photo.getImageKey());
+		}
+		ArrayList<String> stale = new ArrayList<>();
+		for (String key : slots.keySet()) {
+			if (!keys.contains(key)) {
+				stale.add(key);
+			}
+		}
+		for (String key : stale) {
+			int slot = slots.remove(key);
+			Segment segment = segmentOf(slot);
+			segment.mapping.put(entryOffset(slot - segment.base), new byte[KEY_BYTES]);
+			tiles.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the number of tiles in the atlas
+	 * @return the number of tiles
+	 */
+	public synchronized int size() {
+		return slots.size();
+	}
+
+	/**
+	 * Writes a thumbnail into a free slot, growing the atlas if there is none
+	 * @return the slot
+	 */
+	private int add(String key, BufferedImage thumbnail) throws IOException {
+		if (freeSlots.isEmpty()) {
+			grow();
+		}
+		int slot = freeSlots.pollFirst();
+		int width = Math.min(tileSize, thumbnail.getWidth()), height = Math.min(tileSize, thumbnail.getHeight());
+		int[] argb = thumbnail.getRGB(0, 0, width, height, null, 0, width);
+		for (int i = 0; i < argb.length; i++) {
+			argb[i] = MappedPixelStore.premultiply(argb[i]);
+		}
+		tileBuffer(slot, width * height).put(argb);
+		Segment segment = segmentOf(slot);
+		int entry = entryOffset(slot - segment.base);
+		segment.mapping.putInt(entry + KEY_BYTES, width);
+		segment.mapping.putInt(entry + KEY_BYTES + 4, height);
+		segment.mapping.put(entry, key.getBytes(StandardCharsets.US_ASCII), 0, KEY_BYTES);
+		slots.put(key, slot);
+		return slot;
+	}
+
+	private Image wrap(int slot) {
+		Segment segment = segmentOf(slot);
+		int entry = entryOffset(slot - segment.base);
+		int width = segment.mapping.getInt(entry + KEY_BYTES), height = segment.mapping.getInt(entry + KEY_BYTES + 4);
+		return new WritableImage(new PixelBuffer<>(width, height, tileBuffer(slot, width * height),
+				PixelFormat.getIntArgbPreInstance()));
+	}
+
+	/**
+	 * Reads the index of every segment of an existing atlas
+	 * @return false if there is no atlas, or a segment is not one of the expected tile size
+	 */
+	private boolean readSegments() throws IOException {
+		for (int n = 0; fileFor(n).exists(); n++) {
+			Segment segment = new Segment(capacity, map(fileFor(n)));
+			MappedByteBuffer mapping = segment.mapping;
+			if (mapping.capacity() < HEADER_BYTES || mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION
+					|| mapping.getInt(8) != tileSize) {
+				return false;
+			}
+			segment.capacity = mapping.getInt(12);
+			if (segment.capacity <= 0 || mapping.capacity() < segmentBytes(segment.capacity)) {
+				return false;
+			}
+			byte[] key = new byte[KEY_BYTES];
+			for (int slot = 0; slot < segment.capacity; slot++) {
+				mapping.position(entryOffset(slot));
+				mapping.get(key);
+				if (key[0] == 0) {
+					freeSlots.add(segment.base + slot);
+				} else {
+					slots.put(new String(key, StandardCharsets.US_ASCII), segment.base + slot);
+				}
+			}
+			mapping.position(0);
+			segments.add(segment);
+			capacity += segment.capacity;
+		}
+		return !segments.isEmpty();
+	}
+
+	/**
+	 * Starts the atlas over with one empty segment, dropping whatever was read of it
+	 */
+	private void create(int newCapacity) throws IOException {
+		segments.clear();
+		capacity = 0;
+		slots.clear();
+		freeSlots.clear();
+		tiles.clear();
+		deleteSegments(username, albumName, tileSize, 1);
+		addSegment(Math.min(newCapacity, maxSegmentCapacity()));
+	}
+
+	/**
+	 * Adds a segment with as many slots as the atlas has, so the capacity doubles
+	 * without moving a tile
+	 */
+	private void grow() throws IOException {
+		addSegment(Math.min(capacity, maxSegmentCapacity()));
+	}
+
+	private void addSegment(int segmentCapacity) throws IOException {
+		File file = fileFor(segments.size());
+		file.getParentFile().mkdirs();
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(0);
+			out.setLength(segmentBytes(segmentCapacity)); // the index starts out zeroed, so all slots are free
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(tileSize);
+			out.writeInt(segmentCapacity);
+		} finally {
+			out.close();
+		}
+		Segment segment = new Segment(capacity, map(file));
+		segment.capacity = segmentCapacity;
+		segments.add(segment);
+		for (int slot = 0; slot < segmentCapacity; slot++) {
+			freeSlots.add(capacity + slot);
+		}
+		capacity += segmentCapacity;
+	}
+
+	private static MappedByteBuffer map(File source) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(source, "rw");
+		try {
+			return in.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.min(in.length(), MAX_SEGMENT_BYTES));
+		} finally {
+			in.close();
+		}
+	}
+
+	private Segment segmentOf(int slot) {
+		for (Segment segment : segments) {
+			if (slot < segment.base + segment.capacity) {
+				return segment;
+			}
+		}
+		throw new IndexOutOfBoundsException("No slot " + slot + " in an atlas of " + capacity);
+	}
+
+	private IntBuffer tileBuffer(int slot, int pixels) {
+		Segment segment = segmentOf(slot);
+		ByteBuffer tile = segment.mapping.duplicate();
+		long offset = tileOffset(segment.capacity, slot - segment.base);
+		tile.position((int) offset).limit((int) offset + 4 * pixels); // a segment is never over MAX_SEGMENT_BYTES
+		return tile.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	private int tileBytes() {
+		return 4 * tileSize * tileSize;
+	}
+
+	/**
+	 * Returns the most slots a segment holds, a power of two that keeps it within
+	 * MAX_SEGMENT_BYTES
+	 */
+	private int maxSegmentCapacity() {
+		return Integer.highestOneBit((int) ((MAX_SEGMENT_BYTES - HEADER_BYTES) / (ENTRY_BYTES + tileBytes())));
+	}
+
+	private static int entryOffset(int slot) {
+		return HEADER_BYTES + slot * ENTRY_BYTES;
+	}
+
+	private long tileOffset(int segmentCapacity, int slot) {
+		return HEADER_BYTES + (long) segmentCapacity * ENTRY_BYTES + (long) slot * tileBytes();
+	}
+
+	private long segmentBytes(int segmentCapacity) {
+		return tileOffset(segmentCapacity, segmentCapacity);
+	}
+
+	private File fileFor(int segment) {
+		return fileFor(username, albumName, tileSize, segment);
+	}
+
+	/**
+	 * Returns a segment file of an atlas. The first segment keeps the name atlases had
+	 * when they were a single file.
+	 */
+	private static File fileFor(String username, String albumName, int tileSize, int segment) {
+		String name = hex(albumName) + "." + tileSize + ".atlas" + (segment > 0 ? "." + segment : "");
+		return new File(ATLAS_DIRECTORY + "/" + hex(username), name);
+	}
+
+	/**
+	 * Deletes the segments of an atlas from one on
+	 */
+	private static void deleteSegments(String username, String albumName, int tileSize, int first) {
+		for (int segment = first; fileFor(username, albumName, tileSize, segment).exists(); segment++) {
+			fileFor(username, albumName, tileSize, segment).delete();
+		}
+	}
+
+	private static String hex(String name) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * One segment file of the atlas, mapped whole, holding the slots from base on
+	 */
+	private static class Segment {
+		int base, capacity;
+		MappedByteBuffer mapping;
+
+		Segment(int base, MappedByteBuffer mapping) {
+			this.base = base;
+			this.mapping = mapping;
+		}
+	}
+}
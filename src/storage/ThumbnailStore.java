@@ -0,0 +1,265 @@
+package storage;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import javafx.scene.image.Image;
+import model.SerializableImage;
+
+/**
+ * The ThumbnailStore keeps small copies of every photo under data/thumbnails, at a
+ * fixed size of 100 and 200 pixels on the longer side, so lists of photos never decode
+ * or upload full-size images. Thumbnails are generated in the background when a photo
+ * is imported, or when they are first asked for, and are kept next to the blob they
+ * were made from: a JPEG for opaque images, a PNG for images with transparency.
+ * Thumbnails are turned upright by the EXIF orientation the photo recorded when it
+ * was imported, so the header of the blob is not read again to make them.
+ *
+ * Large files are decoded with subsampling, so making the thumbnails of a photo only
+ * ever holds a few hundred pixels square in memory. A blob whose thumbnails are
+ * being made already is not decoded a second time; the second caller waits instead.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ThumbnailStore {
+
+	public static final int SMALL = 100;
+	public static final int LARGE = 200;
+	private static final int[] SIZES = { SMALL, LARGE };
+	private static final String THUMBNAIL_DIRECTORY = "data/thumbnails";
+
+	private static ExecutorService generator = Executors.newFixedThreadPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+				Thread thread = new Thread(runnable, "thumbnail-generator");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			});
+	private static ConcurrentHashMap<String, FutureTask<Void>> generating = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns a thumbnail of a blob, generating it if needed
+	 * @param key the key of the blob
+	 * @param size the size of the thumbnail, SMALL or LARGE
+	 * @param orientation the EXIF orientation of the photo
+	 * @return the thumbnail
+	 * @throws IOException if the blob is not a readable image
+	 */
+	public static Image get(String key, int size, int orientation) throws IOException {
+		return ImageCache.get(key + "@" + size, () -> {
+			File thumbnail = fileFor(key, size);
+			if (!thumbnail.exists()) {
+				generate(key, orientation);
+			}
+			Image image = new Image(new ByteArrayInputStream(Files.readAllBytes(thumbnail.toPath())));
+			if (image.isError()) {
+				throw new IOException("Broken thumbnail " + thumbnail, image.getException());
+			}
+			return image;
+		});
+	}
+
+	/**
+	 * Returns a thumbnail of a blob only if it is already decoded
+	 * @param key the key of the blob
+	 * @param size the size of the thumbnail, SMALL or LARGE
+	 * @return the thumbnail, null if it would have to be read first
+	 */
+	public static Image getCached(String key, int size) {
+		return ImageCache.peek(key + "@" + size);
+	}
+
+	/**
+	 * Reads a thumbnail of a blob for packing into an atlas, generating it if needed
+	 * @param key the key of the blob
+	 * @param size the size of the thumbnail, SMALL or LARGE
+	 * @param orientation the EXIF orientation of the photo
+	 * @return the decoded thumbnail
+	 * @throws IOException if the blob is not a readable image
+	 */
+	static BufferedImage readThumbnail(String key, int size, int orientation) throws IOException {
+		File thumbnail = fileFor(key, size);
+		if (!thumbnail.exists()) {
+			generate(key, orientation);
+		}
+		BufferedImage image = ImageIO.read(thumbnail);
+		if (image == null) {
+			throw new IOException("Broken thumbnail " + thumbnail);
+		}
+		return image;
+	}
+
+	/**
+	 * Generates the thumbnails of a blob on a background thread
+	 * @param key the key of the blob
+	 * @param orientation the EXIF orientation of the photo
+	 */
+	public static void generateLater(String key, int orientation) {
+		generator.execute(() -> {
+			try {
+				generate(key, orientation);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * Generates every size of thumbnail of a blob that does not exist yet
+	 * @param key the key of the blob
+	 * @param orientation the EXIF orientation of the photo
+	 * @throws IOException if the blob is not a readable image
+	 */
+	public static void generate(String key, int orientation) throws IOException {
+		boolean missing = false;
+		for (int size : SIZES) {
+			missing |= !fileFor(key, size).exists();
+		}
+		if (!missing) {
+			return;
+		}
+		FutureTask<Void> task = new FutureTask<>(() -> {
+			BufferedImage source = orient(read(key, SIZES[SIZES.length - 1]), orientation);
+			for (int size : SIZES) {
+				write(scale(source, size), fileFor(key, size));
+			}
+			return null;
+		});
+		FutureTask<Void> running = generating.putIfAbsent(key, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				generating.remove(key, task);
+			}
+		}
+		try {
+			running.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while making thumbnails of " + key, e);
+		}
+	}
+
+	/**
+	 * Reads a blob, subsampling it while decoding so that it is no more than about
+	 * twice the given size
+	 * @param key the key of the blob
+	 * @param size the size the image is going to be scaled to
+	 * @return the decoded image
+	 * @throws IOException if the blob is not a readable image
+	 */
+	private static BufferedImage read(String key, int size) throws IOException {
+		byte[] data = BlobStore.get(key);
+		SerializableImage pixels = ImageCodec.decodeRaw(data);
+		if (pixels != null) {
+			BufferedImage image = new BufferedImage(pixels.getWidth(), pixels.getHeight(), BufferedImage.TYPE_INT_ARGB);
+			pixels.getPixels().get(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+			return image;
+		}
+		ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				throw new IOException("Unsupported image format");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+				int step = Math.max(1, longest / (2 * size));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(step, step, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Scales an image to fit a square, halving it step by step first so that no
+	 * source pixels are skipped
+	 * @param source the image to be scaled
+	 * @param size the length of the side of the square
+	 * @return the scaled image
+	 */
+	private static BufferedImage scale(BufferedImage source, int size) {
+		double factor = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+		int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+		int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+		boolean alpha = source.getColorModel().hasAlpha();
+		BufferedImage current = source;
+		do {
+			int stepWidth = Math.max(width, current.getWidth() / 2);
+			int stepHeight = Math.max(height, current.getHeight() / 2);
+			BufferedImage step = new BufferedImage(stepWidth, stepHeight, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = step.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+			g.dispose();
+			current = step;
+		} while (current.getWidth() != width || current.getHeight() != height);
+		return current;
+	}
+
+	/**
+	 * Turns an image upright
+	 * @param image the image as stored
+	 * @param orientation the EXIF orientation of the photo
+	 * @return the upright image
+	 */
+	private static BufferedImage orient(BufferedImage image, int orientation) {
+		if (orientation == ImageMetadata.NORMAL) {
+			return image;
+		}
+		int width = image.getWidth(), height = image.getHeight();
+		int[] upright = ImageMetadata.orient(image.getRGB(0, 0, width, height, null, 0, width), width, height, orientation);
+		if (orientation >= 5) {
+			width = image.getHeight();
+			height = image.getWidth();
+		}
+		BufferedImage turned = new BufferedImage(width, height,
+				image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		turned.setRGB(0, 0, width, height, upright, 0, width);
+		return turned;
+	}
+
+	private static void write(BufferedImage image, File target) throws IOException {
+		target.getParentFile().mkdirs();
+		File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		if (!ImageIO.write(image, image.getColorModel().hasAlpha() ? "png" : "jpg", temp)) {
+			throw new IOException("No image writer for thumbnail " + target);
+		}
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static File fileFor(String key, int size) {
+		return new File(THUMBNAIL_DIRECTORY + "/" + size + "/" + key.substring(0, 2), key);
+	}
+}
@@ -0,0 +1,66 @@
+package util;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.transform.Affine;
+
+/**
+ * ImageOrientation shows photos upright by their EXIF orientation. Full size images
+ * and pyramids are kept as stored, and turned by a transform of the node showing
+ * them instead, so no pixels are copied to turn them.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ImageOrientation {
+
+    /**
+     * Tells whether an orientation shows the image on its side
+     * @param orientation the EXIF orientation, 1 to 8
+     * @return true if the width and the height of the image trade places
+     */
+    public static boolean swapsSides(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    /**
+     * Shows an image upright in a view whose fitWidth gives the width to show it at
+     * @param view the view, with preserveRatio set
+     * @param orientation the EXIF orientation of the image as stored, NORMAL for an image already upright
+     * @param width the width the upright image is shown at
+     */
+    public static void apply(ImageView view, int orientation, double width) {
+        boolean mirrored = orientation == 2 || orientation == 4 || orientation == 5 || orientation == 7;
+        double rotation;
+        switch (orientation) {
+        case 3: case 4: rotation = 180; break;
+        case 6: case 7: rotation = 90; break;
+        case 5: case 8: rotation = -90; break;
+        default: rotation = 0; break;
+        }
+        // the view mirrors first and then turns, both around its centre
+        view.setScaleX(mirrored ? -1 : 1);
+        view.setRotate(rotation);
+        // a photo on its side is fitted by its stored height, which becomes its width
+        view.setFitWidth(swapsSides(orientation) ? 0 : width);
+        view.setFitHeight(swapsSides(orientation) ? width : 0);
+    }
+
+    /**
+     * Returns the transform that turns an image as stored to show it upright
+     * @param orientation the EXIF orientation, 1 to 8
+     * @param width the width of the area in stored coordinates
+     * @param height the height of the area in stored coordinates
+     * @return the transform from stored to upright coordinates
+     */
+    public static Affine transform(int orientation, double width, double height) {
+        switch (orientation) {
+        case 2: return new Affine(-1, 0, width, 0, 1, 0); // flip left to right
+        case 3: return new Affine(-1, 0, width, 0, -1, height); // turn half way
+        case 4: return new Affine(1, 0, 0, 0, -1, height); // flip top to bottom
+        case 5: return new Affine(0, 1, 0, 1, 0, 0); // flip along the diagonal
+        case 6: return new Affine(0, -1, height, 1, 0, 0); // turn a quarter clockwise
+        case 7: return new Affine(0, -1, height, -1, 0, width); // flip along the other diagonal
+        case 8: return new Affine(0, 1, 0, -1, 0, width); // turn a quarter counterclockwise
+        default: return new Affine();
+        }
+    }
+}
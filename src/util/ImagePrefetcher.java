@@ -0,0 +1,135 @@
+package util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import model.Photo;
+import storage.ImageCache;
+import storage.ImagePyramid;
+
+/**
+ * An ImagePrefetcher decodes the photos around the one shown in the photo viewer in
+ * the background, so that stepping to the next or previous photo shows an image that
+ * is already decoded. The window follows the direction of travel: three photos ahead
+ * and one behind, so going backwards prefetches backwards. Requests for photos that
+ * fall out of the window are cancelled if they have not started yet.
+ *
+ * Decoded images are kept by the ImageCache, so the window costs no memory beyond its
+ * budget.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ImagePrefetcher {
+
+    private static final int AHEAD = 3;
+    private static final int BEHIND = 1;
+
+    private static ExecutorService decoder = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "image-prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private HashMap<String, CompletableFuture<Image>> requests = new HashMap<>();
+    private String current;
+    private int lastIndex = -1;
+    private int direction = 1;
+
+    /**
+     * Shows a photo of a list, and prefetches its neighbours in the direction of travel
+     * @param photos the photos that are stepped through
+     * @param index the index of the photo to be shown
+     * @param apply receives the image on the FX thread, at once if it is decoded already,
+     *              or null if the photo is shown some other way and only its neighbours are wanted
+     */
+    public void show(List<Photo> photos, int index, Consumer<Image> apply) {
+        if (lastIndex >= 0 && index != lastIndex) {
+            direction = index > lastIndex ? 1 : -1;
+        }
+        lastIndex = index;
+        Photo photo = photos.get(index);
+        String key = photo.getImageKey();
+        current = key;
+
+        HashSet<String> window = new HashSet<>();
+        window.add(key);
+        for (int step = 1; step <= AHEAD; step++) {
+            addToWindow(window, photos, index + direction * step);
+        }
+        for (int step = 1; step <= BEHIND; step++) {
+            addToWindow(window, photos, index - direction * step);
+        }
+        Iterator<Map.Entry<String, CompletableFuture<Image>>> stale = requests.entrySet().iterator();
+        while (stale.hasNext()) {
+            Map.Entry<String, CompletableFuture<Image>> request = stale.next();
+            if (!window.contains(request.getKey())) {
+                request.getValue().cancel(false);
+                stale.remove();
+            }
+        }
+
+        Image image = apply == null ? null : ImageCache.peek(key);
+        if (image != null) {
+            apply.accept(image);
+        } else if (apply != null) {
+            request(photo).thenAccept(loaded -> Platform.runLater(() -> {
+                // the viewer may have moved on while the image was decoded
+                if (key.equals(current)) {
+                    apply.accept(loaded);
+                }
+            }));
+        }
+        // the neighbours are queued after the photo that is shown
+        for (int step = 1; step <= AHEAD; step++) {
+            prefetch(photos, index + direction * step);
+        }
+        for (int step = 1; step <= BEHIND; step++) {
+            prefetch(photos, index - direction * step);
+        }
+    }
+
+    /**
+     * Cancels every request that has not started yet
+     */
+    public void cancel() {
+        for (CompletableFuture<Image> request : requests.values()) {
+            request.cancel(false);
+        }
+        requests.clear();
+        current = null;
+        lastIndex = -1;
+        direction = 1;
+    }
+
+    private void addToWindow(HashSet<String> window, List<Photo> photos, int index) {
+        if (index >= 0 && index < photos.size()) {
+            window.add(photos.get(index).getImageKey());
+        }
+    }
+
+    private void prefetch(List<Photo> photos, int index) {
+        // photos with a pyramid are shown tile by tile and never decoded whole
+        if (index >= 0 && index < photos.size() && ImageCache.peek(photos.get(index).getImageKey()) == null
+                && !ImagePyramid.exists(photos.get(index).getImageKey())) {
+            request(photos.get(index));
+        }
+    }
+
+    private CompletableFuture<Image> request(Photo photo) {
+        CompletableFuture<Image> request = requests.get(photo.getImageKey());
+        if (request == null || request.isCancelled()) {
+            request = CompletableFuture.supplyAsync(photo::getImage, decoder);
+            requests.put(photo.getImageKey(), request);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,137 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
+import model.Photo;
+import storage.ThumbnailAtlas;
+
+/**
+ * A PhotoGrid shows photos as a grid of thumbnails. It is a list view of rows, so
+ * only the rows on screen have cells, and each cell keeps its tiles and reuses them
+ * for whatever row it is given next; scrolling through a huge album only ever touches
+ * the tiles on screen. The grid shows the list of photos it is given without copying
+ * it, so it has to be told with photosChanged when that list changes.
+ *
+ * Clicking a tile selects its photo.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class PhotoGrid extends ListView<List<Photo>> {
+
+    private static final int TILE_SIZE = 100;
+    private static final int TILE_SPACING = 8;
+    private static final int SCROLL_BAR_WIDTH = 20;
+    private static final String SELECTED_STYLE = "-fx-border-color: #0096c9; -fx-border-width: 2;";
+    private static final String UNSELECTED_STYLE = "-fx-border-color: transparent; -fx-border-width: 2;";
+
+    private PhotoRows rows = new PhotoRows();
+    private ThumbnailAtlas atlas;
+    private Photo selected;
+    private Consumer<Photo> onSelect;
+
+    public PhotoGrid() {
+        setItems(rows);
+        setSelectionModel(null); // photos are selected, not rows
+        setCellFactory(param -> new RowCell());
+        widthProperty().addListener((observable, oldWidth, newWidth) -> rows.setColumns(Math.max(1,
+                (int) ((newWidth.doubleValue() - SCROLL_BAR_WIDTH) / (TILE_SIZE + TILE_SPACING + 4)))));
+    }
+
+    /**
+     * Shows a list of photos
+     * @param photos the photos, which are shown as they are and not copied
+     */
+    public void setPhotos(List<Photo> photos) {
+        selected = null;
+        rows.setPhotos(photos);
+    }
+
+    /**
+     * Updates the grid after photos were added to or removed from its list
+     */
+    public void photosChanged() {
+        rows.photosChanged();
+    }
+
+    /**
+     * Shows the thumbnails of an album from its atlas
+     * @param atlas the atlas of the album shown in the grid
+     */
+    public void setAtlas(ThumbnailAtlas atlas) {
+        this.atlas = atlas;
+        refresh();
+    }
+
+    /**
+     * Returns the selected photo
+     * @return the selected photo, null if none is selected
+     */
+    public Photo getSelectedPhoto() {
+        return selected;
+    }
+
+    /**
+     * Sets what happens when a photo is selected
+     * @param onSelect receives the selected photo
+     */
+    public void setOnSelect(Consumer<Photo> onSelect) {
+        this.onSelect = onSelect;
+    }
+
+    private void select(Photo photo) {
+        selected = photo;
+        refresh();
+        if (onSelect != null) {
+            onSelect.accept(photo);
+        }
+    }
+
+    /**
+     * A row of the grid, reusing its tiles for every row it shows
+     */
+    private class RowCell extends ListCell<List<Photo>> {
+
+        private HBox row = new HBox(TILE_SPACING);
+        private ArrayList<StackPane> frames = new ArrayList<>();
+
+        @Override
+        protected void updateItem(List<Photo> photos, boolean empty) {
+            super.updateItem(photos, empty);
+            int count = empty || photos == null ? 0 : photos.size();
+            while (frames.size() < count) {
+                PhotoTile tile = new PhotoTile(TILE_SIZE);
+                StackPane frame = new StackPane(tile);
+                frame.setOnMouseClicked(event -> {
+                    if (tile.getPhoto() != null) {
+                        select(tile.getPhoto());
+                    }
+                });
+                frames.add(frame);
+            }
+            for (int i = 0; i < frames.size(); i++) {
+                StackPane frame = frames.get(i);
+                PhotoTile tile = (PhotoTile) frame.getChildren().get(0);
+                if (i < count) {
+                    Photo photo = photos.get(i);
+                    tile.show(photo, atlas);
+                    frame.setStyle(photo == selected ? SELECTED_STYLE : UNSELECTED_STYLE);
+                } else {
+                    tile.clear();
+                }
+            }
+            if (count == 0) {
+                setGraphic(null);
+            } else {
+                row.getChildren().setAll(frames.subList(0, count));
+                setGraphic(row);
+            }
+            setText(null);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javafx.application.Platform;
+import model.Photo;
+import storage.ThumbnailStore;
+
+/**
+ * The PhotoImporter imports many image files at once, for folders and multiple
+ * selections. Every file is hashed into the blob store, has its header read and its
+ * thumbnails made on a work-stealing pool with a thread per core, so a large batch
+ * keeps every core busy even when some files take much longer than others.
+ *
+ * The photos are handed back all together, in the order of the files, so the caller
+ * can add them to an album and save them with a single write. Files that cannot be
+ * read are left out and listed in the result.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class PhotoImporter {
+
+    private static final String[] EXTENSIONS = { ".bmp", ".gif", ".jpg", ".jpeg", ".png" };
+
+    private static ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), forkJoinPool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+        thread.setName("photo-importer-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    /**
+     * Lists the image files among the chosen files and folders, searching folders
+     * and their subfolders
+     * @param chosen the files and folders to be imported
+     * @return the image files, sorted by path within each folder
+     */
+    public static List<Path> collect(List<File> chosen) {
+        ArrayList<Path> files = new ArrayList<>();
+        for (File file : chosen) {
+            if (file.isDirectory()) {
+                try (Stream<Path> tree = Files.walk(file.toPath())) {
+                    files.addAll(tree.filter(path -> Files.isRegularFile(path) && isImage(path)).sorted()
+                            .collect(Collectors.toList()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else if (isImage(file.toPath())) {
+                files.add(file.toPath());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Imports image files on the import pool
+     * @param files the image files
+     * @param progress receives the number of files done and the number of files on the
+     *                 FX thread while the import runs, or null if no progress is shown
+     * @return the imported photos, completed once every file is done
+     */
+    public static CompletableFuture<Result> importAll(List<Path> files, BiConsumer<Integer, Integer> progress) {
+        AtomicInteger done = new AtomicInteger();
+        AtomicBoolean reportPending = new AtomicBoolean();
+        return CompletableFuture.supplyAsync(() -> {
+            List<Object> imported = files.parallelStream().map(file -> {
+                Object photo = importFile(file);
+                done.incrementAndGet();
+                // one report is queued at a time, so thousands of files do not flood the FX thread
+                if (progress != null && reportPending.compareAndSet(false, true)) {
+                    Platform.runLater(() -> {
+                        reportPending.set(false);
+                        progress.accept(done.get(), files.size());
+                    });
+                }
+                return photo;
+            }).collect(Collectors.toList());
+
+            ArrayList<Photo> photos = new ArrayList<>();
+            ArrayList<Path> failed = new ArrayList<>();
+            for (int i = 0; i < imported.size(); i++) {
+                if (imported.get(i) instanceof Photo) {
+                    photos.add((Photo) imported.get(i));
+                } else {
+                    failed.add(files.get(i));
+                }
+            }
+            return new Result(photos, failed);
+        }, pool);
+    }
+
+    /**
+     * Imports one file
+     * @return the photo, or the exception if the file cannot be imported
+     */
+    private static Object importFile(Path file) {
+        try {
+            Calendar date = Calendar.getInstance();
+            date.setTimeInMillis(Files.getLastModifiedTime(file).toMillis());
+            Photo photo = new Photo(file.getFileName().toString(), file, date);
+            // made here rather than queued, so the batch uses every core for them
+            ThumbnailStore.generate(photo.getImageKey(), photo.getOrientation());
+            photo.getPerceptualHash();
+            return photo;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return e;
+        }
+    }
+
+    private static boolean isImage(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The photos of a finished import
+     */
+    public static class Result {
+        public final List<Photo> photos;
+        public final List<Path> failed;
+
+        Result(List<Photo> photos, List<Path> failed) {
+            this.photos = Collections.unmodifiableList(photos);
+            this.failed = Collections.unmodifiableList(failed);
+        }
+    }
+}
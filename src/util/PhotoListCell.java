@@ -1,9 +1,14 @@
 package util;
 
+import java.util.concurrent.Future;
+
 import javafx.scene.control.ListCell;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.stage.Screen;
 import model.Photo;
+import storage.ThumbnailAtlas;
+import storage.ThumbnailStore;
 
 public class PhotoListCell extends ListCell<Photo> {
 
@@ -11,8 +16,20 @@ public class PhotoListCell extends ListCell<Photo> {
     private static final int THUMBNAIL_HEIGHT = 100; // Set desired height
 
     private ImageView imageView;
+    private ThumbnailAtlas atlas;
+    private Future<Image> pending;
+    private Photo pendingPhoto;
 
     public PhotoListCell() {
+        this(null);
+    }
+
+    /**
+     * Constructor for cells that show tiles of an album's thumbnail atlas
+     * @param atlas the atlas of the album shown in the list, or null to read thumbnails one by one
+     */
+    public PhotoListCell(ThumbnailAtlas atlas) {
+        this.atlas = atlas;
         this.imageView = new ImageView();
         this.imageView.setFitWidth(THUMBNAIL_WIDTH);
         this.imageView.setFitHeight(THUMBNAIL_HEIGHT);
@@ -25,23 +42,75 @@ public class PhotoListCell extends ListCell<Photo> {
         super.updateItem(photo, empty);
 
         if (empty || photo == null) {
+            cancelPending();
             setText(null);
             setGraphic(null);
         } else {
-            // Set thumbnail image with error handling
-            Image image = photo.getImage();
-            if (image.isError()) {
-                // Handle image loading error
-                imageView.setImage(null); // Clear existing image
-                setText("Error loading image");
-            } else {
-                // Resize image to fit thumbnail dimensions
-                imageView.setImage(image);
-                imageView.setFitWidth(THUMBNAIL_WIDTH);
-                imageView.setFitHeight(THUMBNAIL_HEIGHT);
+            // Thumbnails already in memory are shown at once, anything else is read in the background
+            Image image = PhotoTile.cachedThumbnail(photo, atlas);
+            if (image != null) {
+                cancelPending();
+                showThumbnail(photo, image);
+            } else if (pending == null || pending.isCancelled() || photo != pendingPhoto) {
+                cancelPending();
+                imageView.setImage(PhotoTile.placeholder());
                 setText("CAPTION: " + photo.getCaption() + "\n TAG(S): " + photo.getTags());
+                requestThumbnail(photo);
             }
             setGraphic(imageView);
         }
     }
+
+    /**
+     * Reads the thumbnail of a photo in the background, asking again if the request is
+     * pushed out of the loader's queue while the cell still shows the photo
+     */
+    private void requestThumbnail(Photo photo) {
+        pendingPhoto = photo;
+        pending = ThumbnailLoader.load(() -> PhotoTile.loadThumbnail(photo, atlas), loaded -> {
+            // the cell may have been reused for another photo while the thumbnail was read
+            if (getItem() == photo) {
+                pending = null;
+                pendingPhoto = null;
+                showThumbnail(photo, loaded);
+            }
+        }, () -> {
+            if (getItem() == photo && pendingPhoto == photo && pending.isCancelled()) {
+                requestThumbnail(photo);
+            }
+        });
+    }
+
+    private void showThumbnail(Photo photo, Image image) {
+        if (image == null || image.isError()) {
+            // Handle image loading error
+            imageView.setImage(null); // Clear existing image
+            setText("Error loading image");
+        } else {
+            // Resize image to fit thumbnail dimensions
+            imageView.setImage(image);
+            imageView.setFitWidth(THUMBNAIL_WIDTH);
+            imageView.setFitHeight(THUMBNAIL_HEIGHT);
+            setText("CAPTION: " + photo.getCaption() + "\n TAG(S): " + photo.getTags());
+        }
+    }
+
+    /**
+     * Cancels the thumbnail request of the photo this cell showed before
+     */
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+            pendingPhoto = null;
+        }
+    }
+
+    /**
+     * Returns the size of thumbnail to show, twice the size on high density screens
+     * @return ThumbnailStore.SMALL or ThumbnailStore.LARGE
+     */
+    public static int thumbnailSize() {
+        return Screen.getPrimary().getOutputScaleX() > 1 ? ThumbnailStore.LARGE : ThumbnailStore.SMALL;
+    }
 }
\ No newline at end of file
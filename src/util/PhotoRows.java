@@ -0,0 +1,74 @@
+package util;
+
+import java.util.Collections;
+import java.util.List;
+
+import javafx.collections.ObservableListBase;
+import model.Photo;
+
+/**
+ * PhotoRows shows a list of photos as rows of a fixed number of columns, for the
+ * ListView behind a PhotoGrid. Rows are views of the photo list itself, so nothing is
+ * copied however many photos there are. The list of photos is not observable, so it
+ * has to be told when the photos change.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+class PhotoRows extends ObservableListBase<List<Photo>> {
+
+    private List<Photo> photos = Collections.emptyList();
+    private int columns = 1;
+    private int size;
+
+    /**
+     * Returns the photos of a row
+     * @param index the index of the row
+     * @return a copy of the photos in the row, which later changes to the album leave alone
+     */
+    @Override
+    public List<Photo> get(int index) {
+        int from = index * columns;
+        return List.copyOf(photos.subList(from, Math.min(photos.size(), from + columns)));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Shows another list of photos
+     * @param photos the photos to be shown
+     */
+    void setPhotos(List<Photo> photos) {
+        this.photos = photos;
+        photosChanged();
+    }
+
+    /**
+     * Changes the number of photos per row
+     * @param columns the number of photos per row
+     */
+    void setColumns(int columns) {
+        if (columns != this.columns) {
+            this.columns = columns;
+            photosChanged();
+        }
+    }
+
+    /**
+     * Tells the list view that photos were added, removed or reordered
+     */
+    void photosChanged() {
+        int oldSize = size;
+        size = (photos.size() + columns - 1) / columns;
+        beginChange();
+        if (oldSize > 0) {
+            nextRemove(0, Collections.nCopies(oldSize, Collections.<Photo>emptyList()));
+        }
+        if (size > 0) {
+            nextAdd(0, size);
+        }
+        endChange();
+    }
+}
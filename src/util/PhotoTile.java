@@ -0,0 +1,121 @@
+package util;
+
+import java.util.concurrent.Future;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
+import model.Photo;
+import storage.ThumbnailAtlas;
+import storage.ThumbnailStore;
+
+/**
+ * A PhotoTile shows the thumbnail of one photo in a PhotoGrid. Tiles are reused for
+ * other photos as the grid scrolls, so a thumbnail that is not in memory yet is read
+ * in the background and only shown if the tile still shows the same photo by then.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class PhotoTile extends ImageView {
+
+    private static Image placeholder;
+
+    private Photo photo;
+    private Future<Image> pending;
+
+    /**
+     * Constructor
+     * @param size the width and height of the tile
+     */
+    public PhotoTile(double size) {
+        setFitWidth(size);
+        setFitHeight(size);
+        setPreserveRatio(true);
+        setSmooth(true);
+    }
+
+    /**
+     * Shows the thumbnail of a photo, reading it in the background if needed
+     * @param photo the photo
+     * @param atlas the atlas of the album the photo is shown in, or null
+     */
+    public void show(Photo photo, ThumbnailAtlas atlas) {
+        if (photo == this.photo && (pending == null || !pending.isCancelled())) {
+            return;
+        }
+        clear();
+        this.photo = photo;
+        Image image = cachedThumbnail(photo, atlas);
+        if (image != null) {
+            setImage(image);
+            return;
+        }
+        setImage(placeholder());
+        pending = ThumbnailLoader.load(() -> loadThumbnail(photo, atlas), loaded -> {
+            if (this.photo == photo) {
+                pending = null;
+                setImage(loaded);
+            }
+        }, () -> {
+            // pushed out of the loader's queue; asked for again if the tile still shows the photo
+            if (this.photo == photo && pending != null && pending.isCancelled()) {
+                show(photo, atlas);
+            }
+        });
+    }
+
+    /**
+     * Empties the tile, cancelling the thumbnail request of the photo it showed
+     */
+    public void clear() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        photo = null;
+        setImage(null);
+    }
+
+    /**
+     * Returns the photo shown in the tile
+     * @return the photo, null if the tile is empty
+     */
+    public Photo getPhoto() {
+        return photo;
+    }
+
+    /**
+     * Returns a thumbnail that can be shown without reading anything from disk
+     * @param photo the photo
+     * @param atlas the atlas of the album the photo is shown in, or null
+     * @return the thumbnail, null if it has to be read first
+     */
+    static Image cachedThumbnail(Photo photo, ThumbnailAtlas atlas) {
+        Image image = atlas != null ? atlas.peek(photo) : null;
+        return image != null ? image : ThumbnailStore.getCached(photo.getImageKey(), PhotoListCell.thumbnailSize());
+    }
+
+    /**
+     * Reads a thumbnail, generating it if needed. Called off the FX thread.
+     * @param photo the photo
+     * @param atlas the atlas of the album the photo is shown in, or null
+     * @return the thumbnail, null if it cannot be read
+     */
+    static Image loadThumbnail(Photo photo, ThumbnailAtlas atlas) {
+        Image image = atlas != null ? atlas.tile(photo) : null;
+        return image != null ? image : photo.getThumbnail(PhotoListCell.thumbnailSize());
+    }
+
+    /**
+     * Returns a plain grey square shown while a thumbnail is read
+     * @return the placeholder image
+     */
+    static Image placeholder() {
+        if (placeholder == null) {
+            WritableImage grey = new WritableImage(1, 1);
+            grey.getPixelWriter().setArgb(0, 0, 0xffdddddd);
+            placeholder = grey;
+        }
+        return placeholder;
+    }
+}
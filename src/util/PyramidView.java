@@ -0,0 +1,186 @@
+package util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import javafx.geometry.Point2D;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.Rectangle;
+import model.Photo;
+import storage.ImageMetadata;
+import storage.ImagePyramid;
+
+/**
+ * A PyramidView shows a huge photo from its ImagePyramid. Only the level that matches
+ * the zoom is read, and only the tiles of it that are on screen, so showing a photo
+ * costs about as much memory as the view is large. Scrolling zooms around the mouse
+ * and dragging pans.
+ *
+ * The tiles are laid out as the photo is stored, in a pane that is turned upright by
+ * the EXIF orientation of the photo, so no tile is copied to turn it.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class PyramidView extends Pane {
+
+    private static final double ZOOM_STEP = 1.25;
+    private static final double MAX_SCALE = 4;
+
+    private ImagePyramid pyramid;
+    private int orientation = ImageMetadata.NORMAL;
+    private Pane content = new Pane(); // the tiles, in the coordinates of the photo as stored
+    private double scale = 1; // screen pixels per pixel of the full size photo
+    private double left, top; // the point of the full size photo at the top left corner of the view
+    private double dragX, dragY;
+    private boolean fitted;
+    private HashMap<String, ImageView> tiles = new HashMap<>();
+
+    public PyramidView() {
+        Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(widthProperty());
+        clip.heightProperty().bind(heightProperty());
+        setClip(clip);
+        content.setManaged(false);
+        getChildren().add(content);
+        setOnScroll(event -> {
+            if (pyramid != null && event.getDeltaY() != 0) {
+                zoom(event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP, event.getX(), event.getY());
+            }
+        });
+        setOnMousePressed(event -> {
+            Point2D point = content.parentToLocal(event.getX(), event.getY());
+            dragX = point.getX();
+            dragY = point.getY();
+        });
+        setOnMouseDragged(event -> {
+            Point2D point = content.parentToLocal(event.getX(), event.getY());
+            left -= (point.getX() - dragX) / scale;
+            top -= (point.getY() - dragY) / scale;
+            dragX = point.getX();
+            dragY = point.getY();
+            requestLayout();
+        });
+    }
+
+    /**
+     * Returns the pyramid of a photo, or starts making one in the background if the
+     * photo is large enough to need it and does not have one yet
+     * @param photo the photo
+     * @return the pyramid, null if the photo is to be shown as a single image
+     */
+    public static ImagePyramid open(Photo photo) {
+        try {
+            ImagePyramid pyramid = ImagePyramid.open(photo.getImageKey());
+            if (pyramid == null) {
+                ImagePyramid.generateLater(photo.getImageKey());
+            }
+            return pyramid;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Shows a pyramid upright, fitted into the view
+     * @param pyramid the pyramid, or null to show nothing
+     * @param orientation the EXIF orientation of the photo
+     */
+    public void setPyramid(ImagePyramid pyramid, int orientation) {
+        this.pyramid = pyramid;
+        this.orientation = orientation;
+        this.fitted = false;
+        tiles.clear();
+        content.getChildren().clear();
+        requestLayout();
+    }
+
+    /**
+     * Zooms around a point of the view
+     * @param factor how much larger the photo is shown
+     * @param x the horizontal position of the point that stays in place
+     * @param y the vertical position of the point that stays in place
+     */
+    public void zoom(double factor, double x, double y) {
+        Point2D point = content.parentToLocal(x, y);
+        double newScale = Math.max(Math.min(fitScale(), 1), Math.min(MAX_SCALE, scale * factor));
+        left += point.getX() / scale - point.getX() / newScale;
+        top += point.getY() / scale - point.getY() / newScale;
+        scale = newScale;
+        requestLayout();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        if (pyramid == null || getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+        content.getTransforms().setAll(ImageOrientation.transform(orientation, storedWidth(), storedHeight()));
+        if (!fitted) {
+            // the whole photo, centred, and never blown up past its full size
+            scale = Math.min(fitScale(), 1);
+            left = (pyramid.getWidth(0) - storedWidth() / scale) / 2;
+            top = (pyramid.getHeight(0) - storedHeight() / scale) / 2;
+            fitted = true;
+        }
+        int level = pyramid.levelFor(scale);
+        int span = ImagePyramid.TILE_SIZE << level; // full size pixels covered by a tile of the level
+        int firstColumn = Math.max(0, (int) Math.floor(left / span));
+        int lastColumn = Math.min(pyramid.getColumns(level) - 1, (int) Math.floor((left + storedWidth() / scale) / span));
+        int firstRow = Math.max(0, (int) Math.floor(top / span));
+        int lastRow = Math.min(pyramid.getRows(level) - 1, (int) Math.floor((top + storedHeight() / scale) / span));
+
+        HashSet<String> visible = new HashSet<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                String id = level + "/" + column + "/" + row;
+                visible.add(id);
+                ImageView tile = tiles.get(id);
+                if (tile == null) {
+                    tile = new ImageView(pyramid.tile(level, column, row));
+                    tile.setSmooth(true);
+                    tiles.put(id, tile);
+                    content.getChildren().add(tile);
+                }
+                // edges are rounded the same way for neighbouring tiles, so no seams show
+                double x = Math.floor((column * (double) span - left) * scale);
+                double y = Math.floor((row * (double) span - top) * scale);
+                double right = Math.floor((Math.min(pyramid.getWidth(0), (column + 1) * (double) span) - left) * scale);
+                double bottom = Math.floor((Math.min(pyramid.getHeight(0), (row + 1) * (double) span) - top) * scale);
+                tile.relocate(x, y);
+                tile.setFitWidth(right - x);
+                tile.setFitHeight(bottom - y);
+            }
+        }
+        Iterator<Map.Entry<String, ImageView>> hidden = tiles.entrySet().iterator();
+        while (hidden.hasNext()) {
+            Map.Entry<String, ImageView> tile = hidden.next();
+            if (!visible.contains(tile.getKey())) {
+                content.getChildren().remove(tile.getValue());
+                hidden.remove();
+            }
+        }
+    }
+
+    private double fitScale() {
+        return Math.min(storedWidth() / pyramid.getWidth(0), storedHeight() / pyramid.getHeight(0));
+    }
+
+    /**
+     * Returns the width of the view along the width of the photo as stored
+     */
+    private double storedWidth() {
+        return ImageOrientation.swapsSides(orientation) ? getHeight() : getWidth();
+    }
+
+    /**
+     * Returns the height of the view along the height of the photo as stored
+     */
+    private double storedHeight() {
+        return ImageOrientation.swapsSides(orientation) ? getWidth() : getHeight();
+    }
+}
@@ -0,0 +1,107 @@
+package util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+/**
+ * The ThumbnailLoader reads thumbnails for list cells on a small pool of background
+ * threads, so scrolling never waits for a file to be read or decoded on the FX thread.
+ *
+ * The queue of waiting requests is bounded. When it is full the oldest waiting request
+ * is cancelled, since during fast scrolling that is the one whose cell has most likely
+ * been reused for another photo already. Its cell is told, and asks again if it still
+ * shows the same photo. Cells cancel their own request as soon as they are given
+ * another photo, and a cancelled request leaves the queue at once, so it never pushes
+ * out the request of a photo that is still shown.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ThumbnailLoader {
+
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static ThreadPoolExecutor loader = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingDeque<>(QUEUE_CAPACITY), runnable -> {
+                Thread thread = new Thread(runnable, "thumbnail-loader");
+                thread.setDaemon(true);
+                return thread;
+            }, (request, executor) -> {
+                // cancelled rather than silently dropped, so its cell asks again if it is still shown
+                Runnable oldest = executor.getQueue().poll();
+                if (oldest instanceof Request) {
+                    ((Request) oldest).evict();
+                } else if (oldest instanceof Future) {
+                    ((Future<?>) oldest).cancel(false);
+                }
+                executor.execute(request);
+            });
+
+    static {
+        loader.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Loads an image in the background and hands it to the FX thread
+     * @param load reads the image, off the FX thread
+     * @param apply receives the image on the FX thread, unless the request was cancelled
+     * @param evicted runs on the FX thread if the request was cancelled to make room in the queue,
+     *                so the caller can ask again if it still wants the image
+     * @return the request, to be cancelled when its result is no longer wanted
+     */
+    public static Future<Image> load(Callable<Image> load, Consumer<Image> apply, Runnable evicted) {
+        Request request = new Request(load, apply, evicted);
+        loader.execute(request);
+        return request;
+    }
+
+    /**
+     * A request that hands its image to the FX thread, or tells its caller it was
+     * pushed out of the queue
+     */
+    private static class Request extends FutureTask<Image> {
+        private Consumer<Image> apply;
+        private Runnable evicted;
+        private volatile boolean wasEvicted;
+
+        Request(Callable<Image> load, Consumer<Image> apply, Runnable evicted) {
+            super(load);
+            this.apply = apply;
+            this.evicted = evicted;
+        }
+
+        void evict() {
+            wasEvicted = true;
+            cancel(false);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                if (wasEvicted) {
+                    Platform.runLater(evicted);
+                } else {
+                    loader.remove(this); // still waiting, unless it had started already
+                }
+                return;
+            }
+            Platform.runLater(() -> {
+                if (!isCancelled()) {
+                    try {
+                        apply.accept(get());
+                    } catch (Exception e) {
+                        apply.accept(null);
+                    }
+                }
+            });
+        }
+    }
+}
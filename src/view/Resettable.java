@@ -0,0 +1,15 @@
+package view;
+
+/**
+ * A controller that clears what was entered or shown the last time its view was on
+ * screen, before it is shown again with new data.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public interface Resettable {
+
+    /**
+     * Clears the input fields and state of the view
+     */
+    void reset();
+}
@@ -1,5 +1,62 @@
 package view;
 
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+
+/**
+ * A View is one loaded FXML file: its scene graph and its controller. Views are loaded
+ * once by Views and then shown again and again, so navigating between them only
+ * swaps the scene of the stage. Views may be loaded off the FX thread, so the scene
+ * itself is only made on the FX thread, the first time the view is shown.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
 public class View {
-    
+
+    private Parent root;
+    private Scene scene; // null until first asked for on the FX thread
+    private Object controller;
+
+    /**
+     * Constructor
+     * @param root the root node loaded from the FXML file
+     * @param controller the controller created for the FXML file
+     */
+    View(Parent root, Object controller) {
+        this.root = root;
+        this.controller = controller;
+    }
+
+    /**
+     * Returns the controller of this view
+     * @param <T> the type of the controller
+     * @return the controller
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getController() {
+        return (T) controller;
+    }
+
+    /**
+     * Returns the scene of this view, making it the first time. Call on the FX thread.
+     * @return the scene
+     */
+    public Scene getScene() {
+        if (scene == null) {
+            scene = new Scene(root);
+        }
+        return scene;
+    }
+
+    /**
+     * Shows this view in a stage
+     * @param stage the stage
+     */
+    public void show(Stage stage) {
+        if (stage.getScene() != getScene()) {
+            stage.setScene(scene);
+        }
+        stage.show();
+    }
 }
@@ -0,0 +1,92 @@
+package view;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+
+/**
+ * Views loads every FXML file of the application once and keeps the scene graph and
+ * the controller, so navigating to a view swaps the scene of the stage instead of
+ * parsing FXML and building a new scene graph on every click.
+ *
+ * The views are preloaded on a background thread at startup. A view that is asked for
+ * before it is preloaded is loaded right away, and one that cannot be loaded off the
+ * FX thread is loaded again on it. Controllers that implement Resettable are reset
+ * every time their view is handed out; their Start method then binds the new data.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class Views {
+
+    public static final String LOGIN_SCREEN = "/view/LoginScreen.fxml";
+    public static final String ADMIN_DASHBOARD = "/view/AdminDashboard.fxml";
+    public static final String USER_DASHBOARD = "/view/UserDashboard.fxml";
+    public static final String ALBUM_DISPLAY = "/view/AlbumDisplay.fxml";
+    public static final String PHOTO_VIEW = "/view/PhotoView.fxml";
+    public static final String EDIT_PHOTO = "/view/EditPhoto.fxml";
+    public static final String SEARCH_PHOTOS = "/view/SearchPhotos.fxml";
+    private static final String[] ALL = { LOGIN_SCREEN, ADMIN_DASHBOARD, USER_DASHBOARD, ALBUM_DISPLAY,
+            PHOTO_VIEW, EDIT_PHOTO, SEARCH_PHOTOS };
+
+    private static ConcurrentHashMap<String, FutureTask<View>> views = new ConcurrentHashMap<>();
+
+    /**
+     * Loads every view that is not loaded yet on a background thread
+     */
+    public static void preload() {
+        Thread preloader = new Thread(() -> {
+            for (String fxml : ALL) {
+                views.computeIfAbsent(fxml, Views::loader).run();
+            }
+        }, "view-preloader");
+        preloader.setDaemon(true);
+        preloader.setPriority(Thread.MIN_PRIORITY);
+        preloader.start();
+    }
+
+    /**
+     * Returns a view, loading it if it is not loaded yet, with its controller reset
+     * @param fxml the path of the FXML file, one of the constants of this class
+     * @return the view
+     * @throws IOException if the FXML file cannot be loaded
+     */
+    public static View get(String fxml) throws IOException {
+        View view;
+        FutureTask<View> load = views.computeIfAbsent(fxml, Views::loader);
+        load.run(); // does nothing if the preloader got to it first, get then waits for it
+        try {
+            view = load.get();
+        } catch (ExecutionException e) {
+            // some controls can only be made on the FX thread, so try once more here
+            views.remove(fxml, load);
+            load = views.computeIfAbsent(fxml, Views::loader);
+            load.run();
+            try {
+                view = load.get();
+            } catch (ExecutionException again) {
+                views.remove(fxml, load);
+                throw new IOException("Cannot load view " + fxml, again.getCause());
+            } catch (InterruptedException again) {
+                throw new IOException("Interrupted while loading view " + fxml, again);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while loading view " + fxml, e);
+        }
+        if (view.getController() instanceof Resettable) {
+            ((Resettable) view.getController()).reset();
+        }
+        return view;
+    }
+
+    private static FutureTask<View> loader(String fxml) {
+        return new FutureTask<>(() -> {
+            FXMLLoader loader = new FXMLLoader(Views.class.getResource(fxml));
+            Parent root = loader.load();
+            return new View(root, loader.getController());
+        });
+    }
+}
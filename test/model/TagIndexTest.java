@@ -0,0 +1,183 @@
+package model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests that the tag index of a user follows photos into and out of albums and tags
+ * onto and off photos as the edits are made, and that a restored index keeps doing so
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class TagIndexTest {
+
+	private static final Tag BEACH = new Tag("Location", "Beach");
+	private static final Tag BEA = new Tag("Person", "Bea");
+
+	@Test
+	public void listsAPhotoUntilItLeavesItsLastAlbum() {
+		Photo photo = photo("shared", BEACH);
+		Album trip = album("trip", photo), best = album("best");
+		User user = user(trip, best);
+		TagIndex index = TagIndex.of(user);
+		assertEquals(set(photo), index.photosWith(BEACH));
+
+		best.getPhotos().add(photo);
+		TagIndex.photoAdded(user, photo);
+		trip.getPhotos().remove(photo);
+		TagIndex.photoRemoved(user, photo);
+		assertEquals("still shown in best", set(photo), index.photosWith(BEACH));
+
+		best.getPhotos().remove(photo);
+		TagIndex.photoRemoved(user, photo);
+		assertTrue(index.photosWith(BEACH).isEmpty());
+		assertTrue(index.getTags().isEmpty());
+	}
+
+	@Test
+	public void followsTagEdits() {
+		Photo beach = photo("beach", BEACH), bea = photo("bea", BEA);
+		User user = user(album("trip", beach, bea));
+		TagIndex index = TagIndex.of(user);
+
+		beach.getTags().add(BEA);
+		TagIndex.tagAdded(user, beach, BEA);
+		assertEquals(Arrays.asList(beach), index.photosWithBoth(BEACH, BEA));
+		assertEquals(set(beach, bea), new HashSet<>(index.photosWithEither(BEACH, BEA)));
+
+		beach.getTags().remove(BEACH);
+		TagIndex.tagRemoved(user, beach, BEACH);
+		assertTrue(index.photosWith(BEACH).isEmpty());
+		assertEquals(Arrays.asList(BEA), index.getTags());
+
+		Photo outside = photo("in no album");
+		outside.getTags().add(BEACH);
+		TagIndex.tagAdded(user, outside, BEACH);
+		assertTrue("a photo in no album is not listed", index.photosWith(BEACH).isEmpty());
+	}
+
+	@Test
+	public void buildsFromThePhotosAsTheyAreWhenFirstNeeded() {
+		Photo beach = photo("beach", BEACH);
+		Album trip = album("trip");
+		User user = user(trip);
+		trip.getPhotos().add(beach);
+		TagIndex.photoAdded(user, beach); // no index yet, so nothing to update
+		assertNull(user.getTagIndex());
+
+		assertEquals(set(beach), TagIndex.of(user).photosWith(BEACH));
+		assertSame(TagIndex.of(user), TagIndex.of(user));
+	}
+
+	@Test
+	public void keepsARestoredIndexUpToDate() {
+		Photo beach = photo("beach", BEACH);
+		Album trip = album("trip", beach), best = album("best", beach);
+		User user = user(trip, best);
+		IdentityHashMap<Photo, Integer> albumCounts = new IdentityHashMap<>();
+		albumCounts.put(beach, 2);
+		TagIndex.restore(user, Collections.singletonMap(BEACH, Arrays.asList(beach)), albumCounts);
+		TagIndex index = TagIndex.of(user);
+		assertEquals(set(beach), index.photosWith(BEACH));
+
+		trip.getPhotos().remove(beach);
+		TagIndex.photoRemoved(user, beach);
+		assertEquals(set(beach), index.photosWith(BEACH));
+		best.getPhotos().remove(beach);
+		TagIndex.photoRemoved(user, beach);
+		assertTrue(index.photosWith(BEACH).isEmpty());
+	}
+
+	@Test
+	public void staysTheSameAsAnIndexBuiltAfresh() {
+		Random random = new Random(85);
+		Tag[] tags = new Tag[6];
+		for (int i = 0; i < tags.length; i++) {
+			tags[i] = new Tag(i % 2 == 0 ? "Location" : "Person", "value " + i);
+		}
+		ArrayList<Photo> library = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			library.add(photo("photo " + i, tags[random.nextInt(tags.length)]));
+		}
+		User user = user(album("a"), album("b"), album("c"));
+		TagIndex index = TagIndex.of(user);
+
+		for (int step = 0; step < 2000; step++) {
+			Album album = user.getAlbums().get(random.nextInt(3));
+			Photo photo = library.get(random.nextInt(library.size()));
+			Tag tag = tags[random.nextInt(tags.length)];
+			switch (random.nextInt(4)) {
+			case 0:
+				album.getPhotos().add(photo);
+				TagIndex.photoAdded(user, photo);
+				break;
+			case 1:
+				if (!album.getPhotos().isEmpty()) {
+					Photo removed = album.getPhotos().remove(random.nextInt(album.getPhotos().size()));
+					TagIndex.photoRemoved(user, removed);
+				}
+				break;
+			case 2:
+				if (!photo.getTags().contains(tag)) {
+					photo.getTags().add(tag);
+					TagIndex.tagAdded(user, photo, tag);
+				}
+				break;
+			default:
+				if (photo.getTags().remove(tag)) {
+					TagIndex.tagRemoved(user, photo, tag);
+				}
+			}
+			assertEquals("after step " + step, postings(afresh(user)), postings(index));
+		}
+	}
+
+	/**
+	 * Builds the index of a user's albums as they are now
+	 */
+	private static TagIndex afresh(User user) {
+		User copy = new User(user.getUsername());
+		copy.getAlbums().addAll(user.getAlbums());
+		return TagIndex.of(copy);
+	}
+
+	private static Map<Tag, Set<Photo>> postings(TagIndex index) {
+		return new HashMap<>(index.getPostings());
+	}
+
+	private static Photo photo(String name, Tag... tags) {
+		return new Photo(name, "00" + name, "", Calendar.getInstance(), new ArrayList<>(Arrays.asList(tags)));
+	}
+
+	private static Album album(String name, Photo... photos) {
+		Album album = new Album(name);
+		album.getPhotos().addAll(Arrays.asList(photos));
+		return album;
+	}
+
+	private static User user(Album... albums) {
+		User user = new User("ann");
+		user.getAlbums().addAll(Arrays.asList(albums));
+		return user;
+	}
+
+	@SafeVarargs
+	private static <T> Set<T> set(T... elements) {
+		return new HashSet<>(Arrays.asList(elements));
+	}
+}
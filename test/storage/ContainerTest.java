@@ -0,0 +1,100 @@
+package storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests that a container gives back the sections it was written with and refuses
+ * headers it cannot trust
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ContainerTest {
+
+	private static final int MAGIC = 0x54455354; // "TEST"
+
+	@Test
+	public void roundTripsSections() throws IOException {
+		byte[] written = new Container.Writer(MAGIC, 3)
+				.addSection(7, new byte[] { 1, 2, 3 })
+				.addSection(2, new byte[0])
+				.addSection(9, new byte[] { 4 })
+				.toByteArray();
+
+		Container container = Container.read(ByteBuffer.wrap(written), MAGIC, 3);
+		assertEquals(3, container.getVersion());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, bytes(container.section(7)));
+		assertArrayEquals(new byte[0], bytes(container.requireSection(2)));
+		assertArrayEquals(new byte[] { 4 }, bytes(container.section(9)));
+		assertNull(container.section(1));
+		// each call hands out its own view of the section
+		container.section(7).get();
+		assertEquals(3, container.section(7).remaining());
+	}
+
+	@Test
+	public void readsAContainerBehindOtherData() throws IOException {
+		byte[] written = new Container.Writer(MAGIC, 1).addSection(1, new byte[] { 5, 6 }).toByteArray();
+		ByteBuffer data = ByteBuffer.allocate(written.length + 10);
+		data.position(10);
+		data.put(written).position(10);
+
+		assertArrayEquals(new byte[] { 5, 6 }, bytes(Container.read(data, MAGIC, 1).section(1)));
+	}
+
+	@Test
+	public void recognizesItsMagicNumber() {
+		byte[] written = new Container.Writer(MAGIC, 1).toByteArray();
+		assertTrue(Container.isContainer(ByteBuffer.wrap(written), MAGIC));
+		assertFalse(Container.isContainer(ByteBuffer.wrap(written), MAGIC + 1));
+		assertFalse(Container.isContainer(ByteBuffer.wrap(new byte[] { 0x54, 0x45, 0x53, 0x54 }), MAGIC));
+	}
+
+	@Test
+	public void refusesAMissingSection() throws IOException {
+		Container container = Container.read(ByteBuffer.wrap(new Container.Writer(MAGIC, 1).toByteArray()), MAGIC, 1);
+		try {
+			container.requireSection(1);
+			fail("found a section that was never written");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void refusesHeadersItCannotTrust() {
+		byte[] written = new Container.Writer(MAGIC, 2).addSection(1, new byte[] { 1, 2, 3, 4 }).toByteArray();
+		assertRefused(written, MAGIC + 1, 2); // another kind of file
+		assertRefused(written, MAGIC, 1); // a newer schema
+		assertRefused(Arrays.copyOf(written, 20), MAGIC, 2); // header cut short
+		assertRefused(Arrays.copyOf(written, written.length - 1), MAGIC, 2); // section cut short
+		byte[] negative = written.clone();
+		ByteBuffer.wrap(negative).putLong(24, -1); // length of the section
+		assertRefused(negative, MAGIC, 2);
+	}
+
+	private static void assertRefused(byte[] data, int magic, int maxVersion) {
+		try {
+			Container.read(ByteBuffer.wrap(data), magic, maxVersion);
+			fail("read a container that should have been refused");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static byte[] bytes(ByteBuffer section) {
+		byte[] bytes = new byte[section.remaining()];
+		section.get(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,167 @@
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import model.Album;
+import model.Photo;
+import model.User;
+
+/**
+ * Tests that the duplicate index counts the album entries of every image across
+ * copies, removals, replays and removed users, and that the images it reports as
+ * shared are checked against the albums of their users
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class DuplicateIndexTest {
+
+	@BeforeClass
+	public static void scratch() {
+		Fixtures.assumeScratchDirectory();
+	}
+
+	@Test
+	public void findsTheAlbumsShowingAnImage() {
+		Photo beach = Fixtures.photo("dup-beach");
+		User ann = Fixtures.user("dup-ann", Fixtures.album("trip", beach, Fixtures.photo("dup-snow")), Fixtures.album("best", beach));
+		User bob = Fixtures.user("dup-bob", Fixtures.album("farm", Fixtures.photo("dup-field")));
+		library(ann, bob);
+
+		assertEquals(ann.getAlbums(), DuplicateIndex.albumsWith(ann, beach.getImageKey()));
+		assertTrue(DuplicateIndex.albumsWith(bob, beach.getImageKey()).isEmpty());
+		assertTrue(DuplicateIndex.albumsWith(ann, Fixtures.key("dup-nowhere")).isEmpty());
+	}
+
+	@Test
+	public void countsCopiesAndRemovals() throws IOException {
+		Photo beach = Fixtures.photo("dup-copied");
+		User ann = Fixtures.user("dup-cara", Fixtures.album("trip", beach), Fixtures.album("best"));
+		library(ann);
+		User before = Fixtures.user("dup-cara", Fixtures.album("trip", beach)); // the albums as they were, to tell the index from a scan
+		File pixels = cached("data/pixels/" + beach.getImageKey() + ".argb");
+		File pyramid = cached("data/pyramids/" + beach.getImageKey().substring(0, 2) + "/" + beach.getImageKey() + ".pyramid");
+
+		ann.getAlbums().get(1).getPhotos().add(beach);
+		record(ann, new Operation.CopyPhoto("dup-cara", "trip", 0, "best"), beach, 1);
+		assertEquals(ann.getAlbums(), DuplicateIndex.albumsWith(ann, beach.getImageKey()));
+
+		ann.getAlbums().get(0).getPhotos().remove(0);
+		record(ann, new Operation.RemovePhoto("dup-cara", "trip", 0), beach, -1);
+		assertEquals(1, DuplicateIndex.albumsWith(before, beach.getImageKey()).size());
+		assertTrue(pixels.exists());
+
+		ann.getAlbums().get(1).getPhotos().remove(0);
+		record(ann, new Operation.RemovePhoto("dup-cara", "best", 0), beach, -1);
+		assertTrue(DuplicateIndex.albumsWith(before, beach.getImageKey()).isEmpty());
+		assertFalse("the decoded pixels of an image nobody shows are deleted", pixels.exists());
+		assertFalse(pyramid.exists());
+	}
+
+	@Test
+	public void countsAReplayedOperationOnce() throws IOException {
+		Photo beach = Fixtures.photo("dup-replayed");
+		User dan = Fixtures.user("dup-dan", Fixtures.album("trip", beach), Fixtures.album("best"));
+		library(dan);
+		User before = Fixtures.user("dup-dan", Fixtures.album("trip", beach));
+
+		dan.getAlbums().get(1).getPhotos().add(beach);
+		record(dan, new Operation.CopyPhoto("dup-dan", "trip", 0, "best"), beach, 1);
+		Repositories.get().readUser("dup-dan"); // replays the copy from the journal
+
+		dan.getAlbums().get(0).getPhotos().remove(0);
+		record(dan, new Operation.RemovePhoto("dup-dan", "trip", 0), beach, -1);
+		dan.getAlbums().get(1).getPhotos().remove(0);
+		record(dan, new Operation.RemovePhoto("dup-dan", "best", 0), beach, -1);
+		assertTrue(DuplicateIndex.albumsWith(before, beach.getImageKey()).isEmpty());
+	}
+
+	@Test
+	public void reportsImagesSharedByUsers() {
+		User ann = Fixtures.user("dup-eve", Fixtures.album("trip", Fixtures.photo("dup-shared"), Fixtures.photo("dup-own")));
+		User bob = Fixtures.user("dup-fay", Fixtures.album("farm", Fixtures.photo("dup-shared")));
+		User gone = Fixtures.user("dup-gil", Fixtures.album("old", Fixtures.photo("dup-shared"), Fixtures.photo("dup-own")));
+		library(ann, bob);
+		// the index counts a user whose shard no longer has the photos, as a stale count would
+		DuplicateIndex.rebuild(Arrays.asList(ann, bob, gone));
+
+		List<Map.Entry<String, Set<String>>> shared = DuplicateIndex.sharedImages();
+		assertEquals(1, shared.size());
+		assertEquals("dup-shared", shared.get(0).getKey());
+		assertEquals(new HashSet<>(Arrays.asList("dup-eve", "dup-fay")), shared.get(0).getValue());
+		assertTrue("the stale count was corrected", DuplicateIndex.albumsWith(gone, Fixtures.key("dup-own")).isEmpty());
+	}
+
+	@Test
+	public void forgetsARemovedUser() {
+		User ann = Fixtures.user("dup-hal", Fixtures.album("trip", Fixtures.photo("dup-kept")));
+		User bob = Fixtures.user("dup-ivy", Fixtures.album("farm", Fixtures.photo("dup-kept")));
+		library(ann, bob);
+		assertEquals(1, DuplicateIndex.sharedImages().size());
+
+		Repositories.get().removeUser("dup-ivy");
+		DuplicateIndex.removeUser("dup-ivy");
+		assertTrue(DuplicateIndex.albumsWith(bob, Fixtures.key("dup-kept")).isEmpty());
+		assertEquals(1, DuplicateIndex.albumsWith(ann, Fixtures.key("dup-kept")).size());
+		assertTrue(DuplicateIndex.sharedImages().isEmpty());
+	}
+
+	/**
+	 * Saves users as the whole library and indexes them
+	 */
+	private static void library(User... users) {
+		for (User user : users) {
+			Repositories.get().addUser(user);
+		}
+		ArrayList<User> indexed = new ArrayList<>();
+		for (User user : users) {
+			indexed.add(copyOf(user));
+		}
+		DuplicateIndex.rebuild(indexed);
+	}
+
+	/**
+	 * Returns a user with the same albums, so later edits of the test do not change
+	 * what was indexed
+	 */
+	private static User copyOf(User user) {
+		User copy = new User(user.getUsername());
+		for (Album album : user.getAlbums()) {
+			copy.getAlbums().add(Fixtures.album(album.getName(), album.getPhotos().toArray(new Photo[0])));
+		}
+		return copy;
+	}
+
+	/**
+	 * Journals an edit already made to a user and counts it, as the controllers do
+	 */
+	private static void record(User user, Operation op, Photo photo, int count) {
+		Repositories.get().record(user, op);
+		if (count > 0) {
+			DuplicateIndex.photoAdded(op, photo);
+		} else {
+			DuplicateIndex.photoRemoved(op, photo);
+		}
+	}
+
+	private static File cached(String path) throws IOException {
+		File file = new File(path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), new byte[16]);
+		return file;
+	}
+}
@@ -0,0 +1,66 @@
+package storage;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that a file cache deletes the files used least recently once it is over budget
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class FileCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void deletesTheFilesUsedLeastRecently() throws IOException {
+		File old = file("ab/old.argb", 100, 1000);
+		File used = file("ab/used.argb", 100, 2000);
+		File recent = file("cd/recent.argb", 100, 3000);
+		FileCache.touch(used.toPath());
+
+		FileCache.trim(folder.getRoot(), 250, null);
+		assertFalse(old.exists());
+		assertTrue(used.exists());
+		assertTrue(recent.exists());
+
+		FileCache.trim(folder.getRoot(), 150, null);
+		assertFalse(recent.exists());
+		assertTrue(used.exists());
+	}
+
+	@Test
+	public void keepsTheFileJustWritten() throws IOException {
+		File written = file("new.argb", 300, 1000);
+		File other = file("other.argb", 100, 2000);
+
+		FileCache.trim(folder.getRoot(), 200, written.toPath());
+		assertTrue(written.exists());
+		assertFalse(other.exists());
+	}
+
+	@Test
+	public void leavesTemporaryFiles() throws IOException {
+		File temp = file("half.argb.tmp", 1000, 1000);
+
+		FileCache.trim(folder.getRoot(), 0, null);
+		assertTrue(temp.exists());
+	}
+
+	private File file(String path, int length, long modified) throws IOException {
+		File file = new File(folder.getRoot(), path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), new byte[length]);
+		file.setLastModified(modified);
+		return file;
+	}
+}
@@ -0,0 +1,82 @@
+package storage;
+
+import static org.junit.Assume.assumeFalse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * Builds small libraries for the storage tests, out of photos whose images are never
+ * read
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+class Fixtures {
+
+	/**
+	 * Skips a test that writes under data/ unless it runs from a scratch directory, so
+	 * the tests never touch the library of a checkout
+	 */
+	static void assumeScratchDirectory() {
+		assumeFalse("run the tests from a scratch directory", new File("src").isDirectory());
+	}
+
+	/**
+	 * Returns a photo with a made up blob key, the same for the same name
+	 * @param name the name of the photo
+	 * @param tags name and value pairs
+	 * @return the photo
+	 */
+	static Photo photo(String name, String... tags) {
+		ArrayList<Tag> tagList = new ArrayList<>();
+		for (int i = 0; i + 1 < tags.length; i += 2) {
+			tagList.add(new Tag(tags[i], tags[i + 1]));
+		}
+		Calendar date = Calendar.getInstance();
+		date.setTimeInMillis(1700000000000L + name.hashCode() * 1000L);
+		return new Photo(name, key(name), "caption of " + name, date, tagList);
+	}
+
+	/**
+	 * Returns the made up blob key of the photo of a name
+	 * @param name the name of the photo
+	 * @return 64 hex digits
+	 */
+	static String key(String name) {
+		return String.format("%064x", name.hashCode() & 0xffffffffL);
+	}
+
+	/**
+	 * Returns an album holding photos
+	 * @param name the name of the album
+	 * @param photos the photos
+	 * @return the album
+	 */
+	static Album album(String name, Photo... photos) {
+		Album album = new Album(name);
+		for (Photo photo : photos) {
+			album.getPhotos().add(photo);
+		}
+		return album;
+	}
+
+	/**
+	 * Returns a user with albums
+	 * @param username the name of the user
+	 * @param albums the albums
+	 * @return the user
+	 */
+	static User user(String username, Album... albums) {
+		User user = new User(username);
+		for (Album album : albums) {
+			user.getAlbums().add(album);
+		}
+		return user;
+	}
+}
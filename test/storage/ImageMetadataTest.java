@@ -0,0 +1,202 @@
+package storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Tests that the size, orientation and capture date of an image are read from the
+ * header of each supported format, and that pixels are turned upright by orientation
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ImageMetadataTest {
+
+	@Test
+	public void readsAJpegWithExif() throws IOException {
+		byte[] tiff = exif(ByteOrder.BIG_ENDIAN, 6, "2021:07:04 12:30:45", "+02:00");
+		ImageMetadata metadata = read(jpeg(400, 300, tiff));
+		assertEquals(400, metadata.getWidth());
+		assertEquals(300, metadata.getHeight());
+		assertEquals(6, metadata.getOrientation());
+		long taken = OffsetDateTime.of(2021, 7, 4, 12, 30, 45, 0, ZoneOffset.ofHours(2)).toInstant().toEpochMilli();
+		assertEquals(taken, metadata.getCaptureDate().getTimeInMillis());
+	}
+
+	@Test
+	public void readsLittleEndianExifInLocalTime() throws IOException {
+		ImageMetadata metadata = read(jpeg(64, 48, exif(ByteOrder.LITTLE_ENDIAN, 3, "2019:12:31 23:59:58", null)));
+		assertEquals(3, metadata.getOrientation());
+		Calendar taken = metadata.getCaptureDate();
+		assertEquals(2019, taken.get(Calendar.YEAR));
+		assertEquals(Calendar.DECEMBER, taken.get(Calendar.MONTH));
+		assertEquals(31, taken.get(Calendar.DAY_OF_MONTH));
+		assertEquals(23, taken.get(Calendar.HOUR_OF_DAY));
+		assertEquals(58, taken.get(Calendar.SECOND));
+	}
+
+	@Test
+	public void readsAJpegWithoutExif() throws IOException {
+		ImageMetadata metadata = read(encode(new BufferedImage(33, 17, BufferedImage.TYPE_INT_RGB), "jpg"));
+		assertEquals(33, metadata.getWidth());
+		assertEquals(17, metadata.getHeight());
+		assertEquals(ImageMetadata.NORMAL, metadata.getOrientation());
+		assertNull(metadata.getCaptureDate());
+	}
+
+	@Test
+	public void ignoresABrokenExifBlock() throws IOException {
+		byte[] tiff = exif(ByteOrder.BIG_ENDIAN, 8, "2021:07:04 12:30:45", null);
+		ByteBuffer.wrap(tiff).putInt(4, 5000); // the first directory lies past the end
+		ImageMetadata metadata = read(jpeg(10, 20, tiff));
+		assertEquals(10, metadata.getWidth());
+		assertEquals(ImageMetadata.NORMAL, metadata.getOrientation());
+		assertNull(metadata.getCaptureDate());
+	}
+
+	@Test
+	public void readsPngGifAndBmp() throws IOException {
+		for (String format : new String[] { "png", "gif", "bmp" }) {
+			ImageMetadata metadata = read(encode(new BufferedImage(7, 5, BufferedImage.TYPE_INT_RGB), format));
+			assertEquals(format, 7, metadata.getWidth());
+			assertEquals(format, 5, metadata.getHeight());
+			assertEquals(format, ImageMetadata.NORMAL, metadata.getOrientation());
+		}
+	}
+
+	@Test
+	public void readsThePngExifChunk() throws IOException {
+		byte[] tiff = exif(ByteOrder.BIG_ENDIAN, 8, "2020:02:29 08:00:00", "+00:00");
+		ByteBuffer png = ByteBuffer.allocate(8 + 25 + 12 + tiff.length + 12);
+		png.putLong(0x89504e470d0a1a0aL);
+		png.putInt(13).put(ascii("IHDR")).putInt(1024).putInt(768).put(new byte[] { 8, 2, 0, 0, 0 }).putInt(0);
+		png.putInt(tiff.length).put(ascii("eXIf")).put(tiff).putInt(0);
+		png.putInt(0).put(ascii("IDAT")).putInt(0);
+
+		ImageMetadata metadata = read(png.array());
+		assertEquals(1024, metadata.getWidth());
+		assertEquals(768, metadata.getHeight());
+		assertEquals(8, metadata.getOrientation());
+		assertEquals(OffsetDateTime.of(2020, 2, 29, 8, 0, 0, 0, ZoneOffset.UTC).toInstant().toEpochMilli(),
+				metadata.getCaptureDate().getTimeInMillis());
+	}
+
+	@Test
+	public void readsATopDownBmp() throws IOException {
+		ByteBuffer bmp = ByteBuffer.allocate(54).order(ByteOrder.LITTLE_ENDIAN);
+		bmp.put(ascii("BM")).position(14);
+		bmp.putInt(40).putInt(320).putInt(-240);
+
+		ImageMetadata metadata = read(bmp.array());
+		assertEquals(320, metadata.getWidth());
+		assertEquals(240, metadata.getHeight());
+	}
+
+	@Test
+	public void refusesWhatItCannotRead() {
+		byte[] jpeg = jpeg(400, 300, exif(ByteOrder.BIG_ENDIAN, 1, "2021:07:04 12:30:45", null));
+		for (byte[] data : new byte[][] { ascii("not an image"), Arrays.copyOf(jpeg, 12), jpeg(0, 0, new byte[0]) }) {
+			try {
+				read(data);
+				fail("read " + data.length + " bytes that are no image");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void turnsPixelsUpright() {
+		// a b c
+		// d e f
+		int[] stored = { 'a', 'b', 'c', 'd', 'e', 'f' };
+		assertSame(stored, ImageMetadata.orient(stored, 3, 2, ImageMetadata.NORMAL));
+		assertOriented("cbafed", stored, 2);
+		assertOriented("fedcba", stored, 3);
+		assertOriented("defabc", stored, 4);
+		assertOriented("adbecf", stored, 5);
+		assertOriented("daebfc", stored, 6);
+		assertOriented("fcebda", stored, 7);
+		assertOriented("cfbead", stored, 8);
+	}
+
+	private static void assertOriented(String expected, int[] stored, int orientation) {
+		assertArrayEquals("orientation " + orientation, expected.chars().toArray(), ImageMetadata.orient(stored, 3, 2, orientation));
+	}
+
+	private static ImageMetadata read(byte[] data) throws IOException {
+		return ImageMetadata.read(new ByteArrayInputStream(data));
+	}
+
+	private static byte[] encode(BufferedImage image, String format) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(image, format, bytes);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the header of a JPEG file: an EXIF segment, if any, the frame size and
+	 * the start of scan
+	 */
+	private static byte[] jpeg(int width, int height, byte[] tiff) {
+		ByteBuffer jpeg = ByteBuffer.allocate(2 + (tiff.length > 0 ? 10 + tiff.length : 0) + 19 + 4);
+		jpeg.putShort((short) 0xffd8);
+		if (tiff.length > 0) {
+			jpeg.putShort((short) 0xffe1).putShort((short) (8 + tiff.length)).put(ascii("Exif\0\0")).put(tiff);
+		}
+		jpeg.putShort((short) 0xffc0).putShort((short) 17).put((byte) 8).putShort((short) height).putShort((short) width)
+				.put(new byte[10]);
+		jpeg.putShort((short) 0xffda).putShort((short) 2);
+		return jpeg.array();
+	}
+
+	/**
+	 * Returns an EXIF block holding an orientation in the first directory, and the
+	 * date the photo was taken with its offset from UTC in the EXIF directory
+	 */
+	private static byte[] exif(ByteOrder order, int orientation, String taken, String offset) {
+		ByteBuffer tiff = ByteBuffer.allocate(128).order(order);
+		tiff.putShort(order == ByteOrder.BIG_ENDIAN ? (short) 0x4d4d : (short) 0x4949).putShort((short) 42).putInt(8);
+		int exifIfd = 8 + 2 + 2 * 12 + 4;
+		tiff.putShort((short) 2);
+		tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+		tiff.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(exifIfd);
+		tiff.putInt(0);
+		int data = exifIfd + 2 + 2 * 12 + 4;
+		tiff.putShort((short) (offset != null ? 2 : 1));
+		tiff.putShort((short) 0x9003).putShort((short) 2).putInt(taken.length() + 1).putInt(data);
+		if (offset != null) {
+			tiff.putShort((short) 0x9011).putShort((short) 2).putInt(offset.length() + 1).putInt(data + taken.length() + 1);
+		} else {
+			tiff.put(new byte[12]); // keeps the data where the two entry layout puts it
+		}
+		tiff.putInt(0);
+		tiff.put(ascii(taken + "\0"));
+		if (offset != null) {
+			tiff.put(ascii(offset + "\0"));
+		}
+		return Arrays.copyOf(tiff.array(), tiff.position());
+	}
+
+	private static byte[] ascii(String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,130 @@
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * Tests that a journal replays what was appended to it, skips what a checkpoint
+ * already holds and survives a record torn by a crash
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class JournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replaysOperationsInOrder() throws IOException {
+		File file = folder.newFile("journal.dat");
+		Journal journal = new Journal(file);
+		journal.append(new Operation.AddAlbum("ann", "trip"));
+		journal.append(new Operation.AddPhoto("ann", "trip", Fixtures.photo("beach")));
+		journal.append(new Operation.AddAlbum("ann", "home"));
+		journal.append(new Operation.CopyPhoto("ann", "trip", 0, "home"));
+		journal.append(new Operation.RenameAlbum("ann", "trip", "holiday"));
+		journal.append(new Operation.AddTag("ann", "home", 0, new Tag("Person", "Bea")));
+		PersistenceService.flush();
+
+		User ann = replay(file, 0);
+		assertEquals(2, ann.getAlbums().size());
+		assertEquals("holiday", ann.getAlbums().get(0).getName());
+		Photo beach = ann.getAlbums().get(0).getPhotos().get(0);
+		assertSame("a copy shares the photo", beach, ann.getAlbums().get(1).getPhotos().get(0));
+		assertTrue(beach.getTags().contains(new Tag("Person", "Bea")));
+	}
+
+	@Test
+	public void skipsOperationsInTheCheckpoint() throws IOException {
+		File file = folder.newFile("journal.dat");
+		Journal journal = new Journal(file);
+		journal.append(new Operation.AddAlbum("ann", "one"));
+		journal.append(new Operation.AddAlbum("ann", "two"));
+		journal.append(new Operation.AddAlbum("ann", "three"));
+		PersistenceService.flush();
+
+		assertEquals(3, journal.getSequence());
+		assertEquals(1, new Journal(file).read(2).size());
+		User ann = replay(file, 2);
+		assertEquals(1, ann.getAlbums().size());
+		assertEquals("three", ann.getAlbums().get(0).getName());
+	}
+
+	@Test
+	public void continuesTheSequenceAfterReplay() throws IOException {
+		File file = folder.newFile("journal.dat");
+		Journal journal = new Journal(file);
+		journal.append(new Operation.AddAlbum("ann", "one"));
+		PersistenceService.flush();
+
+		Journal reopened = new Journal(file);
+		ArrayList<User> users = users();
+		reopened.replay(users, 0);
+		Operation op = new Operation.AddAlbum("ann", "two");
+		reopened.append(op);
+		assertEquals(2, op.getSequence());
+		assertEquals(2, reopened.getRecordCount());
+	}
+
+	@Test
+	public void ignoresATornRecord() throws IOException {
+		File file = folder.newFile("journal.dat");
+		Journal journal = new Journal(file);
+		journal.append(new Operation.AddAlbum("ann", "one"));
+		journal.append(new Operation.AddAlbum("ann", "two"));
+		PersistenceService.flush();
+
+		// cut the last record short, as a crash in the middle of an append would
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+		User ann = replay(file, 0);
+		assertEquals(1, ann.getAlbums().size());
+
+		// a length prefix without its record
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(new byte[] { 0, 0, 1, 0 });
+		out.close();
+		assertEquals(1, new Journal(file).read(0).size());
+	}
+
+	@Test
+	public void resetDeletesTheFile() throws IOException {
+		File file = folder.newFile("journal.dat");
+		Journal journal = new Journal(file);
+		journal.append(new Operation.AddAlbum("ann", "one"));
+		journal.reset();
+		PersistenceService.flush();
+
+		assertTrue(!file.exists());
+		assertEquals(0, journal.getRecordCount());
+		assertEquals(1, journal.getSequence());
+	}
+
+	private static User replay(File file, long checkpointSequence) {
+		ArrayList<User> users = users();
+		new Journal(file).replay(users, checkpointSequence);
+		return users.get(0);
+	}
+
+	private static ArrayList<User> users() {
+		ArrayList<User> users = new ArrayList<>();
+		users.add(new User("ann"));
+		return users;
+	}
+}
@@ -0,0 +1,130 @@
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import model.Album;
+import model.Photo;
+import model.SerializableImage;
+import model.User;
+
+/**
+ * Tests that a legacy data file holding several users, with images in the old
+ * column-major grid, is migrated into shards along with its journal
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class LegacyMigrationTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void scratch() {
+		Fixtures.assumeScratchDirectory();
+	}
+
+	@Test
+	public void migratesEveryUserAndTheJournal() throws Exception {
+		Photo beach = legacyPhoto("legacy-beach", 3, 2, 0xff000000);
+		Photo snow = legacyPhoto("legacy-snow", 2, 4, 0xff100000);
+		Photo field = legacyPhoto("legacy-field", 5, 1, 0xff200000);
+		ArrayList<User> users = new ArrayList<>();
+		users.add(Fixtures.user("legacy-ann", Fixtures.album("trip", beach, snow), Fixtures.album("best", snow)));
+		users.add(Fixtures.user("legacy-bob", Fixtures.album("farm", field)));
+		users.add(Fixtures.user("legacy-cara"));
+		File data = folder.newFile("data.dat");
+		ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(data));
+		out.writeObject(users);
+		out.writeLong(1); // the first record of the journal is already in data.dat
+		out.close();
+
+		File journalFile = new File(folder.getRoot(), "journal.dat");
+		Journal journal = new Journal(journalFile);
+		journal.append(new Operation.AddAlbum("legacy-ann", "in the checkpoint"));
+		journal.append(new Operation.RenameAlbum("legacy-ann", "trip", "holiday"));
+		journal.append(new Operation.AddAlbum("legacy-bob", "barn"));
+		journal.append(new Operation.RemoveUser("legacy-cara"));
+		journal.append(new Operation.AddUser("legacy-dan"));
+		PersistenceService.flush();
+
+		LegacyMigration.migrate(data, journalFile);
+		assertFalse(journalFile.exists());
+		ArrayList<String> index = ShardStore.readIndex();
+		assertTrue(index.contains("legacy-ann"));
+		assertTrue(index.contains("legacy-bob"));
+		assertTrue(index.contains("legacy-dan"));
+		assertFalse(index.contains("legacy-cara"));
+		assertNull(ShardStore.readUser("legacy-cara"));
+
+		User ann = ShardStore.readUser("legacy-ann");
+		assertEquals(2, ann.getAlbums().size());
+		Album holiday = ann.getAlbums().get(0);
+		assertEquals("holiday", holiday.getName());
+		assertSame("a shared photo stays one photo", holiday.getPhotos().get(1), ann.getAlbums().get(1).getPhotos().get(0));
+		assertMigrated(3, 2, 0xff000000, beach, holiday.getPhotos().get(0));
+		assertMigrated(2, 4, 0xff100000, snow, holiday.getPhotos().get(1));
+
+		User bob = ShardStore.readUser("legacy-bob");
+		assertEquals(2, bob.getAlbums().size());
+		assertEquals("barn", bob.getAlbums().get(1).getName());
+		assertMigrated(5, 1, 0xff200000, field, bob.getAlbums().get(0).getPhotos().get(0));
+		assertEquals(0, ShardStore.readUser("legacy-dan").getAlbums().size());
+	}
+
+	/**
+	 * Returns a photo as it was saved before the blob store, holding its image as a
+	 * grid of columns
+	 */
+	private static Photo legacyPhoto(String name, int width, int height, int base) throws ReflectiveOperationException {
+		int[][] pixels = new int[width][height];
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				pixels[x][y] = base + y * width + x;
+			}
+		}
+		SerializableImage image = new SerializableImage(0, 0, new int[0]);
+		set(image, "width", width);
+		set(image, "height", height);
+		set(image, "pixels", pixels);
+		set(image, "argb", null);
+		Photo photo = Fixtures.photo(name);
+		set(photo, "image", image);
+		set(photo, "imageKey", null);
+		return photo;
+	}
+
+	private static void set(Object object, String name, Object value) throws ReflectiveOperationException {
+		Field field = object.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(object, value);
+	}
+
+	private static void assertMigrated(int width, int height, int base, Photo legacy, Photo migrated) throws IOException {
+		int[] argb = new int[width * height];
+		for (int i = 0; i < argb.length; i++) {
+			argb[i] = base + i;
+		}
+		String key = BlobStore.put(ImageCodec.encodePixels(new SerializableImage(width, height, argb)));
+		assertEquals(key, migrated.getImageKey());
+		assertEquals(width, migrated.getWidth());
+		assertEquals(height, migrated.getHeight());
+		assertEquals(legacy.getName(), migrated.getName());
+		assertEquals(legacy.getDate().getTimeInMillis(), migrated.getDate().getTimeInMillis());
+	}
+}
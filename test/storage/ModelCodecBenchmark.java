@@ -0,0 +1,87 @@
+package storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import model.User;
+
+/**
+ * Times saving and loading a synthetic library with the model codec against Java
+ * serialization, the format shards were written in before it.
+ *
+ * Run it from a scratch directory: java storage.ModelCodecBenchmark [albums [photos per album [rounds]]]
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ModelCodecBenchmark {
+
+	/**
+	 * Prints the median time of an encode and a decode in both formats, and the size
+	 * of the encoded library
+	 * @param args the number of albums, photos per album and timed rounds, 100, 500 and 10 if left out
+	 * @throws Exception if the library cannot be serialized
+	 */
+	public static void main(String[] args) throws Exception {
+		int albums = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int photos = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		User user = ModelCodecTest.library(albums, photos);
+
+		byte[] encoded = null, serialized = null;
+		long[][] times = new long[4][rounds]; // codec save and load, serialization save and load
+		for (int round = -3; round < rounds; round++) { // the first rounds warm up the JIT
+			System.gc();
+			long start = System.nanoTime();
+			encoded = ModelCodec.encode(user, 1);
+			long encodedAt = System.nanoTime();
+			ModelCodec.decode(ByteBuffer.wrap(encoded));
+			long decodedAt = System.nanoTime();
+			System.gc();
+			long serializing = System.nanoTime();
+			serialized = serialize(user);
+			long serializedAt = System.nanoTime();
+			deserialize(serialized);
+			long deserializedAt = System.nanoTime();
+			if (round >= 0) {
+				times[0][round] = encodedAt - start;
+				times[1][round] = decodedAt - encodedAt;
+				times[2][round] = serializedAt - serializing;
+				times[3][round] = deserializedAt - serializedAt;
+			}
+		}
+		double[] medians = new double[4];
+		for (int i = 0; i < 4; i++) {
+			Arrays.sort(times[i]);
+			medians[i] = times[i][rounds / 2] / 1e6;
+		}
+		System.out.printf("%d albums x %d photos, median of %d rounds%n", albums, photos, rounds);
+		System.out.printf("ModelCodec:    save %6.1f ms, load %6.1f ms, %,d bytes%n", medians[0], medians[1], encoded.length);
+		System.out.printf("Serialization: save %6.1f ms, load %6.1f ms, %,d bytes%n", medians[2], medians[3], serialized.length);
+		System.out.printf("Speedup: save %.1fx, load %.1fx%n", medians[2] / medians[0], medians[3] / medians[1]);
+	}
+
+	private static byte[] serialize(User user) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(user);
+		out.writeLong(1);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static User deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			User user = (User) in.readObject();
+			in.readLong();
+			return user;
+		} finally {
+			in.close();
+		}
+	}
+}
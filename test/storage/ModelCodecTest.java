@@ -0,0 +1,149 @@
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * Tests that a user encoded by the model codec decodes to the same albums, photos
+ * and tags, and that damaged data is refused rather than misread
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ModelCodecTest {
+
+	@Test
+	public void roundTripsAUser() throws IOException {
+		Photo beach = Fixtures.photo("beach", "Location", "Nice", "Person", "Bea");
+		Photo snow = Fixtures.photo("snow", "Location", "Zermatt");
+		snow.setCaption("caption with \u00fcn\u00efc\u00f6d\u00e9 and \u6f22\u5b57");
+		User user = Fixtures.user("ann", Fixtures.album("trip", beach, snow), Fixtures.album("empty"),
+				Fixtures.album("best", snow));
+
+		ModelCodec.Checkpoint checkpoint = decode(ModelCodec.encode(user, 1234567890123L));
+		assertEquals(1234567890123L, checkpoint.sequence);
+		User read = checkpoint.user;
+		assertEquals("ann", read.getUsername());
+		assertEquals(3, read.getAlbums().size());
+		assertEquals(0, read.getAlbums().get(1).getPhotos().size());
+		Album trip = read.getAlbums().get(0);
+		assertEquals("trip", trip.getName());
+		assertEquals(2, trip.getPhotoCount());
+		assertSame("a shared photo stays one photo", trip.getPhotos().get(1), read.getAlbums().get(2).getPhotos().get(0));
+		assertPhoto(beach, trip.getPhotos().get(0));
+		assertPhoto(snow, trip.getPhotos().get(1));
+	}
+
+	@Test
+	public void keepsSizeOrientationAndHash() throws IOException {
+		Photo known = Fixtures.photo("known");
+		known.setSize(4000, 3000);
+		known.setOrientation(6);
+		known.setPerceptualHash(0x8000000000000001L);
+		Photo unknown = Fixtures.photo("unknown");
+
+		User read = decode(ModelCodec.encode(Fixtures.user("ann", Fixtures.album("a", known, unknown)), 0)).user;
+		Photo knownRead = read.getAlbums().get(0).getPhotos().get(0);
+		assertTrue(knownRead.hasSize());
+		assertEquals(4000, knownRead.getWidth());
+		assertEquals(3000, knownRead.getHeight());
+		assertEquals(6, knownRead.getOrientation());
+		assertEquals(0x8000000000000001L, knownRead.getPerceptualHash());
+		Photo unknownRead = read.getAlbums().get(0).getPhotos().get(1);
+		assertFalse(unknownRead.hasSize());
+		assertFalse(unknownRead.hasOrientation());
+		assertFalse(unknownRead.hasPerceptualHash());
+	}
+
+	@Test
+	public void roundTripsALargeLibrary() throws IOException {
+		User user = library(20, 300);
+		byte[] encoded = ModelCodec.encode(user, 7);
+		User read = decode(encoded).user;
+		assertEquals(20, read.getAlbums().size());
+		for (int a = 0; a < 20; a++) {
+			Album album = user.getAlbums().get(a), albumRead = read.getAlbums().get(a);
+			assertEquals(album.getName(), albumRead.getName());
+			assertEquals(album.getPhotoCount(), albumRead.getPhotoCount());
+			for (int p = 0; p < album.getPhotoCount(); p++) {
+				assertPhoto(album.getPhotos().get(p), albumRead.getPhotos().get(p));
+			}
+		}
+		assertTrue(Arrays.equals(encoded, ModelCodec.encode(read, 7)));
+	}
+
+	@Test
+	public void refusesTruncatedData() {
+		byte[] encoded = ModelCodec.encode(library(2, 10), 1);
+		for (int length : new int[] { 0, 3, 10, encoded.length / 2, encoded.length - 1 }) {
+			try {
+				decode(Arrays.copyOf(encoded, length));
+				fail("decoded " + length + " of " + encoded.length + " bytes");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void recognizesItsOwnData() {
+		assertTrue(ModelCodec.isEncoded(ByteBuffer.wrap(ModelCodec.encode(new User("ann"), 0))));
+		assertFalse(ModelCodec.isEncoded(ByteBuffer.wrap(new byte[] { (byte) 0xac, (byte) 0xed, 0, 5 })));
+		assertFalse(ModelCodec.isEncoded(ByteBuffer.wrap(new byte[0])));
+	}
+
+	/**
+	 * Builds a user whose photos are shared between neighbouring albums and share tags
+	 * @param albums the number of albums
+	 * @param photosPerAlbum the number of photos in each album
+	 * @return the user
+	 */
+	static User library(int albums, int photosPerAlbum) {
+		User user = new User("library");
+		Photo previous = null;
+		for (int a = 0; a < albums; a++) {
+			Album album = new Album("album " + a);
+			for (int p = 0; p < photosPerAlbum; p++) {
+				Photo photo = Fixtures.photo("photo " + a + "/" + p, "Location", "place " + (p % 17), "Person", "person " + (p % 5));
+				photo.setSize(6000 + p, 4000 + a);
+				photo.setOrientation(1 + p % 8);
+				album.getPhotos().add(photo);
+			}
+			if (previous != null) {
+				album.getPhotos().add(previous);
+			}
+			previous = album.getPhotos().get(0);
+			user.getAlbums().add(album);
+		}
+		return user;
+	}
+
+	private static ModelCodec.Checkpoint decode(byte[] encoded) throws IOException {
+		return ModelCodec.decode(ByteBuffer.wrap(encoded));
+	}
+
+	private static void assertPhoto(Photo expected, Photo actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getCaption(), actual.getCaption());
+		assertEquals(expected.getImageKey(), actual.getImageKey());
+		assertEquals(expected.getDate().getTimeInMillis(), actual.getDate().getTimeInMillis());
+		assertEquals(expected.getTags().size(), actual.getTags().size());
+		for (int i = 0; i < expected.getTags().size(); i++) {
+			Tag tag = expected.getTags().get(i);
+			assertEquals(tag, actual.getTags().get(i));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import model.Album;
+import model.Photo;
+import model.User;
+
+/**
+ * Tests that the shard store keeps each user in a shard of their own, replays their
+ * journal on read and folds it into the shard at a checkpoint
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ShardStoreTest {
+
+	@BeforeClass
+	public static void scratch() {
+		Fixtures.assumeScratchDirectory();
+	}
+
+	@Test
+	public void readsBackAnAddedUser() throws IOException {
+		Photo sea = Fixtures.photo("sea", "Location", "Nice");
+		User user = Fixtures.user("shard-add", Fixtures.album("a", sea), Fixtures.album("b", sea));
+		ShardStore.addUser(user);
+
+		User read = ShardStore.readUser("shard-add");
+		assertTrue(ShardStore.readIndex().contains("shard-add"));
+		assertEquals(2, read.getAlbums().size());
+		assertEquals(read.getAlbums().get(0).getPhotos().get(0), read.getAlbums().get(1).getPhotos().get(0));
+		assertNull(ShardStore.readUser("shard-nobody"));
+	}
+
+	@Test
+	public void replaysTheJournalOnRead() throws IOException {
+		User user = Fixtures.user("shard-journal", Fixtures.album("a"));
+		ShardStore.addUser(user);
+		Photo photo = Fixtures.photo("field");
+		user.getAlbums().get(0).getPhotos().add(photo);
+		ShardStore.record(user, new Operation.AddPhoto("shard-journal", "a", photo));
+		user.getAlbums().add(new Album("b"));
+		ShardStore.record(user, new Operation.AddAlbum("shard-journal", "b"));
+		assertTrue(ShardStore.isDirty("shard-journal"));
+
+		User read = ShardStore.readUser("shard-journal");
+		assertEquals(2, read.getAlbums().size());
+		assertEquals("field", read.getAlbums().get(0).getPhotos().get(0).getName());
+		// reading again replays the same records onto a fresh checkpoint, not twice
+		assertEquals(1, ShardStore.readUser("shard-journal").getAlbums().get(0).getPhotos().size());
+	}
+
+	@Test
+	public void checkpointsAfterEnoughOperations() throws IOException {
+		User user = Fixtures.user("shard-checkpoint");
+		ShardStore.addUser(user);
+		for (int i = 0; i < 100; i++) {
+			user.getAlbums().add(new Album("album " + i));
+			ShardStore.record(user, new Operation.AddAlbum("shard-checkpoint", "album " + i));
+		}
+		assertFalse("the journal was folded into the shard", ShardStore.isDirty("shard-checkpoint"));
+		user.getAlbums().add(new Album("after"));
+		ShardStore.record(user, new Operation.AddAlbum("shard-checkpoint", "after"));
+
+		User read = ShardStore.readUser("shard-checkpoint");
+		assertEquals(101, read.getAlbums().size());
+		assertEquals("after", read.getAlbums().get(100).getName());
+	}
+
+	@Test
+	public void writeUserDiscardsTheJournal() throws IOException {
+		User user = Fixtures.user("shard-write");
+		ShardStore.addUser(user);
+		user.getAlbums().add(new Album("a"));
+		ShardStore.record(user, new Operation.AddAlbum("shard-write", "a"));
+		ShardStore.writeUser(user);
+		assertFalse(ShardStore.isDirty("shard-write"));
+
+		assertEquals(1, ShardStore.readUser("shard-write").getAlbums().size());
+	}
+
+	@Test
+	public void removesAUser() throws IOException {
+		ShardStore.addUser(Fixtures.user("shard-remove", Fixtures.album("a")));
+		ShardStore.removeUser("shard-remove");
+		PersistenceService.flush();
+
+		assertFalse(ShardStore.readIndex().contains("shard-remove"));
+		assertNull(ShardStore.readUser("shard-remove"));
+	}
+}
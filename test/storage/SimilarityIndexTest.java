@@ -0,0 +1,127 @@
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import model.Photo;
+
+/**
+ * Tests that the similarity index finds exactly the photos a comparison with every
+ * photo would, and that photos it left out are added once hashed
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class SimilarityIndexTest {
+
+	@Test
+	public void findsWhatAComparisonWithEveryPhotoFinds() {
+		Random random = new Random(85);
+		SimilarityIndex index = new SimilarityIndex();
+		ArrayList<Photo> photos = new ArrayList<>();
+		for (int cluster = 0; cluster < 40; cluster++) {
+			long base = random.nextLong();
+			for (int i = 0; i < 25; i++) {
+				long hash = base;
+				for (int flips = random.nextInt(20); flips > 0; flips--) {
+					hash ^= 1L << random.nextInt(64);
+				}
+				Photo photo = hashed("photo " + cluster + "/" + i, hash);
+				photos.add(photo);
+				index.add(photo);
+			}
+		}
+		assertEquals(photos.size(), index.size());
+
+		for (int maxDistance : new int[] { 0, 3, SimilarityIndex.NEAR_DUPLICATE, 13, 20 }) {
+			for (Photo photo : photos.subList(0, 200)) {
+				HashSet<Photo> expected = new HashSet<>();
+				for (Photo other : photos) {
+					if (other != photo && distance(photo, other) <= maxDistance) {
+						expected.add(other);
+					}
+				}
+				List<Photo> found = index.similar(photo, maxDistance);
+				assertEquals("within " + maxDistance + " of " + photo.getName(), expected, new HashSet<>(found));
+				for (int i = 1; i < found.size(); i++) {
+					assertTrue("the most alike first", distance(photo, found.get(i - 1)) <= distance(photo, found.get(i)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void indexesAPhotoShownTwiceOnce() {
+		Photo photo = hashed("photo", 0x0123456789abcdefL);
+		Photo same = hashed("same hash", 0x0123456789abcdefL);
+		SimilarityIndex index = new SimilarityIndex();
+		index.add(photo);
+		index.add(same);
+		assertEquals(Arrays.asList(same), index.similar(photo, 0));
+	}
+
+	@Test
+	public void groupsChainsOfLookalikes() {
+		SimilarityIndex index = new SimilarityIndex();
+		Photo a = hashed("a", 0L), b = hashed("b", 0x3ffL), c = hashed("c", 0xfffffL), alone = hashed("alone", -1L);
+		for (Photo photo : new Photo[] { a, b, c, alone, hashed("d", 0xffff000000000000L), hashed("e", 0xffff0000000003ffL) }) {
+			index.add(photo);
+		}
+		List<List<Photo>> groups = index.groups(SimilarityIndex.NEAR_DUPLICATE);
+		assertEquals(2, groups.size());
+		assertEquals("a and c are linked through b", new HashSet<>(Arrays.asList(a, b, c)), new HashSet<>(groups.get(0)));
+		assertEquals(2, groups.get(1).size());
+	}
+
+	@Test
+	public void addsPhotosOnceTheyAreHashed() {
+		Photo hashed = hashed("hashed", 0x55L);
+		Photo later = Fixtures.photo("similarity-later");
+		SimilarityIndex index = new SimilarityIndex();
+		index.add(hashed);
+		index.add(later);
+		assertEquals(1, index.size());
+		assertEquals(1, index.getUnhashedCount());
+		assertTrue("an unhashed photo is not hashed on the spot", index.similar(later, 64).isEmpty());
+
+		later.setPerceptualHash(0x54L);
+		index.addHashed();
+		assertEquals(2, index.size());
+		assertEquals(0, index.getUnhashedCount());
+		assertEquals(Arrays.asList(later), index.similar(hashed, 1));
+	}
+
+	@Test
+	public void dropsPhotosThatCannotBeHashed() throws InterruptedException {
+		Photo unreadable = Fixtures.photo("similarity-unreadable"); // no blob behind its key
+		SimilarityIndex index = new SimilarityIndex();
+		index.add(unreadable);
+		assertEquals(1, index.getUnhashedCount());
+		for (int wait = 0; wait < 500 && !PerceptualHash.hasFailed(unreadable); wait++) {
+			Thread.sleep(10);
+		}
+		assertTrue(PerceptualHash.hasFailed(unreadable));
+
+		index.addHashed();
+		assertEquals(0, index.getUnhashedCount());
+		index.add(unreadable);
+		assertEquals("a photo that failed is not queued again", 0, index.getUnhashedCount());
+	}
+
+	private static Photo hashed(String name, long hash) {
+		Photo photo = Fixtures.photo(name);
+		photo.setPerceptualHash(hash);
+		return photo;
+	}
+
+	private static int distance(Photo a, Photo b) {
+		return PerceptualHash.distance(a.getPerceptualHash(), b.getPerceptualHash());
+	}
+}
@@ -0,0 +1,93 @@
+package storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import model.Album;
+import model.Photo;
+import model.Tag;
+import model.User;
+
+/**
+ * Tests that the SQL repository reads back what it saved, edit by edit, including the
+ * details of photos that were worked out after they were saved. Runs against an
+ * in-memory H2 database, so h2.jar has to be on the class path.
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class SqlRepositoryTest {
+
+	private static int databases = 0;
+
+	@Test
+	public void readsBackEditsAsTheyAreRecorded() {
+		String url = url();
+		SqlRepository repository = new SqlRepository(url);
+		Photo beach = Fixtures.photo("beach", "Location", "Nice");
+		User user = Fixtures.user("ann", Fixtures.album("trip", beach));
+		repository.addUser(user);
+
+		user.getAlbums().add(new Album("best"));
+		repository.record(user, new Operation.AddAlbum("ann", "best"));
+		user.getAlbums().get(1).getPhotos().add(beach);
+		repository.record(user, new Operation.CopyPhoto("ann", "trip", 0, "best"));
+		beach.getTags().add(new Tag("Person", "Bea"));
+		repository.record(user, new Operation.AddTag("ann", "trip", 0, new Tag("Person", "Bea")));
+		user.getAlbums().get(0).setName("holiday");
+		repository.record(user, new Operation.RenameAlbum("ann", "trip", "holiday"));
+
+		User read = new SqlRepository(url).readUser("ann");
+		assertEquals(2, read.getAlbums().size());
+		assertEquals("holiday", read.getAlbums().get(0).getName());
+		Photo beachRead = read.getAlbums().get(0).getPhotos().get(0);
+		assertSame("a copy shares the photo", beachRead, read.getAlbums().get(1).getPhotos().get(0));
+		assertEquals(2, beachRead.getTags().size());
+		assertTrue(beachRead.getTags().contains(new Tag("Person", "Bea")));
+		assertEquals(beach.getImageKey(), beachRead.getImageKey());
+	}
+
+	@Test
+	public void keepsSizeOrientationAndHash() {
+		String url = url();
+		SqlRepository repository = new SqlRepository(url);
+		Photo known = Fixtures.photo("known");
+		known.setSize(4000, 3000);
+		known.setOrientation(6);
+		known.setPerceptualHash(-2);
+		Photo later = Fixtures.photo("later");
+		User user = Fixtures.user("ann", Fixtures.album("a", known, later));
+		repository.addUser(user);
+
+		Photo laterRead = new SqlRepository(url).readUser("ann").getAlbums().get(0).getPhotos().get(1);
+		assertFalse(laterRead.hasSize());
+		assertFalse(laterRead.hasOrientation());
+		assertFalse(laterRead.hasPerceptualHash());
+
+		later.setSize(640, 480);
+		later.setPerceptualHash(0x123456789L);
+		ArrayList<User> users = new ArrayList<>();
+		users.add(user);
+		repository.save(users);
+
+		User read = new SqlRepository(url).readUser("ann");
+		Photo knownRead = read.getAlbums().get(0).getPhotos().get(0);
+		assertEquals(4000, knownRead.getWidth());
+		assertEquals(3000, knownRead.getHeight());
+		assertEquals(6, knownRead.getOrientation());
+		assertEquals(-2, knownRead.getPerceptualHash());
+		laterRead = read.getAlbums().get(0).getPhotos().get(1);
+		assertEquals(640, laterRead.getWidth());
+		assertFalse(laterRead.hasOrientation());
+		assertEquals(0x123456789L, laterRead.getPerceptualHash());
+	}
+
+	private static String url() {
+		return "jdbc:h2:mem:photos" + databases++ + ";DB_CLOSE_DELAY=-1";
+	}
+}
@@ -0,0 +1,66 @@
+package util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javafx.geometry.Point2D;
+import javafx.scene.transform.Affine;
+
+import org.junit.Test;
+
+import storage.ImageMetadata;
+
+/**
+ * Tests that the transform of each EXIF orientation puts every stored pixel where
+ * turning the pixels themselves puts it, so a view turned by transform shows the same
+ * upright image as a thumbnail turned pixel by pixel
+ *
+ * @author Isham Khan and Senuri Rupasinghe
+ */
+public class ImageOrientationTest {
+
+    private static final int WIDTH = 4, HEIGHT = 3;
+
+    @Test
+    public void transformsMatchTurnedPixels() {
+        int[] stored = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = i;
+        }
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            int[] upright = ImageMetadata.orient(stored, WIDTH, HEIGHT, orientation);
+            int uprightWidth = ImageOrientation.swapsSides(orientation) ? HEIGHT : WIDTH;
+            Affine transform = ImageOrientation.transform(orientation, WIDTH, HEIGHT);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    Point2D centre = transform.transform(x + 0.5, y + 0.5);
+                    int uprightX = (int) Math.floor(centre.getX()), uprightY = (int) Math.floor(centre.getY());
+                    assertEquals("orientation " + orientation + " at " + x + "," + y, stored[y * WIDTH + x],
+                            upright[uprightY * uprightWidth + uprightX]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void turnsTheCornersOfTheArea() {
+        // a quarter turn clockwise takes the top left corner to the top right
+        Point2D corner = ImageOrientation.transform(6, WIDTH, HEIGHT).transform(0, 0);
+        assertEquals(HEIGHT, corner.getX(), 0);
+        assertEquals(0, corner.getY(), 0);
+        Point2D same = ImageOrientation.transform(ImageMetadata.NORMAL, WIDTH, HEIGHT).transform(1, 2);
+        assertEquals(1, same.getX(), 0);
+        assertEquals(2, same.getY(), 0);
+    }
+
+    @Test
+    public void swapsSidesOnlyForQuarterTurns() {
+        for (int orientation = 1; orientation <= 4; orientation++) {
+            assertFalse(ImageOrientation.swapsSides(orientation));
+        }
+        for (int orientation = 5; orientation <= 8; orientation++) {
+            assertTrue(ImageOrientation.swapsSides(orientation));
+        }
+    }
+}